@@ -0,0 +1,150 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads and CPU used by the heartbeat monitors of idle connections. Every
+ * iteration starts the monitors of connected connections, leaves them idle
+ * but for their keep-alives, then reports the threads they added, the CPU
+ * time the process used meanwhile and the number of checks that ran. The idle
+ * time covers many check intervals, so the checks do their work while it is
+ * measured. An invocation lasts longer than an iteration, so each iteration
+ * runs exactly one. The counters are summed over the measurement iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class HeartbeatMonitorBenchmark {
+
+    // a check runs every (timeout - 2/3 of the timeout) / 3, here 333 ms
+    private static final long KEEP_ALIVE_TIMEOUT_MILLISECONDS = 3000;
+    private static final long KEEP_ALIVE_INTERVAL_MILLISECONDS = KEEP_ALIVE_TIMEOUT_MILLISECONDS / 2;
+    private static final long IDLE_MILLISECONDS = 10000;
+
+    @Param("10000")
+    public int connections;
+
+    private CountingConnection mConnection;
+
+    @Setup
+    public void setup() {
+        mConnection = new CountingConnection();
+    }
+
+    /**
+     * Connected connection that counts the checks reading its state
+     */
+    static class CountingConnection extends Connection {
+        final AtomicLong mStateReads = new AtomicLong();
+
+        CountingConnection() {
+            super("http://localhost/", new NullLogger(), false);
+        }
+
+        @Override
+        public ConnectionState getState() {
+            mStateReads.incrementAndGet();
+            return ConnectionState.Connected;
+        }
+    }
+
+    /**
+     * Counters reported next to the iteration time
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Usage {
+        public long addedThreads;
+        public double cpuMilliseconds;
+        public long checks;
+        public long alerts;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            addedThreads = 0;
+            cpuMilliseconds = 0;
+            checks = 0;
+            alerts = 0;
+        }
+    }
+
+    @Benchmark
+    public void idleConnections(Usage usage) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        long cpuBefore = getProcessCpuTime();
+        long checksBefore = mConnection.mStateReads.get();
+
+        final AtomicLong alerts = new AtomicLong();
+        Runnable onAlert = new Runnable() {
+
+            @Override
+            public void run() {
+                alerts.incrementAndGet();
+            }
+        };
+
+        HeartbeatMonitor[] monitors = new HeartbeatMonitor[connections];
+        for (int i = 0; i < monitors.length; i++) {
+            monitors[i] = new HeartbeatMonitor();
+            monitors[i].setOnWarning(onAlert);
+            monitors[i].setOnTimeout(onAlert);
+            monitors[i].start(new KeepAliveData(KEEP_ALIVE_TIMEOUT_MILLISECONDS), mConnection);
+        }
+
+        // the server sends a keep-alive to every connection on each interval
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(IDLE_MILLISECONDS);
+        long remaining;
+        while ((remaining = end - System.nanoTime()) > 0) {
+            Thread.sleep(Math.min(KEEP_ALIVE_INTERVAL_MILLISECONDS, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+            for (HeartbeatMonitor monitor : monitors) {
+                monitor.beat();
+            }
+        }
+
+        usage.addedThreads = threads.getThreadCount() - threadsBefore;
+        usage.cpuMilliseconds = (getProcessCpuTime() - cpuBefore) / 1e6;
+        usage.checks = mConnection.mStateReads.get() - checksBefore;
+        usage.alerts = alerts.get();
+
+        for (HeartbeatMonitor monitor : monitors) {
+            monitor.stop();
+        }
+    }
+
+    private static long getProcessCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+
+        return 0;
+    }
+}
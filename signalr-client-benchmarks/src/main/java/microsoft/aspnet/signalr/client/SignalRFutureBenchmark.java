@@ -0,0 +1,100 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of creating and completing a future. Run it with "-prof gc":
+ * gc.alloc.rate.norm is the memory used per future.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignalRFutureBenchmark {
+
+    private static final Object RESULT = new Object();
+    private static final Exception FAILURE = new Exception("Benchmark failure");
+
+    private static final Action<Object> DONE = new Action<Object>() {
+
+        @Override
+        public void run(Object result) {
+        }
+    };
+
+    private static final ErrorCallback ERROR = new ErrorCallback() {
+
+        @Override
+        public void onError(Throwable error) {
+        }
+    };
+
+    /**
+     * A future that is never completed
+     */
+    @Benchmark
+    public SignalRFuture<Object> create() {
+        return new SignalRFuture<Object>();
+    }
+
+    /**
+     * The result is set before anyone waits for it
+     */
+    @Benchmark
+    public SignalRFuture<Object> setResult() {
+        SignalRFuture<Object> future = new SignalRFuture<Object>();
+        future.setResult(RESULT);
+        return future;
+    }
+
+    /**
+     * The usual invocation: handlers are added, then the result arrives
+     */
+    @Benchmark
+    public SignalRFuture<Object> handlersThenResult() {
+        SignalRFuture<Object> future = new SignalRFuture<Object>();
+        future.done(DONE).onError(ERROR);
+        future.setResult(RESULT);
+        return future;
+    }
+
+    /**
+     * Handlers added to a completed future run right away
+     */
+    @Benchmark
+    public SignalRFuture<Object> resultThenHandlers() {
+        SignalRFuture<Object> future = new SignalRFuture<Object>();
+        future.setResult(RESULT);
+        future.done(DONE).onError(ERROR);
+        return future;
+    }
+
+    /**
+     * Handlers are added, then the operation fails
+     */
+    @Benchmark
+    public SignalRFuture<Object> handlersThenError() {
+        SignalRFuture<Object> future = new SignalRFuture<Object>();
+        future.done(DONE).onError(ERROR);
+        future.triggerError(FAILURE);
+        return future;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import microsoft.aspnet.signalr.client.Action;
+
+/**
+ * 16 threads invoking concurrently on the same connection. Each invocation
+ * registers its callback and the reply removes it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(16)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvocationRegistryBenchmark {
+
+    private static final Action<HubResult> CALLBACK = new Action<HubResult>() {
+
+        @Override
+        public void run(HubResult result) {
+        }
+    };
+
+    // replies still pending on each thread, enough to fill the ring
+    private static final int PENDING_PER_THREAD = 64;
+
+    private InvocationRegistry mRegistry;
+
+    // read from a field so that the parsing is not constant folded
+    private String mReplyId = "1234";
+
+    @Setup
+    public void setup() {
+        mRegistry = new InvocationRegistry();
+    }
+
+    /**
+     * Ids of the invocations a thread is waiting for
+     */
+    @State(Scope.Thread)
+    public static class Pending {
+        final long[] mIds = new long[PENDING_PER_THREAD];
+        int mNext = 0;
+
+        @Setup
+        public void setup(InvocationRegistryBenchmark benchmark) {
+            for (int i = 0; i < mIds.length; i++) {
+                mIds[i] = benchmark.mRegistry.register(CALLBACK);
+            }
+        }
+    }
+
+    /**
+     * The reply arrives before the next invocation
+     */
+    @Benchmark
+    public Action<HubResult> registerAndRemove() {
+        return mRegistry.remove(mRegistry.register(CALLBACK));
+    }
+
+    /**
+     * Every thread keeps invocations pending, and the oldest one is answered
+     * when a new one is sent
+     */
+    @Benchmark
+    public Action<HubResult> registerWithPendingReplies(Pending pending) {
+        int index = pending.mNext;
+        pending.mNext = (index + 1) % PENDING_PER_THREAD;
+
+        Action<HubResult> callback = mRegistry.remove(pending.mIds[index]);
+        pending.mIds[index] = mRegistry.register(CALLBACK);
+        return callback;
+    }
+
+    /**
+     * Parsing the "I" field of a reply
+     */
+    @Benchmark
+    public long parseReplyId() {
+        return InvocationRegistry.parseId(mReplyId);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.ConnectionState;
+import microsoft.aspnet.signalr.client.MessageResult;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.transport.TransportHelper;
+
+/**
+ * Cost of receiving a transport payload, from the raw text to the hub event
+ * handlers: TransportHelper.processReceivedData, HubConnection.onReceived and
+ * HubProxy.invokeEvent. Every benchmark processes one payload of the corpus.
+ * Run it with "-prof gc": gc.alloc.rate.norm is the memory allocated per
+ * payload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceivePipelineBenchmark {
+
+    private static final String HUB = "benchmarkHub";
+    private static final String EVENT = "update";
+
+    private static final String KEEP_ALIVE = "{}";
+    private static final String SINGLE_INVOCATION = payload(1, 0);
+    private static final String BATCH_OF_100 = payload(100, 0);
+    private static final String LARGE_PAYLOAD = payload(1, 64 * 1024);
+    private static final byte[] BATCH_OF_100_BYTES = BATCH_OF_100.getBytes(StandardCharsets.UTF_8);
+
+    private static final String REPLY_PREFIX = "{\"I\":\"";
+    private static final String REPLY_SUFFIX = "\",\"R\":{\"accepted\":true,\"position\":42}}";
+
+    private TransportlessHubConnection mConnection;
+    private long mReceivedEvents;
+    private long mReceivedReplies;
+
+    private final Action<HubResult> mReplyCallback = new Action<HubResult>() {
+
+        @Override
+        public void run(HubResult result) {
+            mReceivedReplies++;
+        }
+    };
+
+    /**
+     * A hub connection that is marked as connected without a transport
+     */
+    static class TransportlessHubConnection extends HubConnection {
+
+        public TransportlessHubConnection() {
+            super("http://localhost/", "", true, new NullLogger(), false);
+        }
+
+        void markConnected() {
+            mState = ConnectionState.Connected;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        mConnection = new TransportlessHubConnection();
+        mConnection.createHubProxy(HUB).subscribe(EVENT).addReceivedHandler(new Action<Object[]>() {
+
+            @Override
+            public void run(Object[] args) {
+                mReceivedEvents++;
+            }
+        });
+        mConnection.markConnected();
+
+        // fail fast if the corpus does not reach the handlers
+        TransportHelper.processReceivedData(BATCH_OF_100, mConnection);
+        if (mReceivedEvents != 100) {
+            throw new IllegalStateException("The events did not reach the handler");
+        }
+
+        invokeReply();
+        if (mReceivedReplies != 1) {
+            throw new IllegalStateException("The reply did not reach the callback");
+        }
+    }
+
+    /**
+     * An empty keep-alive message
+     */
+    @Benchmark
+    public MessageResult keepAlive() {
+        return TransportHelper.processReceivedData(KEEP_ALIVE, mConnection);
+    }
+
+    /**
+     * A payload with one hub event
+     */
+    @Benchmark
+    public MessageResult singleInvocation() {
+        return TransportHelper.processReceivedData(SINGLE_INVOCATION, mConnection);
+    }
+
+    /**
+     * A payload with 100 hub events
+     */
+    @Benchmark
+    public MessageResult batchOf100() {
+        return TransportHelper.processReceivedData(BATCH_OF_100, mConnection);
+    }
+
+    /**
+     * A payload with 100 hub events, received as bytes like WebSocket frames
+     */
+    @Benchmark
+    public MessageResult batchOf100Bytes() {
+        return TransportHelper.processReceivedData(BATCH_OF_100_BYTES, 0, BATCH_OF_100_BYTES.length, mConnection);
+    }
+
+    /**
+     * A payload with one hub event carrying 64 KB of data
+     */
+    @Benchmark
+    public MessageResult largePayload() {
+        return TransportHelper.processReceivedData(LARGE_PAYLOAD, mConnection);
+    }
+
+    /**
+     * The reply to a pending invocation. The reply text is built for the id of
+     * the registered callback, which is part of the measured cost.
+     */
+    @Benchmark
+    public MessageResult invokeReply() {
+        long id = mConnection.registerCallback(mReplyCallback);
+        return TransportHelper.processReceivedData(REPLY_PREFIX + id + REPLY_SUFFIX, mConnection);
+    }
+
+    /**
+     * Builds a persistent connection payload with hub events
+     *
+     * @param count    Number of events in the payload
+     * @param dataSize Size of the text carried by every event
+     */
+    private static String payload(int count, int dataSize) {
+        StringBuilder data = new StringBuilder(dataSize);
+        for (int i = 0; i < dataSize; i++) {
+            data.append((char) ('a' + i % 26));
+        }
+
+        StringBuilder payload = new StringBuilder("{\"C\":\"d-5A3F1B2C-B,0|C,1|D,0\",\"M\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+
+            payload.append("{\"H\":\"").append(HUB).append("\",\"M\":\"").append(EVENT).append("\",\"A\":[{\"id\":").append(i)
+                    .append(",\"symbol\":\"MSFT\",\"price\":41.25,\"change\":-0.13,\"open\":true,\"data\":\"").append(data)
+                    .append("\"}]}");
+        }
+
+        return payload.append("]}").toString();
+    }
+}
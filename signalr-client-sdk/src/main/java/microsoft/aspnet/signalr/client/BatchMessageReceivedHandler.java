@@ -0,0 +1,25 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Interface to define a handler for a "Messages received" event, invoked once
+ * with all the messages of a transport payload
+ */
+public interface BatchMessageReceivedHandler {
+    /**
+     * Handles a batch of incoming messages
+     * 
+     * @param messages
+     *            The received messages, in the order they were sent
+     */
+    void onMessagesReceived(List<JSONObject> messages);
+}
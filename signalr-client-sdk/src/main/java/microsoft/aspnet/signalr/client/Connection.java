@@ -11,8 +11,17 @@ import com.bluelinelabs.logansquare.LoganSquare;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import microsoft.aspnet.signalr.client.http.Request;
 import microsoft.aspnet.signalr.client.hubs.HubInvocation;
@@ -30,6 +39,20 @@ public class Connection implements ConnectionBase {
 
     public static final Version PROTOCOL_VERSION = new Version("1.3");
 
+    /**
+     * Dispatch key used for the connection "Received" handlers
+     */
+    protected static final String CONNECTION_DISPATCH_KEY = "connection";
+
+    private static final long DEFAULT_RECONNECT_BASE_DELAY = 500;
+
+    private static final long DEFAULT_RECONNECT_MAX_DELAY = 30000;
+
+    private static ExecutorService sReconnectExecutor;
+
+    private static final AtomicReferenceFieldUpdater<Connection, ConnectionState> STATE = AtomicReferenceFieldUpdater.newUpdater(Connection.class,
+            ConnectionState.class, "mState");
+
     private Logger mLogger;
 
     private String mUrl;
@@ -52,7 +75,7 @@ public class Connection implements ConnectionBase {
 
     private UpdateableCancellableFuture<Void> mConnectionFuture;
 
-    private boolean mAborting = false;
+    private volatile boolean mAborting = false;
 
     private SignalRFuture<Void> mAbortFuture = new SignalRFuture<Void>();
 
@@ -64,6 +87,8 @@ public class Connection implements ConnectionBase {
 
     private MessageReceivedHandler mOnReceived;
 
+    private BatchMessageReceivedHandler mOnReceivedBatch;
+
     private ErrorCallback mOnError;
 
     private Runnable mOnConnectionSlow;
@@ -72,15 +97,51 @@ public class Connection implements ConnectionBase {
 
     private StateChangedCallback mOnStateChanged;
 
-    private ClientTransport mTransport;
+    private final ConnectionEventBus mEventBus;
+
+    private volatile Dispatcher mDispatcher = new InlineDispatcher();
+
+    private volatile InboundQueue mInboundQueue;
 
-    private HeartbeatMonitor mHeartbeatMonitor;
+    private volatile OutboundBuffer mOutboundBuffer;
+
+    private volatile ClientTransport mTransport;
+
+    private volatile HeartbeatMonitor mHeartbeatMonitor;
 
     private KeepAliveData mKeepAliveData;
 
-    protected ConnectionState mState;
+    protected volatile ConnectionState mState;
+
+    private final AtomicBoolean mDisconnecting = new AtomicBoolean(false);
 
-    private Object mStateLock = new Object();
+    private final ConnectionMetrics mMetrics = new ConnectionMetrics();
+
+    private volatile ReconnectPolicy mReconnectPolicy = new DecorrelatedJitterReconnectPolicy(DEFAULT_RECONNECT_BASE_DELAY,
+            DEFAULT_RECONNECT_MAX_DELAY, 0);
+
+    private volatile long mDisconnectTimeout = 0;
+
+    // number of the last scheduled reconnect attempt
+    private final AtomicInteger mReconnectAttempt = new AtomicInteger(0);
+
+    private volatile long mReconnectStartTime;
+
+    private volatile long mReconnectDelay;
+
+    private volatile KeepAliveData mReconnectKeepAliveData;
+
+    private volatile HashedWheelTimer.Timeout mReconnectTimeout;
+
+    private volatile boolean mFastResumeEnabled = false;
+
+    private volatile boolean mAdaptiveKeepAliveEnabled = false;
+
+    private volatile ResumeState mResumeState;
+
+    private final AtomicBoolean mResuming = new AtomicBoolean(false);
+
+    private volatile long mStartTime;
 
     private Object mStartLock = new Object();
 
@@ -143,6 +204,21 @@ public class Connection implements ConnectionBase {
         mLogger = logger;
 
         mState = ConnectionState.Disconnected;
+
+        mEventBus = new ConnectionEventBus(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                Connection.this.onError(error, false);
+            }
+        });
+        mEventBus.addListener(new ConnectionEventListener() {
+
+            @Override
+            public void onEvent(ConnectionEvent event) {
+                invokeEventHandler(event);
+            }
+        });
     }
 
     @Override
@@ -225,6 +301,16 @@ public class Connection implements ConnectionBase {
         mOnReceived = handler;
     }
 
+    @Override
+    public void receivedBatch(BatchMessageReceivedHandler handler) {
+        mOnReceivedBatch = handler;
+    }
+
+    @Override
+    public boolean isBatchReceiveEnabled() {
+        return mOnReceivedBatch != null;
+    }
+
     @Override
     public void connectionSlow(Runnable handler) {
         mOnConnectionSlow = handler;
@@ -240,6 +326,182 @@ public class Connection implements ConnectionBase {
         mOnStateChanged = handler;
     }
 
+    /**
+     * Returns the bus that publishes the state, connected, reconnecting,
+     * reconnected, connection slow and closed events. The handlers set with
+     * stateChanged, connected, reconnecting, reconnected, connectionSlow and
+     * closed are invoked from it as well.
+     */
+    public ConnectionEventBus getEventBus() {
+        return mEventBus;
+    }
+
+    /**
+     * Returns the metrics of the connection
+     */
+    public ConnectionMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Returns the policy that decides when a lost connection tries to
+     * reconnect
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return mReconnectPolicy;
+    }
+
+    /**
+     * Sets the policy that decides when a lost connection tries to reconnect.
+     * Whatever the policy, the connection stops reconnecting once the
+     * disconnect timeout sent by the server elapsed, as the server no longer
+     * knows the connection then. By default the delays use decorrelated
+     * jitter, between half a second and 30 seconds.
+     *
+     * @param reconnectPolicy The policy to use
+     */
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        if (reconnectPolicy == null) {
+            throw new IllegalArgumentException("reconnectPolicy cannot be null");
+        }
+
+        mReconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * Indicates if start() resumes the last lost connection when possible
+     */
+    public boolean isFastResumeEnabled() {
+        return mFastResumeEnabled;
+    }
+
+    /**
+     * Enables or disables the fast resume. When it is enabled and the last
+     * connection was lost, instead of stopped, start() first reconnects with
+     * the cached connection token, message id and groups token, which skips
+     * the negotiate round-trip and gets the messages sent in the meantime. If
+     * the server no longer knows the connection, start() falls back to a full
+     * negotiate. A resume is only tried before the disconnect timeout of the
+     * lost connection elapsed. The server sees a resumed connection as
+     * reconnected.
+     *
+     * @param enabled True to enable the fast resume
+     */
+    public void setFastResumeEnabled(boolean enabled) {
+        mFastResumeEnabled = enabled;
+        if (!enabled) {
+            mResumeState = null;
+        }
+    }
+
+    /**
+     * Indicates if the keep alive thresholds adapt to the observed time
+     * between received messages
+     */
+    public boolean isAdaptiveKeepAliveEnabled() {
+        return mAdaptiveKeepAliveEnabled;
+    }
+
+    /**
+     * Enables or disables the adaptive keep alive. By default, the connection
+     * is slow after 2/3 of the keep alive timeout sent by the server without
+     * data, and lost after the whole timeout. In adaptive mode, both
+     * thresholds follow a smoothed estimate of the time between received
+     * messages and of its jitter, between a fraction of the server timeout
+     * and the server timeout. The estimate is available in the metrics. It
+     * applies to the connections started afterwards.
+     *
+     * @param enabled True to enable the adaptive keep alive
+     */
+    public void setAdaptiveKeepAliveEnabled(boolean enabled) {
+        mAdaptiveKeepAliveEnabled = enabled;
+    }
+
+    /**
+     * Returns the dispatcher that runs the user handlers
+     */
+    public Dispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
+    /**
+     * Sets the dispatcher that runs the user handlers. By default they run
+     * inline, on the transport thread.
+     *
+     * @param dispatcher The dispatcher to use
+     */
+    public void setDispatcher(Dispatcher dispatcher) {
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("dispatcher cannot be null");
+        }
+
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * Returns the inbound queue, or null if the messages are processed on the
+     * transport thread
+     */
+    public InboundQueue getInboundQueue() {
+        return mInboundQueue;
+    }
+
+    /**
+     * Sets a bounded queue between the transport and the handlers. The
+     * transport thread only enqueues the received messages, and the queue
+     * overflow policy applies when the handlers can't keep up.
+     *
+     * @param queue The queue to use, or null to process the messages on the
+     *              transport thread
+     */
+    public void setInboundQueue(InboundQueue queue) {
+        if (queue != null) {
+            queue.setConsumer(new Action<Object>() {
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public void run(Object entry) {
+                    if (entry instanceof JSONObject) {
+                        deliverReceived((JSONObject) entry);
+                    } else {
+                        deliverReceived((List<JSONObject>) entry);
+                    }
+                }
+            });
+        }
+
+        InboundQueue oldQueue = mInboundQueue;
+        mInboundQueue = queue;
+
+        if (oldQueue != null && oldQueue != queue) {
+            oldQueue.setConsumer(null);
+        }
+    }
+
+    /**
+     * Returns the outbound buffer, or null if messages are not buffered while
+     * reconnecting
+     */
+    public OutboundBuffer getOutboundBuffer() {
+        return mOutboundBuffer;
+    }
+
+    /**
+     * Sets a bounded buffer for the messages sent while the connection is
+     * reconnecting. They are sent in order once the connection is restored,
+     * instead of failing. Messages still in a replaced buffer are dropped.
+     *
+     * @param buffer The buffer to use, or null to send the messages right away
+     */
+    public void setOutboundBuffer(OutboundBuffer buffer) {
+        OutboundBuffer oldBuffer = mOutboundBuffer;
+        mOutboundBuffer = buffer;
+
+        if (oldBuffer != null && oldBuffer != buffer) {
+            oldBuffer.clear();
+        }
+    }
+
     /**
      * Starts the connection using the best available transport
      *
@@ -281,21 +543,88 @@ public class Connection implements ConnectionBase {
             return new SignalRFuture<Void>();
         }
 
+        // the state only changes once the cleanup is done, so a disconnecting
+        // connection is rejected here
+        if (mDisconnecting.get()) {
+            onError(new InvalidStateException(ConnectionState.Disconnected), false);
+            return new SignalRFuture<Void>();
+        }
+
+        // once messages are buffered, the following ones are buffered too
+        // until the buffer is flushed, so they keep their order
+        OutboundBuffer buffer = mOutboundBuffer;
+        if (buffer != null && (mState == ConnectionState.Reconnecting || !buffer.isIdle())) {
+            log("Buffering the message until the connection is restored", LogLevel.Verbose);
+            SignalRFuture<Void> future = buffer.add(data);
+            if (mState == ConnectionState.Connected) {
+                flushOutboundBuffer(buffer);
+            }
+            return future;
+        }
+
+        return sendOnTransport(data);
+    }
+
+    /**
+     * Sends data on the current transport
+     *
+     * @param data The data to send
+     * @return A Future for the operation
+     */
+    private SignalRFuture<Void> sendOnTransport(String data) {
         final Connection that = this;
 
+        // the transport is cleared by a concurrent disconnect
+        ClientTransport transport = mTransport;
+        if (transport == null) {
+            SignalRFuture<Void> future = new SignalRFuture<Void>();
+            future.triggerError(new InvalidStateException(ConnectionState.Disconnected));
+            return future;
+        }
+
         log("Invoking send on transport", LogLevel.Verbose);
-        SignalRFuture<Void> future = mTransport.send(this, data, new DataResultCallback() {
+        SignalRFuture<Void> future = transport.send(this, data, new DataResultCallback() {
 
             @Override
             public void onData(String data) {
                 that.processReceivedData(data);
             }
+
+            @Override
+            public void onData(byte[] data, int offset, int length) {
+                that.processReceivedData(data, offset, length);
+            }
+
+            @Override
+            public void onData(InputStream stream) {
+                that.processReceivedData(stream);
+            }
         });
 
         handleFutureError(future, false);
         return future;
     }
 
+    /**
+     * Sends the buffered messages, as long as the connection is connected
+     *
+     * @param buffer The buffer to flush
+     */
+    private void flushOutboundBuffer(OutboundBuffer buffer) {
+        buffer.flush(new OutboundBuffer.SendAction() {
+
+            @Override
+            public SignalRFuture<Void> send(String data) {
+                if (mState != ConnectionState.Connected) {
+                    return null;
+                }
+
+                log("Sending buffered message: " + data, LogLevel.Information);
+                return sendOnTransport(data);
+            }
+        });
+    }
+
     /**
      * Handles a Future error, invoking the connection onError event
      *
@@ -328,50 +657,141 @@ public class Connection implements ConnectionBase {
             mTransport = transport;
             mConnectionFuture = new UpdateableCancellableFuture<Void>(null);
             handleFutureError(mConnectionFuture, true);
+            mStartTime = System.nanoTime();
+
+            ResumeState resumeState = takeResumeState();
+            if (resumeState != null) {
+                resume(resumeState);
+            } else {
+                negotiate(transport);
+            }
 
-            log("Start negotiation", LogLevel.Verbose);
-            SignalRFuture<NegotiationResponse> negotiationFuture = transport.negotiate(this);
+            return mConnectionFuture;
+        }
+    }
 
+    /**
+     * Negotiates the connection and starts the transport
+     *
+     * @param transport The transport to use
+     */
+    private void negotiate(ClientTransport transport) {
+        log("Start negotiation", LogLevel.Verbose);
+        SignalRFuture<NegotiationResponse> negotiationFuture = transport.negotiate(this);
 
-            negotiationFuture.done(new Action<NegotiationResponse>() {
+        negotiationFuture.done(new Action<NegotiationResponse>() {
 
-                @Override
-                public void run(NegotiationResponse negotiationResponse) {
-                    log("Negotiation completed", LogLevel.Information);
-                    if (!verifyProtocolVersion(negotiationResponse.getProtocolVersion())) {
-                        Exception err = new InvalidProtocolVersionException(negotiationResponse.getProtocolVersion());
-                        onError(err, true);
-                        mConnectionFuture.triggerError(err);
-                        return;
-                    }
+            @Override
+            public void run(NegotiationResponse negotiationResponse) {
+                log("Negotiation completed", LogLevel.Information);
+                if (!verifyProtocolVersion(negotiationResponse.getProtocolVersion())) {
+                    Exception err = new InvalidProtocolVersionException(negotiationResponse.getProtocolVersion());
+                    onError(err, true);
+                    mConnectionFuture.triggerError(err);
+                    return;
+                }
 
-                    mConnectionId = negotiationResponse.getConnectionId();
-                    mConnectionToken = negotiationResponse.getConnectionToken();
-                    log("ConnectionId: " + mConnectionId, LogLevel.Verbose);
-                    log("ConnectionToken: " + mConnectionToken, LogLevel.Verbose);
+                mConnectionId = negotiationResponse.getConnectionId();
+                mConnectionToken = negotiationResponse.getConnectionToken();
+                log("ConnectionId: " + mConnectionId, LogLevel.Verbose);
+                log("ConnectionToken: " + mConnectionToken, LogLevel.Verbose);
 
-                    KeepAliveData keepAliveData = null;
-                    if (negotiationResponse.getKeepAliveTimeout() > 0) {
-                        log("Keep alive timeout: " + negotiationResponse.getKeepAliveTimeout(), LogLevel.Verbose);
-                        keepAliveData = new KeepAliveData((long) (negotiationResponse.getKeepAliveTimeout() * 1000));
-                    }
+                mDisconnectTimeout = (long) (negotiationResponse.getDisconnectTimeout() * 1000);
 
-                    startTransport(keepAliveData, false);
+                KeepAliveData keepAliveData = null;
+                if (negotiationResponse.getKeepAliveTimeout() > 0) {
+                    log("Keep alive timeout: " + negotiationResponse.getKeepAliveTimeout(), LogLevel.Verbose);
+                    keepAliveData = new KeepAliveData((long) (negotiationResponse.getKeepAliveTimeout() * 1000), mAdaptiveKeepAliveEnabled);
                 }
-            });
 
-            negotiationFuture.onError(new ErrorCallback() {
+                startTransport(keepAliveData, false, false);
+            }
+        });
 
-                @Override
-                public void onError(Throwable error) {
-                    mConnectionFuture.triggerError(error);
-                }
-            });
+        negotiationFuture.onError(new ErrorCallback() {
 
-            handleFutureError(negotiationFuture, true);
-            mConnectionFuture.setFuture(negotiationFuture);
+            @Override
+            public void onError(Throwable error) {
+                mConnectionFuture.triggerError(error);
+            }
+        });
 
-            return mConnectionFuture;
+        handleFutureError(negotiationFuture, true);
+        mConnectionFuture.setFuture(negotiationFuture);
+    }
+
+    /**
+     * Returns the data of the last lost connection and forgets it, or null if
+     * it can't be resumed
+     */
+    private ResumeState takeResumeState() {
+        ResumeState resumeState = mResumeState;
+        mResumeState = null;
+
+        if (!mFastResumeEnabled || resumeState == null) {
+            return null;
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - resumeState.mLostTime);
+        if (resumeState.mDisconnectTimeout > 0 && elapsed >= resumeState.mDisconnectTimeout) {
+            log("The lost connection expired " + elapsed + " ms ago. It can't be resumed", LogLevel.Verbose);
+            return null;
+        }
+
+        return resumeState;
+    }
+
+    /**
+     * Reconnects with the data of the last lost connection, without
+     * negotiating
+     *
+     * @param resumeState The data of the lost connection
+     */
+    private void resume(ResumeState resumeState) {
+        log("Resuming connection " + resumeState.mConnectionId, LogLevel.Information);
+
+        mConnectionId = resumeState.mConnectionId;
+        mConnectionToken = resumeState.mConnectionToken;
+        mMessageId = resumeState.mMessageId;
+        mGroupsToken = resumeState.mGroupsToken;
+        mDisconnectTimeout = resumeState.mDisconnectTimeout;
+
+        KeepAliveData keepAliveData = null;
+        if (resumeState.mKeepAliveTimeout > 0) {
+            keepAliveData = new KeepAliveData(resumeState.mKeepAliveTimeout, mAdaptiveKeepAliveEnabled);
+        }
+
+        mResuming.set(true);
+        startTransport(keepAliveData, false, true);
+    }
+
+    /**
+     * Negotiates a new connection after the server rejected a resume
+     *
+     * @param error The error of the resume
+     * @return False if the resume had already succeeded, so the error belongs
+     *         to the resumed connection
+     */
+    private boolean onResumeFailed(Throwable error) {
+        if (!mResuming.compareAndSet(true, false)) {
+            return false;
+        }
+
+        synchronized (mStartLock) {
+            if (mState != ConnectionState.Connecting || mTransport == null) {
+                return true;
+            }
+
+            log("Couldn't resume the connection (" + error.toString() + "). Negotiating a new one", LogLevel.Information);
+            mMetrics.onResumeFailed();
+
+            mConnectionId = null;
+            mConnectionToken = null;
+            mMessageId = null;
+            mGroupsToken = null;
+
+            negotiate(mTransport);
+            return true;
         }
     }
 
@@ -383,20 +803,47 @@ public class Connection implements ConnectionBase {
      * @return True, if the state was changed
      */
     private boolean changeState(ConnectionState oldState, ConnectionState newState) {
-        synchronized (mStateLock) {
-            if (mState == oldState) {
-                mState = newState;
-                if (mOnStateChanged != null) {
-                    try {
-                        mOnStateChanged.stateChanged(oldState, newState);
-                    } catch (Throwable e) {
-                        onError(e, false);
-                    }
+        if (!STATE.compareAndSet(this, oldState, newState)) {
+            return false;
+        }
+
+        mEventBus.publish(new ConnectionEvent(ConnectionEventType.StateChanged, oldState, newState));
+        return true;
+    }
+
+    /**
+     * Invokes the handler set for an event
+     *
+     * @param event The event
+     */
+    private void invokeEventHandler(ConnectionEvent event) {
+        Runnable handler = null;
+        switch (event.getType()) {
+            case StateChanged:
+                StateChangedCallback stateChanged = mOnStateChanged;
+                if (stateChanged != null) {
+                    stateChanged.stateChanged(event.getOldState(), event.getNewState());
                 }
-                return true;
-            }
+                return;
+            case Connected:
+                handler = mOnConnected;
+                break;
+            case Reconnecting:
+                handler = mOnReconnecting;
+                break;
+            case Reconnected:
+                handler = mOnReconnected;
+                break;
+            case ConnectionSlow:
+                handler = mOnConnectionSlow;
+                break;
+            case Closed:
+                handler = mOnClosed;
+                break;
+        }
 
-            return false;
+        if (handler != null) {
+            handler.run();
         }
     }
 
@@ -432,7 +879,8 @@ public class Connection implements ConnectionBase {
                 return;
             }
 
-            if (mState == ConnectionState.Disconnected) {
+            ClientTransport transport = mTransport;
+            if (mState == ConnectionState.Disconnected || transport == null) {
                 log("Connection already in disconnected state. Exiting abort", LogLevel.Verbose);
                 return;
             }
@@ -441,7 +889,7 @@ public class Connection implements ConnectionBase {
             mAborting = true;
 
             log("Starting abort operation", LogLevel.Verbose);
-            mAbortFuture = mTransport.abort(this);
+            mAbortFuture = transport.abort(this);
 
             if (mAbortFuture == null) {
                 return;
@@ -452,9 +900,9 @@ public class Connection implements ConnectionBase {
 
                 @Override
                 public void onError(Throwable error) {
+                    that.onError(error, false);
+                    disconnect();
                     synchronized (mStartLock) {
-                        that.onError(error, false);
-                        disconnect();
                         mAborting = false;
                     }
                 }
@@ -475,9 +923,9 @@ public class Connection implements ConnectionBase {
 
                 @Override
                 public void run(Void obj) throws Exception {
+                    log("Abort completed", LogLevel.Information);
+                    disconnect();
                     synchronized (mStartLock) {
-                        log("Abort completed", LogLevel.Information);
-                        disconnect();
                         mAborting = false;
                     }
                 }
@@ -487,79 +935,122 @@ public class Connection implements ConnectionBase {
 
     @Override
     public void disconnect() {
-        synchronized (mStateLock) {
-            log("Entered stateLock in disconnect", LogLevel.Verbose);
+        if (mState == ConnectionState.Disconnected || !mDisconnecting.compareAndSet(false, true)) {
+            return;
+        }
 
-            if (mState == ConnectionState.Disconnected) {
-                return;
-            }
+        log("Disconnecting", LogLevel.Information);
 
-            log("Disconnecting", LogLevel.Information);
-            ConnectionState oldState = mState;
-            mState = ConnectionState.Disconnected;
-            if (mOnStateChanged != null) {
-                try {
-                    mOnStateChanged.stateChanged(oldState, ConnectionState.Disconnected);
-                } catch (Throwable e) {
-                    onError(e, false);
-                }
-            }
+        // the state only becomes Disconnected once the connection is cleaned
+        // up, so a new start can't overlap the cleanup. Sends are rejected as
+        // soon as mDisconnecting is set.
+        HeartbeatMonitor heartbeatMonitor = mHeartbeatMonitor;
+        mHeartbeatMonitor = null;
+        if (heartbeatMonitor != null) {
+            log("Stopping Heartbeat monitor", LogLevel.Verbose);
+            heartbeatMonitor.stop();
+        }
 
-            if (mHeartbeatMonitor != null) {
-                log("Stopping Heartbeat monitor", LogLevel.Verbose);
-                mHeartbeatMonitor.stop();
-            }
+        UpdateableCancellableFuture<Void> connectionFuture = mConnectionFuture;
+        if (connectionFuture != null) {
+            mConnectionFuture = new UpdateableCancellableFuture<Void>(null);
+        }
 
-            mHeartbeatMonitor = null;
+        SignalRFuture<Void> abortFuture = mAbortFuture;
 
-            if (mConnectionFuture != null) {
-                log("Stopping the connection", LogLevel.Verbose);
-                mConnectionFuture.cancel();
-                mConnectionFuture = new UpdateableCancellableFuture<Void>(null);
-            }
+        HashedWheelTimer.Timeout reconnectTimeout = mReconnectTimeout;
+        mReconnectTimeout = null;
+        if (reconnectTimeout != null) {
+            reconnectTimeout.cancel();
+        }
+        mReconnectKeepAliveData = null;
 
-            if (mAbortFuture != null) {
-                log("Cancelling abort", LogLevel.Verbose);
-                mAbortFuture.cancel();
-            }
+        InboundQueue inboundQueue = mInboundQueue;
+        if (inboundQueue != null) {
+            inboundQueue.clear();
+        }
 
-            mConnectionId = null;
-            mConnectionToken = null;
-            mCredentials = null;
-            mGroupsToken = null;
-            mHeaders.clear();
-            mMessageId = null;
-            mTransport = null;
+        saveResumeState();
+
+        mConnectionId = null;
+        mConnectionToken = null;
+        mCredentials = null;
+        mGroupsToken = null;
+        mHeaders.clear();
+        mMessageId = null;
+        mTransport = null;
+
+        ConnectionState oldState = STATE.getAndSet(this, ConnectionState.Disconnected);
+        mDisconnecting.set(false);
 
-            onClosed();
+        if (oldState == ConnectionState.Reconnecting) {
+            mMetrics.onReconnectingEnded(System.nanoTime() - mReconnectStartTime);
+        }
+        mEventBus.publish(new ConnectionEvent(ConnectionEventType.StateChanged, oldState, ConnectionState.Disconnected));
+
+        if (connectionFuture != null) {
+            log("Stopping the connection", LogLevel.Verbose);
+            connectionFuture.cancel();
+        }
+
+        if (abortFuture != null) {
+            log("Cancelling abort", LogLevel.Verbose);
+            abortFuture.cancel();
+        }
+
+        OutboundBuffer outboundBuffer = mOutboundBuffer;
+        if (outboundBuffer != null) {
+            outboundBuffer.clear();
+        }
+
+        onClosed();
+    }
+
+    /**
+     * Keeps the data of a connection that is lost, and not stopped, so the
+     * next start can resume it
+     */
+    private void saveResumeState() {
+        ConnectionState state = mState;
+        if (!mFastResumeEnabled || mAborting || mConnectionToken == null
+                || (state != ConnectionState.Connected && state != ConnectionState.Reconnecting)) {
+            mResumeState = null;
+            return;
         }
+
+        ResumeState resumeState = new ResumeState();
+        resumeState.mConnectionId = mConnectionId;
+        resumeState.mConnectionToken = mConnectionToken;
+        resumeState.mMessageId = mMessageId;
+        resumeState.mGroupsToken = mGroupsToken;
+        resumeState.mDisconnectTimeout = mDisconnectTimeout;
+        resumeState.mLostTime = state == ConnectionState.Reconnecting ? mReconnectStartTime : System.nanoTime();
+
+        KeepAliveData keepAliveData = mKeepAliveData;
+        resumeState.mKeepAliveTimeout = keepAliveData != null ? keepAliveData.getServerTimeout() : 0;
+
+        mResumeState = resumeState;
     }
 
     /**
      * Triggers the Reconnecting event
      */
     protected void onReconnecting() {
-        if (mOnReconnecting != null) {
-            mOnReconnecting.run();
-        }
+        mEventBus.publish(new ConnectionEvent(ConnectionEventType.Reconnecting, ConnectionState.Connected, ConnectionState.Reconnecting));
     }
 
     /**
      * Triggers the Reconnected event
      */
     protected void onReconnected() {
-        if (mOnReconnected != null) {
-            mOnReconnected.run();
-        }
+        mEventBus.publish(new ConnectionEvent(ConnectionEventType.Reconnected, ConnectionState.Reconnecting, ConnectionState.Connected));
     }
 
     /**
      * Triggers the Connected event
      */
     protected void onConnected() {
-        if (mOnConnected != null) {
-            mOnConnected.run();
-        }
+        mEventBus.publish(new ConnectionEvent(ConnectionEventType.Connected, ConnectionState.Connecting, ConnectionState.Connected));
     }
 
     /**
@@ -588,8 +1079,9 @@ public class Connection implements ConnectionBase {
      *
      * @param keepAliveData  Keep Alive data for heartbeat monitor
      * @param isReconnecting True if is reconnecting
+     * @param isResuming     True if is resuming a lost connection
      */
-    private void startTransport(KeepAliveData keepAliveData, final boolean isReconnecting) {
+    private void startTransport(KeepAliveData keepAliveData, final boolean isReconnecting, final boolean isResuming) {
         synchronized (mStartLock) {
             log("Entered startLock in startTransport", LogLevel.Verbose);
             // if the connection was closed before this callback, just return;
@@ -598,31 +1090,26 @@ public class Connection implements ConnectionBase {
                 return;
             }
 
-            log("Starting the transport", LogLevel.Information);
-            if (isReconnecting) {
-                if (mHeartbeatMonitor != null) {
-                    log("Stopping heartbeat monitor", LogLevel.Verbose);
-                    mHeartbeatMonitor.stop();
-                }
-
-                changeState(ConnectionState.Connected, ConnectionState.Reconnecting);
-                onReconnecting();
+            if (isReconnecting && mState != ConnectionState.Reconnecting) {
+                log("The connection is no longer reconnecting. Exiting startTransport", LogLevel.Verbose);
+                return;
             }
 
-            mHeartbeatMonitor = new HeartbeatMonitor();
+            log("Starting the transport", LogLevel.Information);
+
+            final HeartbeatMonitor heartbeatMonitor = new HeartbeatMonitor();
+            mHeartbeatMonitor = heartbeatMonitor;
 
-            mHeartbeatMonitor.setOnWarning(new Runnable() {
+            heartbeatMonitor.setOnWarning(new Runnable() {
 
                 @Override
                 public void run() {
                     log("Slow connection detected", LogLevel.Information);
-                    if (mOnConnectionSlow != null) {
-                        mOnConnectionSlow.run();
-                    }
+                    mEventBus.publish(new ConnectionEvent(ConnectionEventType.ConnectionSlow, mState, mState));
                 }
             });
 
-            mHeartbeatMonitor.setOnTimeout(new Runnable() {
+            heartbeatMonitor.setOnTimeout(new Runnable() {
 
                 @Override
                 public void run() {
@@ -637,7 +1124,7 @@ public class Connection implements ConnectionBase {
 
             final Connection that = this;
 
-            ConnectionType connectionType = isReconnecting ? ConnectionType.Reconnection : ConnectionType.InitialConnection;
+            ConnectionType connectionType = isReconnecting || isResuming ? ConnectionType.Reconnection : ConnectionType.InitialConnection;
 
             log("Starting transport for " + connectionType.toString(), LogLevel.Verbose);
             SignalRFuture<Void> future = null;
@@ -647,45 +1134,104 @@ public class Connection implements ConnectionBase {
                     log("Received data: ", LogLevel.Verbose);
                     processReceivedData(data);
                 }
-            });
 
-            handleFutureError(future, true);
-
-            mConnectionFuture.setFuture(future);
-            future.onError(new ErrorCallback() {
+                @Override
+                public void onData(byte[] data, int offset, int length) {
+                    log("Received data: ", LogLevel.Verbose);
+                    processReceivedData(data, offset, length);
+                }
 
                 @Override
-                public void onError(Throwable error) {
-                    mConnectionFuture.triggerError(error);
+                public void onData(InputStream stream) {
+                    log("Receiving data", LogLevel.Verbose);
+                    processReceivedData(stream);
                 }
             });
 
+            if (isReconnecting) {
+                final int attempt = mReconnectAttempt.get();
+                future.onError(new ErrorCallback() {
+
+                    @Override
+                    public void onError(Throwable error) {
+                        log(error);
+                        scheduleReconnectAttempt(attempt, error);
+                    }
+                });
+            } else if (isResuming) {
+                future.onError(new ErrorCallback() {
+
+                    @Override
+                    public void onError(Throwable error) {
+                        if (!onResumeFailed(error)) {
+                            // the transport of a resumed connection failed
+                            that.onError(error, true);
+                        } else {
+                            log(error);
+                        }
+                    }
+                });
+            } else {
+                handleFutureError(future, true);
+            }
+
+            mConnectionFuture.setFuture(future);
+
+            // a failed resume falls back to negotiate, so it doesn't fail the
+            // start
+            if (!isResuming) {
+                future.onError(new ErrorCallback() {
+
+                    @Override
+                    public void onError(Throwable error) {
+                        mConnectionFuture.triggerError(error);
+                    }
+                });
+            }
+
             mKeepAliveData = keepAliveData;
+            mMetrics.setKeepAliveData(keepAliveData);
 
             future.done(new Action<Void>() {
 
                 @Override
                 public void run(Void obj) throws Exception {
+                    ConnectionEventType event = null;
                     synchronized (mStartLock) {
                         log("Entered startLock after transport was started", LogLevel.Verbose);
                         log("Current state: " + mState, LogLevel.Verbose);
                         if (changeState(ConnectionState.Reconnecting, ConnectionState.Connected)) {
-
                             log("Starting Heartbeat monitor", LogLevel.Verbose);
-                            mHeartbeatMonitor.start(mKeepAliveData, that);
-
-                            log("Reconnected", LogLevel.Information);
-                            onReconnected();
-
+                            heartbeatMonitor.start(mKeepAliveData, that);
+                            event = ConnectionEventType.Reconnected;
                         } else if (changeState(ConnectionState.Connecting, ConnectionState.Connected)) {
-
                             log("Starting Heartbeat monitor", LogLevel.Verbose);
-                            mHeartbeatMonitor.start(mKeepAliveData, that);
+                            heartbeatMonitor.start(mKeepAliveData, that);
+                            event = ConnectionEventType.Connected;
+                        }
+                    }
 
-                            log("Connected", LogLevel.Information);
-                            onConnected();
-                            mConnectionFuture.setResult(null);
+                    // the handlers and the future callbacks run without the lock
+                    if (event == ConnectionEventType.Reconnected) {
+                        log("Reconnected", LogLevel.Information);
+                        mMetrics.onReconnected(System.nanoTime() - mReconnectStartTime);
+
+                        OutboundBuffer buffer = mOutboundBuffer;
+                        if (buffer != null) {
+                            flushOutboundBuffer(buffer);
                         }
+
+                        onReconnected();
+                    } else if (event == ConnectionEventType.Connected) {
+                        log("Connected", LogLevel.Information);
+                        if (isResuming && mResuming.compareAndSet(true, false)) {
+                            mMetrics.onResumed(System.nanoTime() - mStartTime);
+                        } else {
+                            mMetrics.onStarted(System.nanoTime() - mStartTime);
+                        }
+
+                        onConnected();
+                        mConnectionFuture.setResult(null);
                     }
                 }
             });
@@ -698,13 +1244,56 @@ public class Connection implements ConnectionBase {
      * @param data The received data
      */
     private void processReceivedData(String data) {
-        if (mHeartbeatMonitor != null) {
-            mHeartbeatMonitor.beat();
+        HeartbeatMonitor heartbeatMonitor = mHeartbeatMonitor;
+        if (heartbeatMonitor != null) {
+            heartbeatMonitor.beat();
         }
 
-        MessageResult result = TransportHelper.processReceivedData(data, this);
+        handleMessageResult(TransportHelper.processReceivedData(data, this));
+    }
 
+    /**
+     * Parses the received data held in a buffer and triggers the OnReceived
+     * event
+     *
+     * @param data   Buffer holding the received data
+     * @param offset Offset of the data in the buffer
+     * @param length Length of the data
+     */
+    private void processReceivedData(byte[] data, int offset, int length) {
+        HeartbeatMonitor heartbeatMonitor = mHeartbeatMonitor;
+        if (heartbeatMonitor != null) {
+            heartbeatMonitor.beat();
+        }
+
+        handleMessageResult(TransportHelper.processReceivedData(data, offset, length, this));
+    }
+
+    /**
+     * Parses the received data while it is read from a stream and triggers
+     * the OnReceived event for every message
+     *
+     * @param stream Stream with the received data
+     */
+    private void processReceivedData(InputStream stream) {
+        HeartbeatMonitor heartbeatMonitor = mHeartbeatMonitor;
+        if (heartbeatMonitor != null) {
+            heartbeatMonitor.beat();
+        }
+
+        handleMessageResult(TransportHelper.processReceivedData(stream, this));
+    }
+
+    /**
+     * Disconnects or reconnects if the processed data requested it
+     *
+     * @param result The result of processing the received data
+     */
+    private void handleMessageResult(MessageResult result) {
         if (result.disconnect()) {
+            // the server removed the connection, so it can't be resumed
+            mResumeState = null;
+            mConnectionToken = null;
             disconnect();
             return;
         }
@@ -733,6 +1322,9 @@ public class Connection implements ConnectionBase {
             if (mState == ConnectionState.Connected) {
                 log("Triggering reconnect", LogLevel.Verbose);
                 reconnect();
+            } else if (mState == ConnectionState.Reconnecting) {
+                // the failed attempts are handled by the reconnect policy
+                log("Already reconnecting", LogLevel.Verbose);
             } else {
                 log("Triggering disconnect", LogLevel.Verbose);
                 disconnect();
@@ -751,21 +1343,105 @@ public class Connection implements ConnectionBase {
      * Triggers the Closed event
      */
     protected void onClosed() {
-        if (mOnClosed != null) {
-            mOnClosed.run();
-        }
+        mEventBus.publish(new ConnectionEvent(ConnectionEventType.Closed, null, ConnectionState.Disconnected));
     }
 
     /**
-     * Stops the heartbeat monitor and re-starts the transport
+     * Stops the heartbeat monitor and schedules the reconnect attempts
      */
     private void reconnect() {
-        if (mState == ConnectionState.Connected) {
-            log("Stopping Heartbeat monitor", LogLevel.Verbose);
-            mHeartbeatMonitor.stop();
-            log("Restarting the transport", LogLevel.Information);
-            startTransport(mHeartbeatMonitor.getKeepAliveData(), true);
+        HeartbeatMonitor heartbeatMonitor = mHeartbeatMonitor;
+        if (mState != ConnectionState.Connected || heartbeatMonitor == null) {
+            return;
+        }
+
+        log("Stopping Heartbeat monitor", LogLevel.Verbose);
+        heartbeatMonitor.stop();
+
+        if (!changeState(ConnectionState.Connected, ConnectionState.Reconnecting)) {
+            log("Couldn't change state from connected to reconnecting.", LogLevel.Verbose);
+            return;
+        }
+
+        mReconnectStartTime = System.nanoTime();
+        mReconnectDelay = 0;
+        mReconnectKeepAliveData = heartbeatMonitor.getKeepAliveData();
+        mReconnectAttempt.set(0);
+
+        onReconnecting();
+        scheduleReconnectAttempt(0, null);
+    }
+
+    /**
+     * Schedules the attempt that follows a failed one, as the reconnect
+     * policy decides, or gives up and disconnects. A failed attempt may report
+     * more than one error, and only the first one schedules the next attempt.
+     *
+     * @param failedAttempt The number of the failed attempt, or 0 when the
+     *                      connection was just lost
+     * @param error         The error of the failed attempt, or null
+     */
+    private void scheduleReconnectAttempt(int failedAttempt, Throwable error) {
+        if (mState != ConnectionState.Reconnecting || !mReconnectAttempt.compareAndSet(failedAttempt, failedAttempt + 1)) {
+            return;
+        }
+
+        final int attempt = failedAttempt + 1;
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mReconnectStartTime);
+        long delay = mReconnectPolicy.getNextDelay(attempt, mReconnectDelay, elapsed);
+
+        long disconnectTimeout = mDisconnectTimeout;
+        if (delay < 0 || (disconnectTimeout > 0 && elapsed + delay >= disconnectTimeout)) {
+            log("Giving up reconnecting after " + failedAttempt + " attempts and " + elapsed + " ms", LogLevel.Information);
+            mMetrics.onReconnectGiveUp();
+            disconnect();
+
+            if (error != null && mOnError != null) {
+                mOnError.onError(error);
+            }
+            return;
+        }
+
+        mReconnectDelay = delay;
+        log("Reconnect attempt " + attempt + " in " + delay + " ms", LogLevel.Information);
+
+        mReconnectTimeout = HashedWheelTimer.getSharedTimer().newTimeout(new Runnable() {
+
+            @Override
+            public void run() {
+                // the transport is not started on the timer thread
+                getReconnectExecutor().execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (mState != ConnectionState.Reconnecting || mReconnectAttempt.get() != attempt) {
+                            return;
+                        }
+
+                        log("Restarting the transport", LogLevel.Information);
+                        mMetrics.onReconnectAttempt();
+                        startTransport(mReconnectKeepAliveData, true, false);
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ExecutorService getReconnectExecutor() {
+        if (sReconnectExecutor == null) {
+            sReconnectExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SignalR-Reconnect-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         }
+
+        return sReconnectExecutor;
     }
 
     protected void log(String message, LogLevel level) {
@@ -784,13 +1460,115 @@ public class Connection implements ConnectionBase {
 
     @Override
     public void onReceived(JSONObject message) {
-        if (mOnReceived != null && getState() == ConnectionState.Connected) {
-            log("Invoking messageReceived with: " + message, LogLevel.Verbose);
-            try {
-                mOnReceived.onMessageReceived(message);
-            } catch (Throwable error) {
-                onError(error, false);
+        if (!queueReceived(message)) {
+            deliverReceived(message);
+        }
+    }
+
+    @Override
+    public void onReceived(List<JSONObject> messages) {
+        if (!queueReceived(messages)) {
+            deliverReceived(messages);
+        }
+    }
+
+    /**
+     * Queues received data in the inbound queue, if there is one
+     *
+     * @param entry A message or a batch of messages
+     * @return False if there is no inbound queue
+     */
+    private boolean queueReceived(Object entry) {
+        InboundQueue queue = mInboundQueue;
+        if (queue == null) {
+            return false;
+        }
+
+        try {
+            if (!queue.offer(entry)) {
+                log("Inbound queue is full. Stopping the connection", LogLevel.Critical);
+                onError(new InboundQueueFullException(queue.getCapacity()), false);
+                stop();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            onError(e, false);
         }
+
+        return true;
+    }
+
+    /**
+     * Triggers the Received event for a message
+     *
+     * @param message The received message
+     */
+    protected void deliverReceived(final JSONObject message) {
+        final MessageReceivedHandler handler = mOnReceived;
+        if (handler != null && getState() == ConnectionState.Connected) {
+            mDispatcher.dispatch(CONNECTION_DISPATCH_KEY, new Runnable() {
+
+                @Override
+                public void run() {
+                    log("Invoking messageReceived with: " + message, LogLevel.Verbose);
+                    try {
+                        handler.onMessageReceived(message);
+                    } catch (Throwable error) {
+                        onError(error, false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Triggers the Received event for a batch of messages
+     *
+     * @param messages The received messages
+     */
+    protected void deliverReceived(final List<JSONObject> messages) {
+        final BatchMessageReceivedHandler batchHandler = mOnReceivedBatch;
+        final MessageReceivedHandler handler = mOnReceived;
+        if ((batchHandler == null && handler == null) || getState() != ConnectionState.Connected) {
+            return;
+        }
+
+        mDispatcher.dispatch(CONNECTION_DISPATCH_KEY, new Runnable() {
+
+            @Override
+            public void run() {
+                if (batchHandler != null) {
+                    log("Invoking messagesReceived with " + messages.size() + " messages", LogLevel.Verbose);
+                    try {
+                        batchHandler.onMessagesReceived(messages);
+                    } catch (Throwable error) {
+                        onError(error, false);
+                    }
+                }
+
+                if (handler != null) {
+                    for (JSONObject message : messages) {
+                        try {
+                            handler.onMessageReceived(message);
+                        } catch (Throwable error) {
+                            onError(error, false);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Data of a lost connection, needed to resume it
+     */
+    private static class ResumeState {
+        String mConnectionId;
+        String mConnectionToken;
+        String mMessageId;
+        String mGroupsToken;
+        long mDisconnectTimeout;
+        long mKeepAliveTimeout;
+        long mLostTime;
     }
 }
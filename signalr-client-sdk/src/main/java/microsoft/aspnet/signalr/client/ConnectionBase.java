@@ -8,6 +8,7 @@ package microsoft.aspnet.signalr.client;
 
 import org.json.JSONObject;
 
+import java.util.List;
 import java.util.Map;
 
 import microsoft.aspnet.signalr.client.http.Request;
@@ -82,6 +83,26 @@ public interface ConnectionBase {
 
     public void onReceived(JSONObject message);
 
+    /**
+     * Sets the handler for the "Received" event that gets all the messages
+     * of a payload at once. Setting it enables batched delivery.
+     */
+    public void receivedBatch(BatchMessageReceivedHandler handler);
+
+    /**
+     * Triggers the Received event for all the messages of a payload
+     * 
+     * @param messages
+     *            The received messages
+     */
+    public void onReceived(List<JSONObject> messages);
+
+    /**
+     * Returns true if the messages of a payload must be delivered as a
+     * single batch
+     */
+    public boolean isBatchReceiveEnabled();
+
     /**
      * Sets the handler for the "ConnectionSlow" event
      */
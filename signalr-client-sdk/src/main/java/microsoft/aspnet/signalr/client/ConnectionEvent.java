@@ -0,0 +1,69 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Event published by a connection on its event bus
+ */
+public class ConnectionEvent {
+
+    private final ConnectionEventType mType;
+
+    private final ConnectionState mOldState;
+
+    private final ConnectionState mNewState;
+
+    /**
+     * Initializes an event
+     * 
+     * @param type
+     *            The event type
+     * @param oldState
+     *            The state before the event
+     * @param newState
+     *            The state after the event
+     */
+    public ConnectionEvent(ConnectionEventType type, ConnectionState oldState, ConnectionState newState) {
+        if (type == null) {
+            throw new IllegalArgumentException("type cannot be null");
+        }
+
+        mType = type;
+        mOldState = oldState;
+        mNewState = newState;
+    }
+
+    /**
+     * Returns the event type
+     */
+    public ConnectionEventType getType() {
+        return mType;
+    }
+
+    /**
+     * Returns the state before the event
+     */
+    public ConnectionState getOldState() {
+        return mOldState;
+    }
+
+    /**
+     * Returns the state after the event
+     */
+    public ConnectionState getNewState() {
+        return mNewState;
+    }
+
+    @Override
+    public String toString() {
+        if (mType == ConnectionEventType.StateChanged) {
+            return mType + " " + mOldState + " -> " + mNewState;
+        }
+
+        return mType.toString();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers the events of a connection to its listeners. Publishing only
+ * queues the event, and the listeners get the events in order on an
+ * Executor, so a slow listener never blocks the connection.
+ */
+public class ConnectionEventBus {
+
+    private static ExecutorService sDefaultExecutor;
+
+    private final List<ConnectionEventListener> mListeners = new CopyOnWriteArrayList<ConnectionEventListener>();
+
+    private final Queue<ConnectionEvent> mEvents = new ConcurrentLinkedQueue<ConnectionEvent>();
+
+    private final AtomicBoolean mDraining = new AtomicBoolean(false);
+
+    private final ErrorCallback mErrorCallback;
+
+    private volatile Executor mExecutor;
+
+    private final Runnable mDrainTask = new Runnable() {
+
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Initializes the bus, delivering the events on a shared thread pool
+     * 
+     * @param errorCallback
+     *            Callback for the errors thrown by the listeners
+     */
+    public ConnectionEventBus(ErrorCallback errorCallback) {
+        mErrorCallback = errorCallback;
+        mExecutor = getDefaultExecutor();
+    }
+
+    /**
+     * Adds a listener
+     * 
+     * @param listener
+     *            The listener
+     */
+    public void addListener(ConnectionEventListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+
+        mListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener
+     * 
+     * @param listener
+     *            The listener
+     * @return True if the listener was removed
+     */
+    public boolean removeListener(ConnectionEventListener listener) {
+        return mListeners.remove(listener);
+    }
+
+    /**
+     * Sets the Executor the events are delivered on
+     * 
+     * @param executor
+     *            The executor
+     */
+    public void setExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+
+        mExecutor = executor;
+    }
+
+    /**
+     * Queues an event for the listeners
+     * 
+     * @param event
+     *            The event
+     */
+    public void publish(ConnectionEvent event) {
+        if (event == null) {
+            throw new IllegalArgumentException("event cannot be null");
+        }
+
+        mEvents.add(event);
+
+        if (mDraining.compareAndSet(false, true)) {
+            mExecutor.execute(mDrainTask);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            ConnectionEvent event = mEvents.poll();
+
+            if (event == null) {
+                mDraining.set(false);
+
+                // an event may have been published after the poll and before
+                // the flag was cleared
+                if (mEvents.isEmpty() || !mDraining.compareAndSet(false, true)) {
+                    return;
+                }
+
+                continue;
+            }
+
+            for (ConnectionEventListener listener : mListeners) {
+                try {
+                    listener.onEvent(event);
+                } catch (Throwable e) {
+                    if (mErrorCallback != null) {
+                        mErrorCallback.onError(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            sDefaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SignalR-Events-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sDefaultExecutor;
+    }
+}
@@ -0,0 +1,22 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Listener for the events of a connection
+ */
+public interface ConnectionEventListener {
+    /**
+     * Invoked for every event, in the order the events happened. It never
+     * runs on a transport thread.
+     * 
+     * @param event
+     *            The event
+     * @throws Exception
+     */
+    public void onEvent(ConnectionEvent event) throws Exception;
+}
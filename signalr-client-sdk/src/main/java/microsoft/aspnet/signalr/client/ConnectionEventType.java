@@ -0,0 +1,42 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Type of a connection event
+ */
+public enum ConnectionEventType {
+    /**
+     * The connection changed its state
+     */
+    StateChanged,
+
+    /**
+     * The connection was established
+     */
+    Connected,
+
+    /**
+     * The connection was lost and is being restored
+     */
+    Reconnecting,
+
+    /**
+     * The connection was restored
+     */
+    Reconnected,
+
+    /**
+     * The server did not send data for longer than the keep alive warning
+     */
+    ConnectionSlow,
+
+    /**
+     * The connection was closed
+     */
+    Closed
+}
@@ -0,0 +1,212 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a connection, updated without locks
+ */
+public class ConnectionMetrics {
+
+    private final AtomicLong mReconnectAttemptCount = new AtomicLong();
+
+    private final AtomicLong mReconnectedCount = new AtomicLong();
+
+    private final AtomicLong mReconnectGiveUpCount = new AtomicLong();
+
+    private final AtomicLong mTotalReconnectingTime = new AtomicLong();
+
+    private final AtomicLong mMaxReconnectingTime = new AtomicLong();
+
+    private final AtomicLong mStartCount = new AtomicLong();
+
+    private final AtomicLong mTotalStartTime = new AtomicLong();
+
+    private final AtomicLong mResumeCount = new AtomicLong();
+
+    private final AtomicLong mTotalResumeTime = new AtomicLong();
+
+    private final AtomicLong mResumeFailureCount = new AtomicLong();
+
+    private volatile KeepAliveData mKeepAliveData;
+
+    /**
+     * Returns the number of times the transport was restarted to reconnect
+     */
+    public long getReconnectAttemptCount() {
+        return mReconnectAttemptCount.get();
+    }
+
+    /**
+     * Returns the number of times a lost connection was restored
+     */
+    public long getReconnectedCount() {
+        return mReconnectedCount.get();
+    }
+
+    /**
+     * Returns the number of times the reconnect policy or the disconnect
+     * timeout ended the reconnect attempts
+     */
+    public long getReconnectGiveUpCount() {
+        return mReconnectGiveUpCount.get();
+    }
+
+    /**
+     * Returns the total time spent reconnecting, while the connection was
+     * lost
+     */
+    public long getTotalReconnectingTime(TimeUnit unit) {
+        return unit.convert(mTotalReconnectingTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the longest time spent reconnecting at once
+     */
+    public long getMaxReconnectingTime(TimeUnit unit) {
+        return unit.convert(mMaxReconnectingTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of starts that negotiated a new connection
+     */
+    public long getStartCount() {
+        return mStartCount.get();
+    }
+
+    /**
+     * Returns the average time a start took to negotiate a new connection,
+     * including a failed resume attempt
+     */
+    public long getAverageStartTime(TimeUnit unit) {
+        return average(mTotalStartTime, mStartCount, unit);
+    }
+
+    /**
+     * Returns the number of starts that resumed the lost connection
+     */
+    public long getResumeCount() {
+        return mResumeCount.get();
+    }
+
+    /**
+     * Returns the average time a start took to resume the lost connection
+     */
+    public long getAverageResumeTime(TimeUnit unit) {
+        return average(mTotalResumeTime, mResumeCount, unit);
+    }
+
+    /**
+     * Returns the number of resume attempts rejected by the server, which
+     * fell back to negotiate
+     */
+    public long getResumeFailureCount() {
+        return mResumeFailureCount.get();
+    }
+
+    /**
+     * Returns the smoothed time between received messages, as estimated by
+     * the adaptive keep alive, or 0 if there is no estimate
+     */
+    public long getKeepAliveInterval(TimeUnit unit) {
+        KeepAliveData keepAliveData = mKeepAliveData;
+        return keepAliveData == null ? 0 : unit.convert(keepAliveData.getSmoothedInterval(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the smoothed deviation of the time between received messages,
+     * as estimated by the adaptive keep alive, or 0 if there is no estimate
+     */
+    public long getKeepAliveJitter(TimeUnit unit) {
+        KeepAliveData keepAliveData = mKeepAliveData;
+        return keepAliveData == null ? 0 : unit.convert(keepAliveData.getIntervalDeviation(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of samples taken by the adaptive keep alive
+     */
+    public long getKeepAliveSampleCount() {
+        KeepAliveData keepAliveData = mKeepAliveData;
+        return keepAliveData == null ? 0 : keepAliveData.getSampleCount();
+    }
+
+    /**
+     * Returns the current time without data after which the connection is
+     * slow, or 0 if there is no keep alive
+     */
+    public long getKeepAliveWarningThreshold(TimeUnit unit) {
+        KeepAliveData keepAliveData = mKeepAliveData;
+        return keepAliveData == null ? 0 : unit.convert(keepAliveData.getTimeoutWarning(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the current time without data after which the connection is
+     * lost, or 0 if there is no keep alive
+     */
+    public long getKeepAliveTimeoutThreshold(TimeUnit unit) {
+        KeepAliveData keepAliveData = mKeepAliveData;
+        return keepAliveData == null ? 0 : unit.convert(keepAliveData.getTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    void setKeepAliveData(KeepAliveData keepAliveData) {
+        mKeepAliveData = keepAliveData;
+    }
+
+    void onStarted(long startNanos) {
+        mStartCount.incrementAndGet();
+        mTotalStartTime.addAndGet(startNanos);
+    }
+
+    void onResumed(long resumeNanos) {
+        mResumeCount.incrementAndGet();
+        mTotalResumeTime.addAndGet(resumeNanos);
+    }
+
+    void onResumeFailed() {
+        mResumeFailureCount.incrementAndGet();
+    }
+
+    void onReconnectAttempt() {
+        mReconnectAttemptCount.incrementAndGet();
+    }
+
+    void onReconnected(long reconnectingNanos) {
+        mReconnectedCount.incrementAndGet();
+        addReconnectingTime(reconnectingNanos);
+    }
+
+    void onReconnectGiveUp() {
+        mReconnectGiveUpCount.incrementAndGet();
+    }
+
+    void onReconnectingEnded(long reconnectingNanos) {
+        addReconnectingTime(reconnectingNanos);
+    }
+
+    private void addReconnectingTime(long nanos) {
+        mTotalReconnectingTime.addAndGet(nanos);
+        updateMax(mMaxReconnectingTime, nanos);
+    }
+
+    private static long average(AtomicLong total, AtomicLong count, TimeUnit unit) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        return unit.convert(total.get() / n, TimeUnit.NANOSECONDS);
+    }
+
+    static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.util.Random;
+
+/**
+ * Reconnect policy with decorrelated jitter: every delay is random, between
+ * the base delay and three times the previous delay, up to a maximum. It
+ * spreads the reconnects of many clients that lost their connections at the
+ * same time, for instance when a server restarts.
+ */
+public class DecorrelatedJitterReconnectPolicy implements ReconnectPolicy {
+
+    private final long mBaseDelay;
+
+    private final long mMaxDelay;
+
+    private final int mMaxAttempts;
+
+    private final Random mRandom = new Random();
+
+    /**
+     * Initializes the policy
+     * 
+     * @param baseDelay
+     *            Minimum delay in milliseconds
+     * @param maxDelay
+     *            Maximum delay in milliseconds
+     * @param maxAttempts
+     *            Maximum number of attempts, or 0 for no limit
+     */
+    public DecorrelatedJitterReconnectPolicy(long baseDelay, long maxDelay, int maxAttempts) {
+        if (baseDelay <= 0) {
+            throw new IllegalArgumentException("baseDelay must be greater than zero");
+        }
+
+        if (maxDelay < baseDelay) {
+            throw new IllegalArgumentException("maxDelay cannot be less than baseDelay");
+        }
+
+        if (maxAttempts < 0) {
+            throw new IllegalArgumentException("maxAttempts cannot be negative");
+        }
+
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        mMaxAttempts = maxAttempts;
+    }
+
+    @Override
+    public long getNextDelay(int attempt, long previousDelay, long elapsedTime) {
+        if (mMaxAttempts > 0 && attempt > mMaxAttempts) {
+            return -1;
+        }
+
+        long upper = Math.min(Math.max(previousDelay, mBaseDelay) * 3, mMaxDelay);
+        if (upper <= mBaseDelay) {
+            return mBaseDelay;
+        }
+
+        return mBaseDelay + (long) (mRandom.nextDouble() * (upper - mBaseDelay));
+    }
+}
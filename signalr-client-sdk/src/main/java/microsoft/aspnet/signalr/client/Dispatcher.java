@@ -0,0 +1,25 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Runs the user handlers of a connection. Tasks dispatched with the same key
+ * must run in the order they were dispatched.
+ */
+public interface Dispatcher {
+
+    /**
+     * Dispatches a task
+     * 
+     * @param key
+     *            Ordering key. Tasks with the same key run one after the
+     *            other, in FIFO order
+     * @param task
+     *            The task to run
+     */
+    public void dispatch(String key, Runnable task);
+}
@@ -0,0 +1,63 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Reconnect policy that doubles the delay after every attempt, up to a
+ * maximum delay
+ */
+public class ExponentialBackoffReconnectPolicy implements ReconnectPolicy {
+
+    private final long mInitialDelay;
+
+    private final long mMaxDelay;
+
+    private final int mMaxAttempts;
+
+    /**
+     * Initializes the policy
+     * 
+     * @param initialDelay
+     *            Delay before the first attempt in milliseconds
+     * @param maxDelay
+     *            Maximum delay in milliseconds
+     * @param maxAttempts
+     *            Maximum number of attempts, or 0 for no limit
+     */
+    public ExponentialBackoffReconnectPolicy(long initialDelay, long maxDelay, int maxAttempts) {
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException("initialDelay cannot be negative");
+        }
+
+        if (maxDelay < initialDelay) {
+            throw new IllegalArgumentException("maxDelay cannot be less than initialDelay");
+        }
+
+        if (maxAttempts < 0) {
+            throw new IllegalArgumentException("maxAttempts cannot be negative");
+        }
+
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+        mMaxAttempts = maxAttempts;
+    }
+
+    @Override
+    public long getNextDelay(int attempt, long previousDelay, long elapsedTime) {
+        if (mMaxAttempts > 0 && attempt > mMaxAttempts) {
+            return -1;
+        }
+
+        if (attempt <= 1) {
+            return mInitialDelay;
+        }
+
+        // at least one millisecond, so a zero initial delay still backs off
+        long delay = Math.max(previousDelay, 1) * 2;
+        return delay < 0 || delay > mMaxDelay ? mMaxDelay : delay;
+    }
+}
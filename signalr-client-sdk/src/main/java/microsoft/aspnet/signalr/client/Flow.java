@@ -0,0 +1,77 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Reactive stream interfaces with demand signalling. They have the same shape
+ * as java.util.concurrent.Flow, which is not available on the Android versions
+ * supported by the client, so they can be bridged to it or to Reactive Streams
+ * with a one line adapter.
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * Producer of items that are sent to its subscribers as they request them
+     */
+    public interface Publisher<T> {
+        /**
+         * Adds a subscriber. The publisher calls onSubscribe before any other
+         * method of the subscriber.
+         * 
+         * @param subscriber
+         *            The subscriber
+         */
+        public void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receiver of the items of a publisher. The methods are never called
+     * concurrently for the same subscriber.
+     */
+    public interface Subscriber<T> {
+        /**
+         * Invoked once with the subscription, before any item is sent
+         */
+        public void onSubscribe(Subscription subscription);
+
+        /**
+         * Invoked with the next item, only after it was requested
+         */
+        public void onNext(T item);
+
+        /**
+         * Invoked when the stream fails. No other method is called after it.
+         */
+        public void onError(Throwable error);
+
+        /**
+         * Invoked when the stream ends. No other method is called after it.
+         */
+        public void onComplete();
+    }
+
+    /**
+     * Link between a publisher and one of its subscribers
+     */
+    public interface Subscription {
+        /**
+         * Requests more items. The demand adds up until the items are sent.
+         * 
+         * @param n
+         *            The number of items, which must be greater than zero
+         */
+        public void request(long n);
+
+        /**
+         * Stops sending items to the subscriber
+         */
+        public void cancel();
+    }
+}
@@ -0,0 +1,361 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel for a large number of timeouts that are usually
+ * cancelled before they expire. Adding and cancelling a timeout are constant
+ * time and lock-free. A single worker thread moves the wheel one bucket per
+ * tick and parks while there are no timeouts.
+ */
+public class HashedWheelTimer {
+
+    private static final long DEFAULT_TICK_MILLISECONDS = 100;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private static HashedWheelTimer sSharedTimer;
+
+    /**
+     * A timeout scheduled on the timer
+     */
+    public interface Timeout {
+        /**
+         * Cancels the timeout
+         *
+         * @return True if the timeout was cancelled, false if it already
+         *         expired or was already cancelled
+         */
+        public boolean cancel();
+
+        /**
+         * Indicates if the timeout expired
+         */
+        public boolean isExpired();
+
+        /**
+         * Indicates if the timeout was cancelled
+         */
+        public boolean isCancelled();
+    }
+
+    private final String mThreadName;
+    private final long mTickNanos;
+    private final Bucket[] mWheel;
+    private final int mMask;
+    private final long mStartTime = System.nanoTime();
+
+    private final Queue<WheelTimeout> mPendingTimeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+    private final Queue<WheelTimeout> mCancelledTimeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private final AtomicReference<Thread> mWorker = new AtomicReference<Thread>();
+
+    // only used by the worker thread
+    private long mTick = 0;
+
+    /**
+     * Returns the timer shared by all the connections
+     */
+    public static synchronized HashedWheelTimer getSharedTimer() {
+        if (sSharedTimer == null) {
+            sSharedTimer = new HashedWheelTimer("SignalR-Timer", DEFAULT_TICK_MILLISECONDS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+        }
+
+        return sSharedTimer;
+    }
+
+    /**
+     * Initializes the timer
+     *
+     * @param threadName   Name of the worker thread
+     * @param tickDuration Duration of a tick, which is the precision of the timer
+     * @param unit         Unit of the tick duration
+     * @param wheelSize    Number of buckets in the wheel, rounded up to a power of two
+     */
+    public HashedWheelTimer(String threadName, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (threadName == null) {
+            throw new IllegalArgumentException("threadName cannot be null");
+        }
+
+        if (unit == null) {
+            throw new IllegalArgumentException("unit cannot be null");
+        }
+
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than zero");
+        }
+
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("wheelSize must be between 1 and 2^30");
+        }
+
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+
+        mThreadName = threadName;
+        mTickNanos = unit.toNanos(tickDuration);
+        mWheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            mWheel[i] = new Bucket();
+        }
+        mMask = size - 1;
+    }
+
+    /**
+     * Schedules a task to run once the delay elapsed. The task runs on the
+     * timer thread, so it must be short and not block.
+     *
+     * @param task  The task to run
+     * @param delay The delay
+     * @param unit  The unit of the delay
+     * @return The scheduled timeout
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new IllegalArgumentException("task cannot be null");
+        }
+
+        if (unit == null) {
+            throw new IllegalArgumentException("unit cannot be null");
+        }
+
+        WheelTimeout timeout = new WheelTimeout(task, System.nanoTime() - mStartTime + Math.max(unit.toNanos(delay), 0));
+
+        boolean wasIdle = mPendingCount.getAndIncrement() == 0;
+        mPendingTimeouts.add(timeout);
+
+        Thread worker = startWorker();
+        if (wasIdle) {
+            LockSupport.unpark(worker);
+        }
+
+        return timeout;
+    }
+
+    /**
+     * Returns the number of timeouts that did not expire and were not
+     * cancelled
+     */
+    public int getPendingCount() {
+        return mPendingCount.get();
+    }
+
+    private Thread startWorker() {
+        Thread worker = mWorker.get();
+        if (worker != null) {
+            return worker;
+        }
+
+        worker = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                runWorker();
+            }
+        }, mThreadName);
+        worker.setDaemon(true);
+
+        if (mWorker.compareAndSet(null, worker)) {
+            worker.start();
+            return worker;
+        }
+
+        return mWorker.get();
+    }
+
+    private void runWorker() {
+        while (true) {
+            removeCancelledTimeouts();
+
+            if (mPendingCount.get() == 0) {
+                removeCancelledPendingTimeouts();
+                LockSupport.park(this);
+
+                // the buckets stayed empty while the timer was idle
+                mTick = Math.max(mTick, currentTick());
+                continue;
+            }
+
+            long sleepNanos = (mTick + 1) * mTickNanos - (System.nanoTime() - mStartTime);
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue;
+            }
+
+            mTick++;
+            transferPendingTimeouts();
+            mWheel[(int) (mTick & mMask)].expireTimeouts();
+        }
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - mStartTime) / mTickNanos;
+    }
+
+    private void transferPendingTimeouts() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            WheelTimeout timeout = mPendingTimeouts.poll();
+            if (timeout == null) {
+                return;
+            }
+
+            if (timeout.isCancelled()) {
+                continue;
+            }
+
+            long ticks = Math.max((timeout.mDeadline + mTickNanos - 1) / mTickNanos, mTick);
+            timeout.mRemainingRounds = (ticks - mTick) / mWheel.length;
+            mWheel[(int) (ticks & mMask)].add(timeout);
+        }
+    }
+
+    /**
+     * Removes the timeouts that were cancelled before being transferred to
+     * the wheel. They are only transferred on a tick, so without this they
+     * would stay queued, with their tasks, while the timer is idle.
+     */
+    private void removeCancelledPendingTimeouts() {
+        Iterator<WheelTimeout> iterator = mPendingTimeouts.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isCancelled()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        WheelTimeout timeout;
+        while ((timeout = mCancelledTimeouts.poll()) != null) {
+            if (timeout.mBucket != null) {
+                timeout.mBucket.remove(timeout);
+            }
+        }
+    }
+
+    private static final int STATE_INIT = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private class WheelTimeout implements Timeout {
+        private final Runnable mTask;
+        private final long mDeadline;
+        private final AtomicInteger mState = new AtomicInteger(STATE_INIT);
+
+        // only used by the worker thread
+        long mRemainingRounds;
+        Bucket mBucket;
+        WheelTimeout mNext;
+        WheelTimeout mPrevious;
+
+        WheelTimeout(Runnable task, long deadline) {
+            mTask = task;
+            mDeadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!mState.compareAndSet(STATE_INIT, STATE_CANCELLED)) {
+                return false;
+            }
+
+            mPendingCount.decrementAndGet();
+            mCancelledTimeouts.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return mState.get() == STATE_EXPIRED;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mState.get() == STATE_CANCELLED;
+        }
+
+        void expire() {
+            if (!mState.compareAndSet(STATE_INIT, STATE_EXPIRED)) {
+                return;
+            }
+
+            mPendingCount.decrementAndGet();
+            try {
+                mTask.run();
+            } catch (Throwable e) {
+                // a failing task must not stop the timer
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts in a wheel slot. It is only used by
+     * the worker thread.
+     */
+    private class Bucket {
+        private WheelTimeout mHead;
+        private WheelTimeout mTail;
+
+        void add(WheelTimeout timeout) {
+            timeout.mBucket = this;
+            if (mHead == null) {
+                mHead = mTail = timeout;
+            } else {
+                mTail.mNext = timeout;
+                timeout.mPrevious = mTail;
+                mTail = timeout;
+            }
+        }
+
+        void remove(WheelTimeout timeout) {
+            WheelTimeout next = timeout.mNext;
+            if (timeout.mPrevious != null) {
+                timeout.mPrevious.mNext = next;
+            }
+            if (next != null) {
+                next.mPrevious = timeout.mPrevious;
+            }
+
+            if (timeout == mHead) {
+                mHead = next;
+            }
+            if (timeout == mTail) {
+                mTail = timeout.mPrevious;
+            }
+
+            timeout.mPrevious = null;
+            timeout.mNext = null;
+            timeout.mBucket = null;
+        }
+
+        void expireTimeouts() {
+            WheelTimeout timeout = mHead;
+            while (timeout != null) {
+                WheelTimeout next = timeout.mNext;
+                if (timeout.mRemainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.mRemainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -6,29 +6,57 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client;
 
-import java.util.Calendar;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Heartbeat Monitor to detect slow or timed out connections
+ * Heartbeat Monitor to detect slow or timed out connections.
+ *
+ * The checks of all the monitors run on a shared HashedWheelTimer, so an idle
+ * connection does not own a thread. The "Warning" and "Timeout" handlers run
+ * on a shared thread pool, as they must not delay the timer. Beats and checks
+ * don't take a lock, and use the monotonic System.nanoTime() clock.
  */
 public class HeartbeatMonitor {
+    private static ExecutorService sHandlerExecutor;
+
+    private final HashedWheelTimer mTimer;
+
     private Runnable mOnWarning;
 
     private Runnable mOnTimeout;
 
-    private KeepAliveData mKeepAliveData;
+    private volatile KeepAliveData mKeepAliveData;
 
-    private ScheduledThreadPoolExecutor mExecutor;
+    private volatile Check mCheck;
 
-    private boolean mTimedOut = false;
+    private volatile boolean mStopped = true;
 
-    private boolean mHasBeenWarned = false;
+    private Object mSync = new Object();
 
-    private boolean mStopped = true;
+    /**
+     * Initializes the monitor, using the shared timer
+     */
+    public HeartbeatMonitor() {
+        this(HashedWheelTimer.getSharedTimer());
+    }
 
-    private Object mSync = new Object();
+    /**
+     * Initializes the monitor
+     * 
+     * @param timer
+     *            Timer that runs the checks
+     */
+    public HeartbeatMonitor(HashedWheelTimer timer) {
+        if (timer == null) {
+            throw new IllegalArgumentException("timer cannot be null");
+        }
+
+        mTimer = timer;
+    }
 
     /**
      * Starts the monitor
@@ -48,47 +76,16 @@ public class HeartbeatMonitor {
         }
 
         synchronized (mSync) {
-            mKeepAliveData = keepAliveData;
+            // the data may be reused after a reconnect, and the silence while
+            // reconnecting must not count
+            keepAliveData.setLastKeepAlive(System.nanoTime());
 
-            mTimedOut = false;
-            mHasBeenWarned = false;
+            mKeepAliveData = keepAliveData;
             mStopped = false;
 
-            long interval = mKeepAliveData.getCheckInterval();
-
-            mExecutor = new ScheduledThreadPoolExecutor(1);
-            mExecutor.scheduleAtFixedRate(new Runnable() {
-
-                @Override
-                public void run() {
-                    synchronized (mSync) {
-                        if (!mStopped) {
-                            if (connection.getState() == ConnectionState.Connected) {
-                                long lastKeepAlive = mKeepAliveData.getLastKeepAlive();
-                                long timeElapsed = Calendar.getInstance().getTimeInMillis() - lastKeepAlive;
-
-                                if (timeElapsed >= mKeepAliveData.getTimeout()) {
-                                    if (!mTimedOut) {
-                                        // Connection has been lost
-                                        mTimedOut = true;
-                                        mOnTimeout.run();
-                                    }
-                                } else if (timeElapsed >= mKeepAliveData.getTimeoutWarning()) {
-                                    if (!mHasBeenWarned) {
-                                        // Inform user and set HasBeenWarned to
-                                        // true
-                                        mHasBeenWarned = true;
-                                        mOnWarning.run();
-                                    }
-                                } else {
-                                    mHasBeenWarned = false;
-                                    mTimedOut = false;
-                                }
-                            }
-                        }
-                    }
-                }
-            }, interval, interval, TimeUnit.MILLISECONDS);
+            Check check = new Check(connection, keepAliveData);
+            mCheck = check;
+            check.schedule();
         }
     }
 
@@ -99,9 +96,9 @@ public class HeartbeatMonitor {
         if (!mStopped) {
             synchronized (mSync) {
                 mStopped = true;
-                if (mExecutor != null) {
-                    mExecutor.shutdown();
-                    mExecutor = null;
+                if (mCheck != null) {
+                    mCheck.cancel();
+                    mCheck = null;
                 }
             }
         }
@@ -111,10 +108,9 @@ public class HeartbeatMonitor {
      * Alerts the monitor that a beat was detected
      */
     public void beat() {
-        synchronized (mSync) {
-            if (mKeepAliveData != null) {
-                mKeepAliveData.setLastKeepAlive(Calendar.getInstance().getTimeInMillis());
-            }
+        KeepAliveData keepAliveData = mKeepAliveData;
+        if (keepAliveData != null) {
+            keepAliveData.onKeepAlive(System.nanoTime());
         }
     }
 
@@ -159,4 +155,93 @@ public class HeartbeatMonitor {
     public void setKeepAliveData(KeepAliveData keepAliveData) {
         mKeepAliveData = keepAliveData;
     }
+
+    private static synchronized ExecutorService getHandlerExecutor() {
+        if (sHandlerExecutor == null) {
+            sHandlerExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SignalR-Heartbeat-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sHandlerExecutor;
+    }
+
+    /**
+     * Periodic check of a started monitor. It schedules itself again after
+     * every run, until the monitor is stopped or started again. Only one run
+     * of a check is active at a time, so its flags need no lock.
+     */
+    private class Check implements Runnable {
+        private final ConnectionBase mConnection;
+        private final KeepAliveData mData;
+        private volatile HashedWheelTimer.Timeout mTimeout;
+
+        private boolean mTimedOut = false;
+        private boolean mHasBeenWarned = false;
+
+        Check(ConnectionBase connection, KeepAliveData keepAliveData) {
+            mConnection = connection;
+            mData = keepAliveData;
+        }
+
+        void schedule() {
+            mTimeout = mTimer.newTimeout(this, mData.getCheckInterval(), TimeUnit.MILLISECONDS);
+        }
+
+        void cancel() {
+            HashedWheelTimer.Timeout timeout = mTimeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mStopped || mCheck != this) {
+                return;
+            }
+
+            Runnable handler = null;
+
+            if (mConnection.getState() == ConnectionState.Connected) {
+                long timeElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mData.getLastKeepAlive());
+
+                if (timeElapsed >= mData.getTimeout()) {
+                    if (!mTimedOut) {
+                        // Connection has been lost
+                        mTimedOut = true;
+                        handler = mOnTimeout;
+                    }
+                } else if (timeElapsed >= mData.getTimeoutWarning()) {
+                    if (!mHasBeenWarned) {
+                        // Inform user and set HasBeenWarned to true
+                        mHasBeenWarned = true;
+                        handler = mOnWarning;
+                    }
+                } else {
+                    mHasBeenWarned = false;
+                    mTimedOut = false;
+                }
+            }
+
+            schedule();
+
+            // stop() may have run after the check was read, and missed the
+            // new timeout
+            if (mCheck != this) {
+                cancel();
+            }
+
+            if (handler != null) {
+                getHandlerExecutor().execute(handler);
+            }
+        }
+    }
 }
@@ -0,0 +1,336 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue between the transport and the handlers of a connection. The
+ * transport thread only enqueues the received messages, and they are
+ * processed in order on an Executor. Invocation results are never dropped:
+ * the overflow policy makes room for them by dropping messages instead, or
+ * they wait for room.
+ */
+public class InboundQueue {
+
+    private static ExecutorService sDefaultExecutor;
+
+    private final BlockingQueue<Object> mQueue;
+
+    private final int mCapacity;
+
+    private final OverflowPolicy mPolicy;
+
+    private final Executor mExecutor;
+
+    private final AtomicBoolean mDraining = new AtomicBoolean(false);
+
+    private final AtomicBoolean mAboveHighWatermark = new AtomicBoolean(false);
+
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    private final AtomicInteger mMaxSize = new AtomicInteger();
+
+    private volatile int mHighWatermark;
+
+    private volatile int mLowWatermark;
+
+    private volatile InboundQueueListener mListener;
+
+    private volatile Action<Object> mConsumer;
+
+    private final Runnable mDrainTask = new Runnable() {
+
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Initializes the queue, processing the messages on a shared thread pool
+     * 
+     * @param capacity
+     *            Maximum number of queued entries
+     * @param policy
+     *            What to do when the queue is full
+     */
+    public InboundQueue(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, getDefaultExecutor());
+    }
+
+    /**
+     * Initializes the queue
+     * 
+     * @param capacity
+     *            Maximum number of queued entries
+     * @param policy
+     *            What to do when the queue is full
+     * @param executor
+     *            Executor that processes the queued messages
+     */
+    public InboundQueue(int capacity, OverflowPolicy policy, Executor executor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than zero");
+        }
+
+        if (policy == null) {
+            throw new IllegalArgumentException("policy cannot be null");
+        }
+
+        if (executor == null) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+
+        mCapacity = capacity;
+        mPolicy = policy;
+        mExecutor = executor;
+        mQueue = new ArrayBlockingQueue<Object>(capacity);
+        mHighWatermark = capacity;
+        mLowWatermark = capacity / 2;
+    }
+
+    /**
+     * Sets the watermarks and the listener notified when they are crossed
+     * 
+     * @param high
+     *            Size at which the listener gets onHighWatermark
+     * @param low
+     *            Size at which the listener gets onLowWatermark, once the high
+     *            watermark was reached
+     * @param listener
+     *            The listener
+     */
+    public void setWatermarks(int high, int low, InboundQueueListener listener) {
+        if (high <= 0 || high > mCapacity) {
+            throw new IllegalArgumentException("high must be between 1 and the capacity");
+        }
+
+        if (low < 0 || low >= high) {
+            throw new IllegalArgumentException("low must be between 0 and high");
+        }
+
+        mHighWatermark = high;
+        mLowWatermark = low;
+        mListener = listener;
+    }
+
+    /**
+     * Returns the maximum number of queued entries
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the overflow policy
+     */
+    public OverflowPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Returns the number of queued entries
+     */
+    public int size() {
+        return mQueue.size();
+    }
+
+    /**
+     * Returns the highest number of entries that were queued at the same time
+     */
+    public int getMaxSize() {
+        return mMaxSize.get();
+    }
+
+    /**
+     * Returns the number of entries dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * Sets the action that processes the queued entries
+     */
+    void setConsumer(Action<Object> consumer) {
+        mConsumer = consumer;
+    }
+
+    /**
+     * Queues an entry, applying the overflow policy if the queue is full
+     * 
+     * @param entry
+     *            The entry to queue
+     * @return False if the queue is full and the policy is Fail
+     * @throws InterruptedException
+     *             If the thread is interrupted while blocked
+     */
+    boolean offer(Object entry) throws InterruptedException {
+        if (!mQueue.offer(entry)) {
+            boolean isResult = isInvocationResult(entry);
+
+            switch (mPolicy) {
+                case Block:
+                    mQueue.put(entry);
+                    break;
+                case DropOldest:
+                    while (!mQueue.offer(entry)) {
+                        if (removeOldestMessage()) {
+                            mDroppedCount.incrementAndGet();
+                        } else if (isResult) {
+                            // the queue only holds results
+                            mQueue.put(entry);
+                            break;
+                        } else {
+                            mDroppedCount.incrementAndGet();
+                            return true;
+                        }
+                    }
+                    break;
+                case DropNewest:
+                    if (isResult) {
+                        while (!mQueue.offer(entry)) {
+                            if (!removeOldestMessage()) {
+                                mQueue.put(entry);
+                                break;
+                            }
+                            mDroppedCount.incrementAndGet();
+                        }
+                        break;
+                    }
+
+                    mDroppedCount.incrementAndGet();
+                    return true;
+                case Fail:
+                    if (isResult) {
+                        mQueue.put(entry);
+                        break;
+                    }
+
+                    mDroppedCount.incrementAndGet();
+                    return false;
+            }
+        }
+
+        int size = mQueue.size();
+        updateMaxSize(size);
+
+        if (size >= mHighWatermark && mAboveHighWatermark.compareAndSet(false, true)) {
+            InboundQueueListener listener = mListener;
+            if (listener != null) {
+                listener.onHighWatermark(size);
+            }
+        }
+
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Removes all the queued entries
+     */
+    void clear() {
+        mQueue.clear();
+    }
+
+    /**
+     * Removes the oldest queued entry that is not an invocation result
+     *
+     * @return False if every queued entry is an invocation result
+     */
+    private boolean removeOldestMessage() {
+        for (Object queued : mQueue) {
+            if (!isInvocationResult(queued)) {
+                // if the consumer took it meanwhile, there is room anyway
+                mQueue.remove(queued);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isInvocationResult(Object entry) {
+        return entry instanceof JSONObject && ((JSONObject) entry).has("I");
+    }
+
+    private void scheduleDrain() {
+        if (mDraining.compareAndSet(false, true)) {
+            mExecutor.execute(mDrainTask);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Object entry = mQueue.poll();
+
+            if (entry == null) {
+                mDraining.set(false);
+
+                // an entry may have been queued after the poll and before the
+                // flag was cleared
+                if (mQueue.isEmpty() || !mDraining.compareAndSet(false, true)) {
+                    return;
+                }
+
+                continue;
+            }
+
+            int size = mQueue.size();
+            if (size <= mLowWatermark && mAboveHighWatermark.compareAndSet(true, false)) {
+                InboundQueueListener listener = mListener;
+                if (listener != null) {
+                    listener.onLowWatermark(size);
+                }
+            }
+
+            Action<Object> consumer = mConsumer;
+            if (consumer != null) {
+                try {
+                    consumer.run(entry);
+                } catch (Exception e) {
+                    // the consumer reports its own errors
+                }
+            }
+        }
+    }
+
+    private void updateMaxSize(int size) {
+        int current = mMaxSize.get();
+        while (size > current && !mMaxSize.compareAndSet(current, size)) {
+            current = mMaxSize.get();
+        }
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            sDefaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SignalR-InboundQueue-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sDefaultExecutor;
+    }
+}
@@ -0,0 +1,19 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Exception to indicate that a message was received while the inbound queue
+ * was full
+ */
+public class InboundQueueFullException extends Exception {
+    private static final long serialVersionUID = -3270145815377564208L;
+
+    public InboundQueueFullException(int capacity) {
+        super("The inbound queue is full (capacity: " + capacity + ")");
+    }
+}
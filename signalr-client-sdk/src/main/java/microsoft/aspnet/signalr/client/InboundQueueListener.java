@@ -0,0 +1,29 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Listener for the watermark events of an InboundQueue
+ */
+public interface InboundQueueListener {
+    /**
+     * Invoked when the queue size reaches the high watermark
+     * 
+     * @param size
+     *            The queue size
+     */
+    public void onHighWatermark(int size);
+
+    /**
+     * Invoked when the queue size goes back down to the low watermark after
+     * reaching the high watermark
+     * 
+     * @param size
+     *            The queue size
+     */
+    public void onLowWatermark(int size);
+}
@@ -0,0 +1,19 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Dispatcher that runs the tasks right away, on the thread that dispatches
+ * them. For received messages, that is the transport thread.
+ */
+public class InlineDispatcher implements Dispatcher {
+
+    @Override
+    public void dispatch(String key, Runnable task) {
+        task.run();
+    }
+}
@@ -6,37 +6,73 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client;
 
-import java.util.Calendar;
-
 /**
- * Keep Alive data for the Heartbeat monitor
+ * Keep Alive data for the Heartbeat monitor.
+ *
+ * In adaptive mode, the thresholds follow the observed time between received
+ * messages instead of fixed fractions of the server timeout. As TCP does for
+ * its retransmission timeout, it keeps a smoothed mean of the inter-arrival
+ * time and of its deviation, and warns once the silence exceeds the mean
+ * plus four deviations. The thresholds stay between a fraction of the server
+ * timeout and the server timeout. The server timeout is twice the keep-alive
+ * interval, and a quiet connection only receives keep-alives, so the floors
+ * stay well above one keep-alive interval: the warning at the fixed 2/3 of
+ * the timeout, and the timeout at 3/4 of it, half an interval past the
+ * next keep-alive.
  */
 class KeepAliveData {
 
+    // gains of the smoothed mean and deviation, as in RFC 6298
+    private static final double ALPHA = 1.0 / 8.0;
+    private static final double BETA = 1.0 / 4.0;
+
+    private static final int DEVIATION_FACTOR = 4;
+
+    private static final double MIN_WARNING_FRACTION = 2.0 / 3.0;
+    private static final double MIN_TIMEOUT_FRACTION = 3.0 / 4.0;
+
+    private static final long MIN_CHECK_INTERVAL = 100;
+
     /**
      * Determines when we warn the developer that the connection may be lost
      */
     private double mKeepAliveWarnAt = 2.0 / 3.0;
 
-    private long mLastKeepAlive;
+    /**
+     * Last time a keep alive was detected, from System.nanoTime(). It is
+     * written on the receive path and read by the heartbeat check without a
+     * lock.
+     */
+    private volatile long mLastKeepAlive;
 
     /**
      * Timeout to designate when to force the connection into reconnecting
      */
-    private long mTimeout;
+    private volatile long mTimeout;
+
+    /**
+     * Timeout sent by the server, which bounds the adaptive thresholds
+     */
+    private final long mServerTimeout;
+
+    private final boolean mAdaptive;
+
+    // estimator state in nanoseconds, only updated on the receive path
+    private volatile long mSmoothedInterval = 0;
+    private volatile long mIntervalDeviation = 0;
+    private volatile long mSampleCount = 0;
 
     /**
      * Timeout to designate when to warn the developer that the connection may
      * be dead or is hanging.
      */
-
-    private long mTimeoutWarning;
+    private volatile long mTimeoutWarning;
 
     /**
      * Frequency with which we check the keep alive. It must be short in order
      * to not miss/pick up any changes
      */
-    private long mCheckInterval;
+    private volatile long mCheckInterval;
 
     /**
      * Initializes the Keep Alive data
@@ -45,24 +81,130 @@ class KeepAliveData {
      *            Timeout in milliseconds
      */
     public KeepAliveData(long timeout) {
+        this(timeout, false);
+    }
+
+    /**
+     * Initializes the Keep Alive data
+     * 
+     * @param timeout
+     *            Timeout sent by the server in milliseconds
+     * @param adaptive
+     *            True to adapt the thresholds to the observed inter-arrival
+     *            times
+     */
+    public KeepAliveData(long timeout, boolean adaptive) {
+        mServerTimeout = timeout;
+        mAdaptive = adaptive;
         setTimeout(timeout);
         setTimeoutWarning((long) (timeout * mKeepAliveWarnAt));
         setCheckInterval((timeout - getTimeoutWarning()) / 3);
-        setLastKeepAlive(Calendar.getInstance().getTimeInMillis());
+        if (adaptive) {
+            // the check must be frequent enough for the lowest thresholds
+            long minWarning = (long) (timeout * MIN_WARNING_FRACTION);
+            setCheckInterval(Math.max(Math.min(getCheckInterval(), minWarning / 3), MIN_CHECK_INTERVAL));
+        }
+        setLastKeepAlive(System.nanoTime());
+    }
+
+    /**
+     * Records a received message. In adaptive mode, the time since the last
+     * one is a sample for the estimator. Concurrent receives may lose a
+     * sample, which does not matter for a smoothed estimate.
+     * 
+     * @param now
+     *            The System.nanoTime() of the message
+     */
+    public void onKeepAlive(long now) {
+        long last = mLastKeepAlive;
+        mLastKeepAlive = now;
+
+        if (!mAdaptive) {
+            return;
+        }
+
+        long sample = Math.max(now - last, 0);
+        long count = mSampleCount;
+        mSampleCount = count + 1;
+
+        if (count == 0) {
+            mSmoothedInterval = sample;
+            mIntervalDeviation = sample / 2;
+        } else {
+            long smoothed = mSmoothedInterval;
+            mIntervalDeviation = (long) ((1 - BETA) * mIntervalDeviation + BETA * Math.abs(smoothed - sample));
+            mSmoothedInterval = (long) ((1 - ALPHA) * smoothed + ALPHA * sample);
+        }
+
+        updateThresholds();
+    }
+
+    private void updateThresholds() {
+        long warning = (mSmoothedInterval + DEVIATION_FACTOR * mIntervalDeviation) / 1000000;
+
+        // the timeout leaves as much time again after the warning
+        long timeout = clamp(warning * 2, (long) (mServerTimeout * MIN_TIMEOUT_FRACTION), mServerTimeout);
+        warning = clamp(warning, (long) (mServerTimeout * MIN_WARNING_FRACTION), timeout);
+
+        mTimeout = timeout;
+        mTimeoutWarning = warning;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(value, max));
+    }
+
+    /**
+     * Indicates if the thresholds adapt to the observed inter-arrival times
+     */
+    public boolean isAdaptive() {
+        return mAdaptive;
+    }
+
+    /**
+     * Returns the timeout sent by the server in milliseconds
+     */
+    public long getServerTimeout() {
+        return mServerTimeout;
+    }
+
+    /**
+     * Returns the smoothed time between received messages in nanoseconds, or
+     * 0 if there is no sample yet
+     */
+    public long getSmoothedInterval() {
+        return mSmoothedInterval;
+    }
+
+    /**
+     * Returns the smoothed deviation of the time between received messages
+     * in nanoseconds
+     */
+    public long getIntervalDeviation() {
+        return mIntervalDeviation;
+    }
+
+    /**
+     * Returns the number of samples taken by the estimator
+     */
+    public long getSampleCount() {
+        return mSampleCount;
     }
 
     /**
-     * Returns the last time the keep alive data was detected
+     * Returns the last time the keep alive data was detected, as a
+     * System.nanoTime() value
      */
     public long getLastKeepAlive() {
         return mLastKeepAlive;
     }
 
     /**
-     * Sets the last time the keep alive data was detected
+     * Sets the last time the keep alive data was detected, as a
+     * System.nanoTime() value
      */
-    public void setLastKeepAlive(long timeInmilliseconds) {
-        mLastKeepAlive = timeInmilliseconds;
+    public void setLastKeepAlive(long timeInNanoseconds) {
+        mLastKeepAlive = timeInNanoseconds;
     }
 
     /**
@@ -0,0 +1,225 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatcher that runs the tasks on an Executor. Tasks with the same key run
+ * one at a time and in FIFO order, while tasks with different keys run in
+ * parallel.
+ */
+public class OrderedDispatcher implements Dispatcher {
+
+    /**
+     * Maximum number of tasks a key runs before giving its thread to other
+     * keys
+     */
+    private static final int MAX_TASKS_PER_RUN = 64;
+
+    private final Executor mExecutor;
+
+    private final ConcurrentMap<String, KeyQueue> mQueues = new ConcurrentHashMap<String, KeyQueue>();
+
+    private final AtomicLong mQueueDepth = new AtomicLong();
+
+    private final AtomicLong mMaxQueueDepth = new AtomicLong();
+
+    private final AtomicLong mDispatchedCount = new AtomicLong();
+
+    private final AtomicLong mTotalDispatchLag = new AtomicLong();
+
+    private final AtomicLong mMaxDispatchLag = new AtomicLong();
+
+    private Logger mLogger;
+
+    /**
+     * Initializes the dispatcher with a thread pool that has one thread per
+     * available processor
+     */
+    public OrderedDispatcher() {
+        this(createDefaultExecutor());
+    }
+
+    /**
+     * Initializes the dispatcher
+     * 
+     * @param executor
+     *            Executor that runs the tasks
+     */
+    public OrderedDispatcher(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+
+        mExecutor = executor;
+    }
+
+    /**
+     * Sets the logger used to report errors thrown by the tasks
+     */
+    public void setLogger(Logger logger) {
+        mLogger = logger;
+    }
+
+    @Override
+    public void dispatch(String key, Runnable task) {
+        KeyQueue queue = mQueues.get(key);
+        if (queue == null) {
+            queue = new KeyQueue();
+            KeyQueue existing = mQueues.putIfAbsent(key, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+
+        long depth = mQueueDepth.incrementAndGet();
+        updateMax(mMaxQueueDepth, depth);
+
+        queue.enqueue(new Task(task, System.nanoTime()));
+    }
+
+    /**
+     * Returns the number of tasks waiting to run
+     */
+    public long getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of tasks waiting to run for a key
+     */
+    public int getQueueDepth(String key) {
+        KeyQueue queue = mQueues.get(key);
+        return queue == null ? 0 : queue.mSize.get();
+    }
+
+    /**
+     * Returns the highest number of tasks that were waiting to run at the
+     * same time
+     */
+    public long getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of tasks that started running
+     */
+    public long getDispatchedCount() {
+        return mDispatchedCount.get();
+    }
+
+    /**
+     * Returns the average time between dispatching a task and running it
+     */
+    public long getAverageDispatchLag(TimeUnit unit) {
+        long count = mDispatchedCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        return unit.convert(mTotalDispatchLag.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the longest time between dispatching a task and running it
+     */
+    public long getMaxDispatchLag(TimeUnit unit) {
+        return unit.convert(mMaxDispatchLag.get(), TimeUnit.NANOSECONDS);
+    }
+
+    private void runTask(Task task) {
+        mQueueDepth.decrementAndGet();
+
+        long lag = System.nanoTime() - task.mDispatchTime;
+        mDispatchedCount.incrementAndGet();
+        mTotalDispatchLag.addAndGet(lag);
+        updateMax(mMaxDispatchLag, lag);
+
+        try {
+            task.mRunnable.run();
+        } catch (Throwable error) {
+            Logger logger = mLogger;
+            if (logger != null) {
+                logger.log("Error running dispatched task: " + error.toString(), LogLevel.Critical);
+            }
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static ExecutorService createDefaultExecutor() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SignalR-Dispatcher-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static class Task {
+        final Runnable mRunnable;
+        final long mDispatchTime;
+
+        Task(Runnable runnable, long dispatchTime) {
+            mRunnable = runnable;
+            mDispatchTime = dispatchTime;
+        }
+    }
+
+    /**
+     * FIFO queue for a key. At most one executor thread drains it at a time.
+     */
+    private class KeyQueue implements Runnable {
+        final Queue<Task> mTasks = new ConcurrentLinkedQueue<Task>();
+        final AtomicInteger mSize = new AtomicInteger();
+
+        void enqueue(Task task) {
+            mTasks.add(task);
+            if (mSize.getAndIncrement() == 0) {
+                mExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int budget = MAX_TASKS_PER_RUN;
+            while (true) {
+                runTask(mTasks.poll());
+
+                if (mSize.decrementAndGet() == 0) {
+                    return;
+                }
+
+                if (--budget == 0) {
+                    // let other keys run before continuing with this one
+                    mExecutor.execute(this);
+                    return;
+                }
+            }
+        }
+    }
+}
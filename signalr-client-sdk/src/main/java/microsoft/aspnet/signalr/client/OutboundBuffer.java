@@ -0,0 +1,365 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded buffer for the messages sent while a connection is reconnecting.
+ * The messages are sent in order once the connection is restored. Messages
+ * that don't fit, that get too old or that are still buffered when the
+ * connection closes are dropped, and their futures get an
+ * OutboundMessageDroppedException.
+ */
+public class OutboundBuffer {
+
+    private final int mMaxCount;
+
+    private final long mMaxBytes;
+
+    private final OutboundOverflowPolicy mPolicy;
+
+    private final long mMaxAgeNanos;
+
+    private final ArrayDeque<Entry> mEntries = new ArrayDeque<Entry>();
+
+    private long mBytes = 0;
+
+    private final AtomicBoolean mFlushing = new AtomicBoolean(false);
+
+    private final AtomicLong mBufferedCount = new AtomicLong();
+
+    private final AtomicLong mFlushedCount = new AtomicLong();
+
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    private final AtomicLong mExpiredCount = new AtomicLong();
+
+    /**
+     * Initializes the buffer
+     * 
+     * @param maxCount
+     *            Maximum number of buffered messages
+     * @param maxBytes
+     *            Maximum size of the buffered messages, in UTF-8 bytes
+     * @param policy
+     *            What to do when the buffer is full
+     * @param maxAge
+     *            Maximum time a message stays buffered, or 0 for no limit
+     * @param unit
+     *            Unit of the maximum age
+     */
+    public OutboundBuffer(int maxCount, long maxBytes, OutboundOverflowPolicy policy, long maxAge, TimeUnit unit) {
+        if (maxCount <= 0) {
+            throw new IllegalArgumentException("maxCount must be greater than zero");
+        }
+
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be greater than zero");
+        }
+
+        if (policy == null) {
+            throw new IllegalArgumentException("policy cannot be null");
+        }
+
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("maxAge cannot be negative");
+        }
+
+        if (unit == null) {
+            throw new IllegalArgumentException("unit cannot be null");
+        }
+
+        mMaxCount = maxCount;
+        mMaxBytes = maxBytes;
+        mPolicy = policy;
+        mMaxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    /**
+     * Returns the maximum number of buffered messages
+     */
+    public int getMaxCount() {
+        return mMaxCount;
+    }
+
+    /**
+     * Returns the maximum size of the buffered messages, in bytes
+     */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the overflow policy
+     */
+    public OutboundOverflowPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Returns the number of buffered messages
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the size of the buffered messages, in bytes
+     */
+    public synchronized long getSizeInBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the number of messages that were buffered
+     */
+    public long getBufferedCount() {
+        return mBufferedCount.get();
+    }
+
+    /**
+     * Returns the number of buffered messages that were sent
+     */
+    public long getFlushedCount() {
+        return mFlushedCount.get();
+    }
+
+    /**
+     * Returns the number of messages dropped because the buffer was full or
+     * the connection closed
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * Returns the number of messages dropped because they were too old
+     */
+    public long getExpiredCount() {
+        return mExpiredCount.get();
+    }
+
+    /**
+     * Indicates if the buffer is empty and not being flushed, so a message
+     * can be sent right away without overtaking a buffered one
+     */
+    synchronized boolean isIdle() {
+        return mEntries.isEmpty() && !mFlushing.get();
+    }
+
+    /**
+     * Buffers a message, applying the overflow policy if the buffer is full
+     * 
+     * @param data
+     *            The message
+     * @return The future for the message
+     */
+    SignalRFuture<Void> add(String data) {
+        SignalRFuture<Void> future = new SignalRFuture<Void>();
+        Entry entry = new Entry(data, future);
+
+        List<Entry> expired = null;
+        List<Entry> dropped = null;
+
+        synchronized (this) {
+            expired = removeExpired(entry.mTime);
+
+            if (entry.mBytes > mMaxBytes || (mPolicy == OutboundOverflowPolicy.DropNewest && !hasRoomFor(entry))) {
+                dropped = new ArrayList<Entry>();
+                dropped.add(entry);
+            } else {
+                while (!hasRoomFor(entry)) {
+                    if (dropped == null) {
+                        dropped = new ArrayList<Entry>();
+                    }
+                    dropped.add(removeFirst());
+                }
+
+                mEntries.addLast(entry);
+                mBytes += entry.mBytes;
+                mBufferedCount.incrementAndGet();
+            }
+        }
+
+        fail(expired, OutboundMessageDroppedException.Reason.Expired, mExpiredCount);
+        fail(dropped, OutboundMessageDroppedException.Reason.Overflow, mDroppedCount);
+        return future;
+    }
+
+    /**
+     * Sends the buffered messages in order. Only one thread flushes at a
+     * time, and the flush stops early if the sender returns null, for
+     * instance because the connection was lost again.
+     * 
+     * @param sender
+     *            Sends a message, and returns its future or null
+     */
+    void flush(SendAction sender) {
+        while (mFlushing.compareAndSet(false, true)) {
+            boolean stopped = false;
+            try {
+                stopped = !flushEntries(sender);
+            } finally {
+                mFlushing.set(false);
+            }
+
+            // a message may have been buffered after the last poll and before
+            // the flag was cleared
+            if (stopped || size() == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops all the buffered messages
+     */
+    void clear() {
+        List<Entry> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<Entry>(mEntries);
+            mEntries.clear();
+            mBytes = 0;
+        }
+
+        fail(dropped, OutboundMessageDroppedException.Reason.Closed, mDroppedCount);
+    }
+
+    private boolean flushEntries(SendAction sender) {
+        while (true) {
+            Entry entry;
+            List<Entry> expired;
+
+            synchronized (this) {
+                expired = removeExpired(System.nanoTime());
+                entry = mEntries.isEmpty() ? null : removeFirst();
+            }
+
+            fail(expired, OutboundMessageDroppedException.Reason.Expired, mExpiredCount);
+
+            if (entry == null) {
+                return true;
+            }
+
+            if (entry.mFuture.isCancelled()) {
+                continue;
+            }
+
+            SignalRFuture<Void> sendFuture = sender.send(entry.mData);
+            if (sendFuture == null) {
+                synchronized (this) {
+                    mEntries.addFirst(entry);
+                    mBytes += entry.mBytes;
+                }
+                return false;
+            }
+
+            mFlushedCount.incrementAndGet();
+
+            final SignalRFuture<Void> future = entry.mFuture;
+            sendFuture.done(new Action<Void>() {
+
+                @Override
+                public void run(Void obj) {
+                    future.setResult(null);
+                }
+            });
+            FutureHelper.copyHandlers(sendFuture, future);
+        }
+    }
+
+    private boolean hasRoomFor(Entry entry) {
+        return mEntries.size() < mMaxCount && mBytes + entry.mBytes <= mMaxBytes;
+    }
+
+    private Entry removeFirst() {
+        Entry entry = mEntries.removeFirst();
+        mBytes -= entry.mBytes;
+        return entry;
+    }
+
+    private List<Entry> removeExpired(long now) {
+        if (mMaxAgeNanos == 0) {
+            return null;
+        }
+
+        List<Entry> expired = null;
+        while (!mEntries.isEmpty() && now - mEntries.peekFirst().mTime > mMaxAgeNanos) {
+            if (expired == null) {
+                expired = new ArrayList<Entry>();
+            }
+            expired.add(removeFirst());
+        }
+
+        return expired;
+    }
+
+    private static void fail(List<Entry> entries, OutboundMessageDroppedException.Reason reason, AtomicLong counter) {
+        if (entries == null) {
+            return;
+        }
+
+        for (Entry entry : entries) {
+            counter.incrementAndGet();
+            entry.mFuture.triggerError(new OutboundMessageDroppedException(reason));
+        }
+    }
+
+    /**
+     * Returns the number of bytes of a string encoded in UTF-8
+     */
+    static long utf8Length(String data) {
+        long length = 0;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < data.length() && Character.isLowSurrogate(data.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Sends a flushed message
+     */
+    interface SendAction {
+        /**
+         * Sends a message
+         * 
+         * @return The future of the send, or null if the message could not be
+         *         sent and must stay buffered
+         */
+        SignalRFuture<Void> send(String data);
+    }
+
+    private static class Entry {
+        final String mData;
+        final SignalRFuture<Void> mFuture;
+        final long mBytes;
+        final long mTime = System.nanoTime();
+
+        Entry(String data, SignalRFuture<Void> future) {
+            mData = data;
+            mFuture = future;
+            mBytes = data == null ? 0 : utf8Length(data);
+        }
+    }
+}
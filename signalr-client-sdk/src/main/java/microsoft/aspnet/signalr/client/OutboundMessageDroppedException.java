@@ -0,0 +1,50 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Exception to indicate that a buffered message was dropped before it was
+ * sent
+ */
+public class OutboundMessageDroppedException extends Exception {
+
+    private static final long serialVersionUID = 6048239317283145472L;
+
+    /**
+     * Why the message was dropped
+     */
+    public enum Reason {
+        /**
+         * The buffer was full
+         */
+        Overflow,
+
+        /**
+         * The message stayed in the buffer longer than its maximum age
+         */
+        Expired,
+
+        /**
+         * The connection was closed before it was restored
+         */
+        Closed
+    }
+
+    private final Reason mReason;
+
+    public OutboundMessageDroppedException(Reason reason) {
+        super("The buffered message was dropped (" + reason.toString() + ")");
+        mReason = reason;
+    }
+
+    /**
+     * Returns why the message was dropped
+     */
+    public Reason getReason() {
+        return mReason;
+    }
+}
@@ -0,0 +1,23 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Determines what an OutboundBuffer does when a message is sent and the buffer
+ * is full
+ */
+public enum OutboundOverflowPolicy {
+    /**
+     * Drop the oldest buffered messages to make room
+     */
+    DropOldest,
+
+    /**
+     * Drop the message being sent
+     */
+    DropNewest
+}
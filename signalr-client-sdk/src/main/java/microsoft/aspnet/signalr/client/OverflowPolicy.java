@@ -0,0 +1,36 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Determines what an InboundQueue does when a message arrives and the queue
+ * is full. Invocation results are never dropped: when one arrives, the
+ * dropping policies drop the oldest queued message instead, and Fail waits
+ * for room.
+ */
+public enum OverflowPolicy {
+    /**
+     * Block the transport thread until there is room, which applies TCP
+     * backpressure to the server
+     */
+    Block,
+
+    /**
+     * Drop the oldest queued message to make room
+     */
+    DropOldest,
+
+    /**
+     * Drop the arriving message
+     */
+    DropNewest,
+
+    /**
+     * Fail and stop the connection
+     */
+    Fail
+}
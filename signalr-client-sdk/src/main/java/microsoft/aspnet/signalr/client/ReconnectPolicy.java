@@ -0,0 +1,28 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+/**
+ * Decides when a connection that was lost tries to reconnect, and when it
+ * gives up
+ */
+public interface ReconnectPolicy {
+    /**
+     * Returns the delay before a reconnect attempt
+     * 
+     * @param attempt
+     *            Number of the attempt, starting at 1
+     * @param previousDelay
+     *            Delay before the previous attempt in milliseconds, or 0 for
+     *            the first attempt
+     * @param elapsedTime
+     *            Time since the connection was lost in milliseconds
+     * @return The delay in milliseconds, or a negative value to stop
+     *         reconnecting
+     */
+    public long getNextDelay(int attempt, long previousDelay, long elapsedTime);
+}
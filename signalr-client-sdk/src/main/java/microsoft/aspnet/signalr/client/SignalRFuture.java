@@ -6,53 +6,98 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client;
 
-import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
- * Represents long running SignalR operations
+ * Represents long running SignalR operations.
+ *
+ * The future is lock-free. Its state moves once from pending to done, failed
+ * or cancelled with a single compare-and-set, and every handler runs exactly
+ * once, whether it was added before or after the event. Some operations keep
+ * running after they produced their result, so errors can be triggered more
+ * than once, and cancel() stops the operation even after it completed.
  */
 public class SignalRFuture<V> implements Future<V> {
-    private boolean mIsCancelled = false;
-    private boolean mIsDone = false;
-    private V mResult = null;
-    private List<Runnable> mOnCancelled = new CopyOnWriteArrayList<Runnable>();
-    private List<Action<V>> mOnDone = new CopyOnWriteArrayList<Action<V>>();
-    private final Object mDoneLock = new Object();
-    private List<ErrorCallback> mErrorCallback = new CopyOnWriteArrayList<ErrorCallback>();
-    private Queue<Throwable> mErrorQueue = new ConcurrentLinkedQueue<Throwable>();
-    private final Object mErrorLock = new Object();
-    private Throwable mLastError = null;
-
-    private Semaphore mResultSemaphore = new Semaphore(0);
+
+    private static final int STATE_PENDING = 0;
+    // the result is being written by the thread that won the transition
+    private static final int STATE_COMPLETING = 1;
+    private static final int STATE_DONE = 2;
+    private static final int STATE_FAILED = 3;
+    private static final int STATE_CANCELLED = 4;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<SignalRFuture> STATE = AtomicIntegerFieldUpdater.newUpdater(SignalRFuture.class, "mState");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<SignalRFuture, Callback> CALLBACKS = AtomicReferenceFieldUpdater.newUpdater(SignalRFuture.class,
+            Callback.class, "mCallbacks");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<SignalRFuture, PendingError> PENDING_ERRORS = AtomicReferenceFieldUpdater.newUpdater(
+            SignalRFuture.class, PendingError.class, "mPendingErrors");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<SignalRFuture, CountDownLatch> WAITERS = AtomicReferenceFieldUpdater.newUpdater(SignalRFuture.class,
+            CountDownLatch.class, "mWaiters");
+
+    private volatile int mState = STATE_PENDING;
+    private volatile V mResult = null;
+    private volatile Throwable mLastError = null;
+
+    // stack of the handlers, the newest one first
+    private volatile Callback mCallbacks = null;
+
+    // errors triggered while there was no error handler, the newest one first
+    private volatile PendingError mPendingErrors = null;
+
+    // only created when a thread blocks on get()
+    private volatile CountDownLatch mWaiters = null;
 
     /**
-     * Handles the cancellation event
+     * Handles the cancellation event. If the future was already cancelled, it
+     * triggers the handler right away.
      *
      * @param onCancelled The handler
      */
     public void onCancelled(Runnable onCancelled) {
-        mOnCancelled.add(onCancelled);
+        if (onCancelled == null) {
+            return;
+        }
+
+        Callback callback = push(Callback.CANCELLED, onCancelled);
+        if (isCancelled() && callback.claim()) {
+            onCancelled.run();
+        }
     }
 
     /**
-     * Cancels the operation
+     * Cancels the operation. It also stops an operation that keeps running
+     * after its result, so it applies to a completed future too.
      */
     public void cancel() {
-        mIsCancelled = true;
-        if (mOnCancelled != null) {
-            for (Runnable onCancelled : mOnCancelled) {
-                onCancelled.run();
+        if (!transition(1 << STATE_PENDING | 1 << STATE_DONE | 1 << STATE_FAILED, STATE_CANCELLED)) {
+            return;
+        }
+
+        onCancelledTransition();
+    }
+
+    private void onCancelledTransition() {
+        releaseWaiters();
+
+        for (Callback callback : callbacksInOrder()) {
+            if (callback.mType == Callback.CANCELLED && callback.claim()) {
+                ((Runnable) callback.mHandler).run();
             }
         }
-        mResultSemaphore.release();
     }
 
     /**
@@ -61,22 +106,19 @@ public class SignalRFuture<V> implements Future<V> {
      * @param result The future result
      */
     public void setResult(V result) {
-        synchronized (mDoneLock) {
-            mResult = result;
-            mIsDone = true;
-
-            if (mOnDone.size() > 0) {
-                for (Action<V> handler : mOnDone) {
-                    try {
-                        handler.run(result);
-                    } catch (Exception e) {
-                        triggerError(e);
-                    }
-                }
-            }
+        if (!STATE.compareAndSet(this, STATE_PENDING, STATE_COMPLETING)) {
+            return;
         }
 
-        mResultSemaphore.release();
+        mResult = result;
+        mState = STATE_DONE;
+        releaseWaiters();
+
+        for (Callback callback : callbacksInOrder()) {
+            if (callback.mType == Callback.DONE && callback.claim()) {
+                runDoneHandler(callback, result);
+            }
+        }
     }
 
     /**
@@ -85,12 +127,21 @@ public class SignalRFuture<V> implements Future<V> {
      * @return True if the operation is cancelled
      */
     public boolean isCancelled() {
-        return mIsCancelled;
+        return mState == STATE_CANCELLED;
     }
 
+    /**
+     * Cancels the operation if it did not complete yet
+     *
+     * @return False if the future already completed, failed or was cancelled
+     */
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        cancel();
+        if (!STATE.compareAndSet(this, STATE_PENDING, STATE_CANCELLED)) {
+            return false;
+        }
+
+        onCancelledTransition();
         return true;
     }
 
@@ -105,22 +156,81 @@ public class SignalRFuture<V> implements Future<V> {
 
     @Override
     public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        if (mResultSemaphore.tryAcquire(timeout, unit)) {
-            if (errorWasTriggered()) {
-                throw new ExecutionException(mLastError);
-            } else if (isCancelled()) {
-                throw new InterruptedException("Operation was cancelled");
-            } else {
-                return mResult;
+        if (!isCompleted()) {
+            CountDownLatch waiters = mWaiters;
+            if (waiters == null) {
+                WAITERS.compareAndSet(this, null, new CountDownLatch(1));
+                waiters = mWaiters;
+            }
+
+            // the state is checked again, as it may have completed before the
+            // latch was published
+            if (!isCompleted() && !waiters.await(timeout, unit)) {
+                throw new TimeoutException();
             }
+        }
+
+        int state = mState;
+        if (state == STATE_FAILED) {
+            throw new ExecutionException(mLastError);
+        } else if (state == STATE_CANCELLED) {
+            throw new InterruptedException("Operation was cancelled");
         } else {
-            throw new TimeoutException();
+            return mResult;
         }
     }
 
+    /**
+     * Indicates if the future completed, failed or was cancelled
+     */
     @Override
     public boolean isDone() {
-        return mIsDone;
+        return isCompleted();
+    }
+
+    /**
+     * Returns a CompletableFuture that completes with this future, without
+     * blocking a thread. Cancelling it cancels this future. On Android it
+     * requires API level 24.
+     *
+     * @return The CompletableFuture
+     */
+    public CompletableFuture<V> toCompletableFuture() {
+        final CompletableFuture<V> completableFuture = new CompletableFuture<V>() {
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                SignalRFuture.this.cancel();
+                return cancelled;
+            }
+        };
+
+        done(new Action<V>() {
+
+            @Override
+            public void run(V result) {
+                completableFuture.complete(result);
+            }
+        });
+
+        onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                completableFuture.completeExceptionally(error);
+            }
+        });
+
+        onCancelled(new Runnable() {
+
+            @Override
+            public void run() {
+                completableFuture.cancel(false);
+            }
+        });
+
+        return completableFuture;
     }
 
     /**
@@ -130,16 +240,13 @@ public class SignalRFuture<V> implements Future<V> {
      * @param action The handler
      */
     public SignalRFuture<V> done(Action<V> action) {
-        synchronized (mDoneLock) {
-            mOnDone.add(action);
-
-            if (isDone()) {
-                try {
-                    action.run(get());
-                } catch (Exception e) {
-                    triggerError(e);
-                }
-            }
+        if (action == null) {
+            return this;
+        }
+
+        Callback callback = push(Callback.DONE, action);
+        if (mState == STATE_DONE && callback.claim()) {
+            runDoneHandler(callback, mResult);
         }
 
         return this;
@@ -153,16 +260,13 @@ public class SignalRFuture<V> implements Future<V> {
      * @param errorCallback The handler
      */
     public SignalRFuture<V> onError(ErrorCallback errorCallback) {
-        synchronized (mErrorLock) {
-            mErrorCallback.add(errorCallback);
-            while (!mErrorQueue.isEmpty()) {
-                // Only the first error handler will get the queued errors
-                if (errorCallback != null) {
-                    errorCallback.onError(mErrorQueue.poll());
-                }
-            }
+        if (errorCallback == null) {
+            return this;
         }
 
+        push(Callback.ERROR, errorCallback);
+        deliverPendingErrors();
+
         return this;
     }
 
@@ -172,17 +276,28 @@ public class SignalRFuture<V> implements Future<V> {
      * @param error The error
      */
     public void triggerError(Throwable error) {
-        synchronized (mErrorLock) {
-            mLastError = error;
-            mResultSemaphore.release();
-            if (mErrorCallback.size() > 0) {
-                for (ErrorCallback handler : mErrorCallback) {
-                    handler.onError(error);
-                }
-            } else {
-                mErrorQueue.add(error);
+        mLastError = error;
+        if (transition(1 << STATE_PENDING | 1 << STATE_DONE, STATE_FAILED)) {
+            releaseWaiters();
+        }
+
+        boolean delivered = false;
+        for (Callback callback : callbacksInOrder()) {
+            if (callback.mType == Callback.ERROR) {
+                delivered = true;
+                ((ErrorCallback) callback.mHandler).onError(error);
             }
         }
+
+        if (!delivered) {
+            PendingError pending = new PendingError(error);
+            do {
+                pending.mNext = mPendingErrors;
+            } while (!PENDING_ERRORS.compareAndSet(this, pending.mNext, pending));
+
+            // a handler may have been added after the handlers were checked
+            deliverPendingErrors();
+        }
     }
 
     /**
@@ -194,4 +309,157 @@ public class SignalRFuture<V> implements Future<V> {
         return mLastError != null;
     }
 
+    /**
+     * Returns the last triggered error, or null
+     */
+    public Throwable getLastError() {
+        return mLastError;
+    }
+
+    private boolean isCompleted() {
+        int state = mState;
+        return state != STATE_PENDING && state != STATE_COMPLETING;
+    }
+
+    /**
+     * Moves the future to a new state
+     *
+     * @param fromStates Bit mask of the states the transition applies to, the
+     *                   bit of a state being 1 << state
+     * @param newState   The new state
+     * @return True if this call made the transition
+     */
+    private boolean transition(int fromStates, int newState) {
+        while (true) {
+            int state = mState;
+            if (state == STATE_COMPLETING) {
+                // the result is about to be published
+                Thread.yield();
+                continue;
+            }
+
+            if ((fromStates & (1 << state)) == 0) {
+                return false;
+            }
+
+            if (STATE.compareAndSet(this, state, newState)) {
+                return true;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void runDoneHandler(Callback callback, V result) {
+        try {
+            ((Action<V>) callback.mHandler).run(result);
+        } catch (Exception e) {
+            triggerError(e);
+        }
+    }
+
+    private void releaseWaiters() {
+        CountDownLatch waiters = mWaiters;
+        if (waiters != null) {
+            waiters.countDown();
+        }
+    }
+
+    /**
+     * Returns the handlers in the order they were added
+     */
+    private Callback[] callbacksInOrder() {
+        Callback head = mCallbacks;
+
+        int count = 0;
+        for (Callback callback = head; callback != null; callback = callback.mNext) {
+            count++;
+        }
+
+        Callback[] callbacks = new Callback[count];
+        for (Callback callback = head; callback != null; callback = callback.mNext) {
+            callbacks[--count] = callback;
+        }
+
+        return callbacks;
+    }
+
+    private Callback push(int type, Object handler) {
+        Callback callback = new Callback(type, handler);
+        do {
+            callback.mNext = mCallbacks;
+        } while (!CALLBACKS.compareAndSet(this, callback.mNext, callback));
+
+        return callback;
+    }
+
+    /**
+     * Sends the errors triggered while there was no error handler to the
+     * first error handler. Each error is taken once, so it is delivered once
+     * even when several threads get here at the same time.
+     */
+    private void deliverPendingErrors() {
+        if (mPendingErrors == null) {
+            return;
+        }
+
+        ErrorCallback first = null;
+        for (Callback callback = mCallbacks; callback != null; callback = callback.mNext) {
+            if (callback.mType == Callback.ERROR) {
+                first = (ErrorCallback) callback.mHandler;
+            }
+        }
+
+        if (first == null) {
+            return;
+        }
+
+        PendingError pending = PENDING_ERRORS.getAndSet(this, null);
+
+        // the stack holds the newest error first
+        PendingError ordered = null;
+        while (pending != null) {
+            PendingError next = pending.mNext;
+            pending.mNext = ordered;
+            ordered = pending;
+            pending = next;
+        }
+
+        for (; ordered != null; ordered = ordered.mNext) {
+            first.onError(ordered.mError);
+        }
+    }
+
+    private static final class Callback {
+        static final int DONE = 0;
+        static final int ERROR = 1;
+        static final int CANCELLED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Callback> CLAIMED = AtomicIntegerFieldUpdater.newUpdater(Callback.class, "mClaimed");
+
+        final int mType;
+        final Object mHandler;
+        Callback mNext;
+        private volatile int mClaimed = 0;
+
+        Callback(int type, Object handler) {
+            mType = type;
+            mHandler = handler;
+        }
+
+        /**
+         * Takes the right to run the handler, which only succeeds once
+         */
+        boolean claim() {
+            return CLAIMED.compareAndSet(this, 0, 1);
+        }
+    }
+
+    private static final class PendingError {
+        final Throwable mError;
+        PendingError mNext;
+
+        PendingError(Throwable error) {
+            mError = error;
+        }
+    }
 }
@@ -35,10 +35,26 @@ public class UpdateableCancellableFuture<V> extends SignalRFuture<V> {
     public void cancel() {
         synchronized (mSync) {
             super.cancel();
-            if (mFuture != null) {
-                mFuture.cancel();
-                mFuture = null;
+            cancelCurrentFuture();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (mSync) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
             }
+
+            cancelCurrentFuture();
+            return true;
+        }
+    }
+
+    private void cancelCurrentFuture() {
+        if (mFuture != null) {
+            mFuture.cancel();
+            mFuture = null;
         }
     }
 }
@@ -7,6 +7,7 @@ See License.txt in the project root for license information.
 package microsoft.aspnet.signalr.client.http;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -57,4 +58,10 @@ public interface Response {
      * @throws java.io.IOException
      */
     public byte[] readAllBytes() throws IOException;
+
+    /**
+     * Returns the raw response stream. It must not be combined with the
+     * other read methods.
+     */
+    public InputStream getInputStream();
 }
@@ -87,6 +87,11 @@ public class StreamResponse implements Response {
         return mReader.readLine();
     }
 
+    @Override
+    public InputStream getInputStream() {
+        return mOriginalStream;
+    }
+
     @Override
     public Map<String, List<String>> getHeaders() {
         return new HashMap<String, List<String>>(mHeaders);
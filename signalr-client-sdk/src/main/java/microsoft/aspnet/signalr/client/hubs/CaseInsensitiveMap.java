@@ -0,0 +1,188 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Map of hub and event names that ignores ASCII case, independently of the
+ * default locale. Keys are folded once when they are added. Lookups hash the
+ * raw characters of the name, so they don't allocate and don't take a lock.
+ * Writes copy the table and are meant to be rare.
+ */
+class CaseInsensitiveMap<V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile Entry<V>[] mTable = newTable(INITIAL_CAPACITY);
+
+    /**
+     * Returns the value for a name, or null
+     */
+    V get(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        int hash = hash(name);
+        Entry<V>[] table = mTable;
+        for (Entry<V> entry = table[hash & (table.length - 1)]; entry != null; entry = entry.mNext) {
+            if (entry.mHash == hash && equalsIgnoreCase(entry.mKey, name)) {
+                return entry.mValue;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds a value unless the name already has one
+     *
+     * @return The existing value, or null if the value was added
+     */
+    synchronized V putIfAbsent(String name, V value) {
+        V existing = get(name);
+        if (existing != null) {
+            return existing;
+        }
+
+        List<Entry<V>> entries = entries();
+        entries.add(new Entry<V>(fold(name), hash(name), value, null));
+        mTable = buildTable(entries);
+        return null;
+    }
+
+    /**
+     * Removes the value for a name
+     *
+     * @return The removed value, or null
+     */
+    synchronized V remove(String name) {
+        if (get(name) == null) {
+            return null;
+        }
+
+        int hash = hash(name);
+        V removed = null;
+        List<Entry<V>> entries = entries();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry<V> entry = entries.get(i);
+            if (entry.mHash == hash && equalsIgnoreCase(entry.mKey, name)) {
+                removed = entry.mValue;
+                entries.remove(i);
+                break;
+            }
+        }
+
+        mTable = buildTable(entries);
+        return removed;
+    }
+
+    /**
+     * Returns the folded names in the map
+     */
+    List<String> keys() {
+        List<String> keys = new ArrayList<String>();
+        for (Entry<V> entry : entries()) {
+            keys.add(entry.mKey);
+        }
+
+        return keys;
+    }
+
+    /**
+     * Folds the ASCII letters of a name to lower case
+     */
+    static String fold(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                char[] chars = name.toCharArray();
+                for (int j = i; j < chars.length; j++) {
+                    chars[j] = foldChar(chars[j]);
+                }
+                return new String(chars);
+            }
+        }
+
+        return name;
+    }
+
+    private static char foldChar(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + foldChar(name.charAt(i));
+        }
+
+        // spread the high bits, as the table index only uses the low ones
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equalsIgnoreCase(String folded, String name) {
+        if (folded.length() != name.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < folded.length(); i++) {
+            if (folded.charAt(i) != foldChar(name.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private List<Entry<V>> entries() {
+        List<Entry<V>> entries = new ArrayList<Entry<V>>();
+        for (Entry<V> bucket : mTable) {
+            for (Entry<V> entry = bucket; entry != null; entry = entry.mNext) {
+                entries.add(entry);
+            }
+        }
+
+        return entries;
+    }
+
+    private Entry<V>[] buildTable(List<Entry<V>> entries) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 3 / 4 < entries.size()) {
+            capacity <<= 1;
+        }
+
+        Entry<V>[] table = newTable(capacity);
+        for (Entry<V> entry : entries) {
+            int index = entry.mHash & (capacity - 1);
+            table[index] = new Entry<V>(entry.mKey, entry.mHash, entry.mValue, table[index]);
+        }
+
+        return table;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <V> Entry<V>[] newTable(int capacity) {
+        return new Entry[capacity];
+    }
+
+    private static class Entry<V> {
+        final String mKey;
+        final int mHash;
+        final V mValue;
+        final Entry<V> mNext;
+
+        Entry(String key, int hash, V value, Entry<V> next) {
+            mKey = key;
+            mHash = hash;
+            mValue = value;
+            mNext = next;
+        }
+    }
+}
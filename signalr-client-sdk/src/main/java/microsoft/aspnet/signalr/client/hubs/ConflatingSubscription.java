@@ -0,0 +1,167 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Subscription that only delivers the latest event for each entity. If a new
+ * event for an entity arrives before the handlers consumed the pending one,
+ * the pending event is replaced and never delivered. Events only wait when the
+ * connection uses an asynchronous Dispatcher: with the default
+ * InlineDispatcher every event is delivered as it arrives, and nothing is
+ * conflated.
+ */
+public class ConflatingSubscription extends Subscription {
+
+    private static final Object NULL_KEY = new Object();
+
+    // marks a slot that was removed from the map once its event was taken
+    private static final PendingEvent RETIRED = new PendingEvent(null, false);
+
+    private final ConflationKeyExtractor mKeyExtractor;
+
+    private final ConcurrentMap<Object, AtomicReference<PendingEvent>> mSlots = new ConcurrentHashMap<Object, AtomicReference<PendingEvent>>();
+
+    private final AtomicLong mConflatedCount = new AtomicLong();
+
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+
+    /**
+     * Initializes a conflating subscription owned by a connection
+     * 
+     * @param connection
+     *            The connection that delivers the events
+     * @param hubDispatchKey
+     *            Dispatch key of the hub
+     * @param eventDispatchKey
+     *            Dispatch key of the event
+     * @param keyExtractor
+     *            Extracts the entity key of each event
+     */
+    ConflatingSubscription(HubConnection connection, String hubDispatchKey, String eventDispatchKey, ConflationKeyExtractor keyExtractor) {
+        super(connection, hubDispatchKey, eventDispatchKey);
+
+        mKeyExtractor = keyExtractor;
+    }
+
+    @Override
+    void dispatch(Object[] data, boolean includeBatchHandlers) throws Exception {
+        Object key = mKeyExtractor.getKey(data);
+        if (key == null) {
+            key = NULL_KEY;
+        }
+
+        PendingEvent event = new PendingEvent(data, includeBatchHandlers);
+        while (true) {
+            AtomicReference<PendingEvent> slot = mSlots.get(key);
+            if (slot == null) {
+                slot = new AtomicReference<PendingEvent>();
+                AtomicReference<PendingEvent> existing = mSlots.putIfAbsent(key, slot);
+                if (existing != null) {
+                    slot = existing;
+                }
+            }
+
+            PendingEvent pending = slot.get();
+            if (pending == RETIRED) {
+                mSlots.remove(key, slot);
+                continue;
+            }
+
+            if (!slot.compareAndSet(pending, event)) {
+                continue;
+            }
+
+            if (pending != null) {
+                // the pending event was replaced, and its delivery task will
+                // deliver this one instead
+                mConflatedCount.incrementAndGet();
+                return;
+            }
+
+            scheduleDelivery(key, slot);
+            return;
+        }
+    }
+
+    private void scheduleDelivery(final Object key, final AtomicReference<PendingEvent> slot) {
+        dispatchTask(new Runnable() {
+
+            @Override
+            public void run() {
+                PendingEvent event = slot.getAndSet(null);
+                if (event == null || event == RETIRED) {
+                    return;
+                }
+
+                // the slot is removed unless a newer event arrived meanwhile,
+                // so the map only holds the entities with a pending event
+                if (slot.compareAndSet(null, RETIRED)) {
+                    mSlots.remove(key, slot);
+                }
+
+                mDeliveredCount.incrementAndGet();
+                try {
+                    deliver(event.mData, event.mIncludeBatchHandlers);
+                } catch (Exception e) {
+                    onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of events that were replaced by a newer event before
+     * being delivered
+     */
+    public long getConflatedCount() {
+        return mConflatedCount.get();
+    }
+
+    /**
+     * Returns the number of events delivered to the handlers
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount.get();
+    }
+
+    /**
+     * Returns the number of entities with an event waiting to be delivered
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (AtomicReference<PendingEvent> slot : mSlots.values()) {
+            PendingEvent pending = slot.get();
+            if (pending != null && pending != RETIRED) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the number of entities tracked by the subscription
+     */
+    int getSlotCount() {
+        return mSlots.size();
+    }
+
+    private static class PendingEvent {
+        final Object[] mData;
+        final boolean mIncludeBatchHandlers;
+
+        PendingEvent(Object[] data, boolean includeBatchHandlers) {
+            mData = data;
+            mIncludeBatchHandlers = includeBatchHandlers;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+/**
+ * Extracts the entity key of an event for a conflating subscription
+ */
+public interface ConflationKeyExtractor {
+    /**
+     * Returns the key of the entity the event is about. Events with equal
+     * keys replace each other until they are handled.
+     * 
+     * @param args
+     *            The event arguments
+     * @return The entity key
+     * @throws Exception
+     */
+    public Object getKey(Object[] args) throws Exception;
+}
@@ -0,0 +1,28 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+/**
+ * Exception to indicate that a subscriber of a hub event stream did not
+ * request the events as fast as they were received, and its buffer is full
+ */
+public class EventBufferOverflowException extends Exception {
+
+    private static final long serialVersionUID = 7402863592031175894L;
+
+    /**
+     * Creates a new buffer overflow exception
+     * 
+     * @param eventName
+     *            The name of the event
+     * @param bufferSize
+     *            The size of the buffer
+     */
+    public EventBufferOverflowException(String eventName, int bufferSize) {
+        super("More than " + bufferSize + " '" + eventName + "' events were received without being requested");
+    }
+}
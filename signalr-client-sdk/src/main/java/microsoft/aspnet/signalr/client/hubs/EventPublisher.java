@@ -0,0 +1,234 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import com.bluelinelabs.logansquare.LoganSquare;
+
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.Flow;
+
+/**
+ * Publishes the single parameter of a hub event to flow subscribers. Events
+ * that were not requested yet are buffered per subscriber, up to a limit. A
+ * subscriber that lets the buffer fill up gets an EventBufferOverflowException.
+ * The stream is hot: subscribers only get the events received after they
+ * subscribed, and it does not complete.
+ */
+class EventPublisher<T> implements Flow.Publisher<T> {
+
+    private final Subscription mSubscription;
+    private final String mEventName;
+    private final Class<T> mType;
+    private final int mBufferSize;
+
+    /**
+     * Initializes the publisher
+     *
+     * @param subscription The hub subscription of the event
+     * @param eventName    The name of the event
+     * @param type         Class used to deserialize the event parameter
+     * @param bufferSize   Maximum number of events buffered per subscriber
+     */
+    EventPublisher(Subscription subscription, String eventName, Class<T> type, int bufferSize) {
+        mSubscription = subscription;
+        mEventName = eventName;
+        mType = type;
+        mBufferSize = bufferSize;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("subscriber cannot be null");
+        }
+
+        EventSubscription eventSubscription = new EventSubscription(subscriber);
+        subscriber.onSubscribe(eventSubscription);
+        eventSubscription.start();
+    }
+
+    private class EventSubscription implements Flow.Subscription, Action<Object[]> {
+
+        private final Flow.Subscriber<? super T> mSubscriber;
+
+        private final Queue<T> mBuffer = new ConcurrentLinkedQueue<T>();
+        private final AtomicInteger mBufferedCount = new AtomicInteger();
+        private final AtomicLong mRequested = new AtomicLong();
+
+        // serializes the calls to the subscriber, only the thread that moves
+        // it from zero drains the buffer
+        private final AtomicInteger mWorkInProgress = new AtomicInteger();
+
+        private volatile boolean mCancelled = false;
+        private volatile Throwable mError = null;
+        private volatile SubscriptionHandle mHandle;
+
+        EventSubscription(Flow.Subscriber<? super T> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        void start() {
+            mHandle = mSubscription.addReceivedHandler(this);
+            if (mCancelled || mError != null) {
+                mHandle.remove();
+            }
+        }
+
+        @Override
+        public void run(Object[] args) throws Exception {
+            if (mCancelled || mError != null) {
+                return;
+            }
+
+            T item;
+            try {
+                item = parse(args);
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+
+            if (mBufferedCount.incrementAndGet() > mBufferSize) {
+                fail(new EventBufferOverflowException(mEventName, mBufferSize));
+                return;
+            }
+
+            mBuffer.offer(item);
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("n must be greater than zero"));
+                return;
+            }
+
+            long current;
+            long updated;
+            do {
+                current = mRequested.get();
+                updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!mRequested.compareAndSet(current, updated));
+
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            removeHandler();
+            drain();
+        }
+
+        private void fail(Throwable error) {
+            if (mError == null) {
+                mError = error;
+            }
+
+            removeHandler();
+            drain();
+        }
+
+        private void removeHandler() {
+            SubscriptionHandle handle = mHandle;
+            if (handle != null) {
+                handle.remove();
+            }
+        }
+
+        private void drain() {
+            if (mWorkInProgress.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            while (true) {
+                long requested = mRequested.get();
+                long emitted = 0;
+
+                while (emitted != requested) {
+                    if (terminate()) {
+                        return;
+                    }
+
+                    T item = mBuffer.poll();
+                    if (item == null) {
+                        break;
+                    }
+
+                    mBufferedCount.decrementAndGet();
+                    mSubscriber.onNext(item);
+                    emitted++;
+                }
+
+                if (terminate()) {
+                    return;
+                }
+
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    mRequested.addAndGet(-emitted);
+                }
+
+                missed = mWorkInProgress.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Ends the stream if it was cancelled or failed. It is only called by
+         * the draining thread.
+         */
+        private boolean terminate() {
+            if (mCancelled) {
+                mBuffer.clear();
+                return true;
+            }
+
+            Throwable error = mError;
+            if (error != null) {
+                mCancelled = true;
+                mBuffer.clear();
+                mSubscriber.onError(error);
+                return true;
+            }
+
+            return false;
+        }
+
+        @SuppressWarnings("rawtypes")
+        private T parse(Object[] args) throws Exception {
+            if (args.length != 1) {
+                throw new RuntimeException("The event has 1 parameter, but there are " + args.length + " values.");
+            }
+
+            Object parameter = args[0];
+            T item = null;
+            if (parameter instanceof Map) {
+                item = LoganSquare.parse(new JSONObject((Map) parameter).toString(), mType);
+            } else if (parameter instanceof String) {
+                item = LoganSquare.parse((String) parameter, mType);
+            }
+
+            if (item == null) {
+                throw new RuntimeException("The event has no value.");
+            }
+
+            return item;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import com.bluelinelabs.logansquare.JsonMapper;
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serializes hub invocation arguments into a single Json array
+ */
+class HubArgumentsSerializer {
+
+    private static final ConcurrentMap<Class<?>, JsonMapper<Object>> MAPPERS = new ConcurrentHashMap<Class<?>, JsonMapper<Object>>();
+
+    private HubArgumentsSerializer() {
+    }
+
+    /**
+     * Serializes the arguments as a Json array. All the arguments are written
+     * with the same generator and buffer.
+     *
+     * @param args The invocation arguments
+     * @return The Json array
+     * @throws IOException If an argument cannot be serialized
+     */
+    static String serialize(Object[] args) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = LoganSquare.JSON_FACTORY.createGenerator(writer);
+
+        try {
+            generator.writeStartArray();
+            for (int i = 0; i < args.length; i++) {
+                writeValue(generator, args[i]);
+            }
+            generator.writeEndArray();
+        } finally {
+            generator.close();
+        }
+
+        return writer.toString();
+    }
+
+    /**
+     * Writes a single value. Strings, booleans and boxed numbers are written
+     * directly, everything else goes through its cached mapper.
+     */
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Float) {
+            generator.writeNumber((Float) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Character) {
+            generator.writeString(value.toString());
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else {
+            mapperFor(value.getClass()).serialize(value, generator, true);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JsonMapper<Object> mapperFor(Class<?> type) {
+        JsonMapper<Object> mapper = MAPPERS.get(type);
+        if (mapper == null) {
+            mapper = (JsonMapper<Object>) LoganSquare.mapperFor(type);
+            JsonMapper<Object> existing = MAPPERS.putIfAbsent(type, mapper);
+            if (existing != null) {
+                mapper = existing;
+            }
+        }
+
+        return mapper;
+    }
+}
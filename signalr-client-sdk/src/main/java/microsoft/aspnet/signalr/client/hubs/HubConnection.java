@@ -12,14 +12,15 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Locale;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import microsoft.aspnet.signalr.client.Action;
 import microsoft.aspnet.signalr.client.Connection;
 import microsoft.aspnet.signalr.client.ConnectionState;
+import microsoft.aspnet.signalr.client.HashedWheelTimer;
 import microsoft.aspnet.signalr.client.InvalidStateException;
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.Logger;
@@ -29,9 +30,11 @@ import microsoft.aspnet.signalr.client.Logger;
  */
 public class HubConnection extends Connection {
 
-    private Map<String, Action<HubResult>> mCallbacks = Collections.synchronizedMap(new HashMap<String, Action<HubResult>>());
-    private Map<String, HubProxy> mHubs = Collections.synchronizedMap(new HashMap<String, HubProxy>());
-    private Integer mCallbackId = 0;
+    private final InvocationRegistry mCallbacks = new InvocationRegistry();
+    private CaseInsensitiveMap<HubProxy> mHubs = new CaseInsensitiveMap<HubProxy>();
+    private volatile boolean mBatchReceiveEnabled = false;
+    private volatile HubDispatchOrdering mDispatchOrdering = HubDispatchOrdering.PerHub;
+    private volatile long mDefaultInvocationTimeoutNanos = 0;
 
     /**
      * Initializes the connection
@@ -80,74 +83,185 @@ public class HubConnection extends Connection {
     }
 
     @Override
-    public void onReceived(JSONObject message) {
-        super.onReceived(message);
+    protected void deliverReceived(JSONObject message) {
+        super.deliverReceived(message);
 
         log("Processing message", LogLevel.Information);
         if (getState() == ConnectionState.Connected) {
-            try {
-                if (message.has("I")) {
+            processHubMessage(message, null);
+        }
+    }
+
+    @Override
+    protected void deliverReceived(List<JSONObject> messages) {
+        super.deliverReceived(messages);
+
+        log("Processing " + messages.size() + " messages", LogLevel.Information);
+        if (getState() == ConnectionState.Connected) {
+            Map<Subscription, List<Object[]>> batches = new LinkedHashMap<Subscription, List<Object[]>>();
+
+            for (JSONObject message : messages) {
+                processHubMessage(message, batches);
+            }
+
+            for (Map.Entry<Subscription, List<Object[]>> batch : batches.entrySet()) {
+                try {
+                    batch.getKey().dispatchBatch(batch.getValue());
+                } catch (Exception e) {
+                    onError(e, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns which hub handlers are kept in order by the dispatcher
+     */
+    public HubDispatchOrdering getDispatchOrdering() {
+        return mDispatchOrdering;
+    }
+
+    /**
+     * Sets which hub handlers are kept in order by the dispatcher. It only
+     * matters when the dispatcher is not inline.
+     *
+     * @param ordering The ordering to use
+     */
+    public void setDispatchOrdering(HubDispatchOrdering ordering) {
+        if (ordering == null) {
+            throw new IllegalArgumentException("ordering cannot be null");
+        }
+
+        mDispatchOrdering = ordering;
+    }
+
+    /**
+     * Returns the timeout applied to invocations that don't specify one
+     *
+     * @param unit The unit of the result
+     * @return The timeout, or 0 if invocations don't time out by default
+     */
+    public long getDefaultInvocationTimeout(TimeUnit unit) {
+        return unit.convert(mDefaultInvocationTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the timeout applied to invocations that don't specify one. When it
+     * elapses before the server answers, the invocation fails with an
+     * InvocationTimeoutException. With an outbound buffer, pending
+     * invocations are kept while the connection reconnects, so the timeout
+     * also bounds the wait for a result that was lost with the previous
+     * transport.
+     *
+     * @param timeout The timeout, or 0 to disable it
+     * @param unit    The unit of the timeout
+     */
+    public void setDefaultInvocationTimeout(long timeout, TimeUnit unit) {
+        if (unit == null) {
+            throw new IllegalArgumentException("unit cannot be null");
+        }
+
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout cannot be negative");
+        }
+
+        mDefaultInvocationTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Returns the number of invocations waiting for an answer from the server
+     */
+    public int getPendingInvocationCount() {
+        return mCallbacks.size();
+    }
+
+    /**
+     * Returns the timer that enforces the invocation timeouts
+     */
+    HashedWheelTimer getInvocationTimer() {
+        return HashedWheelTimer.getSharedTimer();
+    }
+
+    @Override
+    public boolean isBatchReceiveEnabled() {
+        return mBatchReceiveEnabled || super.isBatchReceiveEnabled();
+    }
+
+    /**
+     * Enables batched delivery, used once a subscription has batch handlers
+     */
+    void enableBatchReceive() {
+        mBatchReceiveEnabled = true;
+    }
+
+    /**
+     * Processes a hub result or a hub invocation
+     *
+     * @param message The message to process
+     * @param batches The pending subscription batches, or null if the message
+     *                was not received in a batch
+     */
+    private void processHubMessage(JSONObject message, Map<Subscription, List<Object[]>> batches) {
+        try {
+            if (message.has("I")) {
+                long id = InvocationRegistry.parseId(message.get("I"));
+                log("Result Id: " + id, LogLevel.Verbose);
+
+                Action<HubResult> callback = id < 0 ? null : mCallbacks.remove(id);
+                if (callback != null) {
                     log("Getting HubResult from message", LogLevel.Verbose);
                     HubResult result = LoganSquare.parse(message.toString(), HubResult.class);
-
-                    String id = result.getId().toLowerCase(Locale.getDefault());
-                    log("Result Id: " + id, LogLevel.Verbose);
                     log("Result Data: " + new JSONObject(result.getResult()).toString(), LogLevel.Verbose);
 
-                    if (mCallbacks.containsKey(id)) {
-                        log("Get and remove callback with id: " + id, LogLevel.Verbose);
-                        Action<HubResult> callback = mCallbacks.remove(id);
+                    try {
+                        log("Execute callback for message", LogLevel.Verbose);
+                        callback.run(result);
+                    } catch (Exception e) {
+                        onError(e, false);
+                    }
+                }
+            } else {
+                HubInvocation invocation = LoganSquare.parse(message.toString(), HubInvocation.class);
+
+                log("Getting HubInvocation from message", LogLevel.Verbose);
 
-                        try {
-                            log("Execute callback for message", LogLevel.Verbose);
-                            callback.run(result);
-                        } catch (Exception e) {
-                            onError(e, false);
+                String hubName = invocation.getHub();
+                log("Message for: " + hubName, LogLevel.Verbose);
+
+                HubProxy hubProxy = mHubs.get(hubName);
+                if (hubProxy != null) {
+                    if (invocation.getState() != null) {
+                        for (String key : invocation.getState().keySet()) {
+                            String value = invocation.getState().get(key);
+                            log("Setting state for hub: " + key + " -> " + value, LogLevel.Verbose);
+                            hubProxy.setState(key, value);
                         }
                     }
-                } else {
-                    HubInvocation invocation = LoganSquare.parse(message.toString(), HubInvocation.class);
-
-                    log("Getting HubInvocation from message", LogLevel.Verbose);
-
-                    String hubName = invocation.getHub().toLowerCase(Locale.getDefault());
-                    log("Message for: " + hubName, LogLevel.Verbose);
-
-                    if (mHubs.containsKey(hubName)) {
-                        HubProxy hubProxy = mHubs.get(hubName);
-                        if (invocation.getState() != null) {
-                            for (String key : invocation.getState().keySet()) {
-                                String value = invocation.getState().get(key);
-                                log("Setting state for hub: " + key + " -> " + value, LogLevel.Verbose);
-                                hubProxy.setState(key, value);
-                            }
-                        }
 
-                        String eventName = invocation.getMethod().toLowerCase(Locale.getDefault());
-                        log("Invoking event: " + eventName + " with arguments " + invocation.getArgs(), LogLevel.Verbose);
-
-                        try {
-                            JSONArray args = message.getJSONArray("A");
-                            String[] argsResult = new String[args.length()];
-                            for (int i = 0; i < args.length(); i++) {
-                                argsResult[i] = args.getJSONObject(i).toString();
-                            }
-                            hubProxy.invokeEvent(eventName, argsResult);
-                        } catch (Exception e) {
-                            onError(e, false);
+                    String eventName = invocation.getMethod();
+                    log("Invoking event: " + eventName + " with arguments " + invocation.getArgs(), LogLevel.Verbose);
+
+                    try {
+                        JSONArray args = message.getJSONArray("A");
+                        String[] argsResult = new String[args.length()];
+                        for (int i = 0; i < args.length(); i++) {
+                            argsResult[i] = args.getJSONObject(i).toString();
                         }
+                        hubProxy.invokeEvent(eventName, argsResult, batches);
+                    } catch (Exception e) {
+                        onError(e, false);
                     }
                 }
-            } catch (Exception ex) {
-                getLogger().log(ex.getMessage(), LogLevel.Critical);
             }
+        } catch (Exception ex) {
+            getLogger().log(ex.getMessage(), LogLevel.Critical);
         }
     }
 
     @Override
     public String getConnectionData() {
         JSONArray connectionData = new JSONArray();
-        for (String hubName : mHubs.keySet()) {
+        for (String hubName : mHubs.keys()) {
             JSONObject jsonObject = new JSONObject();
             try {
                 jsonObject.put("name", hubName);
@@ -172,21 +286,25 @@ public class HubConnection extends Connection {
         HubResult result = new HubResult();
         result.setError(error);
 
-        for (String key : mCallbacks.keySet()) {
+        for (Action<HubResult> callback : mCallbacks.removeAll()) {
             try {
-                log("Invoking callback with empty result: " + key, LogLevel.Verbose);
-                mCallbacks.get(key).run(result);
+                log("Invoking callback with empty result", LogLevel.Verbose);
+                callback.run(result);
             } catch (Exception e) {
                 getLogger().log(e.toString(), LogLevel.Critical);
             }
         }
-
-        mCallbacks.clear();
     }
 
     @Override
     protected void onReconnecting() {
-        clearInvocationCallbacks("Reconnecting");
+        // with an outbound buffer, the pending invocations are kept so the
+        // buffered ones still get their results once reconnected. They fail
+        // when the connection closes, or by their invocation timeout.
+        if (getOutboundBuffer() == null) {
+            clearInvocationCallbacks("Reconnecting");
+        }
+
         super.onReconnecting();
     }
 
@@ -207,32 +325,38 @@ public class HubConnection extends Connection {
             throw new IllegalArgumentException("hubName cannot be null");
         }
 
-        String hubNameLower = hubName.toLowerCase(Locale.getDefault());
-
-        log("Creating hub proxy: " + hubNameLower, LogLevel.Information);
+        log("Creating hub proxy: " + hubName, LogLevel.Information);
 
-        HubProxy proxy = null;
-        if (mHubs.containsKey(hubNameLower)) {
-            proxy = mHubs.get(hubNameLower);
-        } else {
+        HubProxy proxy = mHubs.get(hubName);
+        if (proxy == null) {
             proxy = new HubProxy(this, hubName, getLogger());
-            mHubs.put(hubNameLower, proxy);
+            HubProxy existing = mHubs.putIfAbsent(hubName, proxy);
+            if (existing != null) {
+                proxy = existing;
+            }
         }
 
         return proxy;
     }
 
+    /**
+     * Returns the proxy created for a hub, or null
+     *
+     * @param hubName The hub name
+     */
+    HubProxy getHubProxy(String hubName) {
+        return mHubs.get(hubName);
+    }
+
     /**
      * Registers a callback
      *
      * @param callback The callback to register
      * @return The callback Id
      */
-    String registerCallback(Action<HubResult> callback) {
-        String id = mCallbackId.toString().toLowerCase(Locale.getDefault());
+    long registerCallback(Action<HubResult> callback) {
+        long id = mCallbacks.register(callback);
         log("Registering callback: " + id, LogLevel.Verbose);
-        mCallbacks.put(id, callback);
-        mCallbackId++;
         return id;
     }
 
@@ -240,10 +364,11 @@ public class HubConnection extends Connection {
      * Removes a callback
      *
      * @param callbackId Id for the callback to remove
+     * @return True if the callback was still registered
      */
-    void removeCallback(String callbackId) {
+    boolean removeCallback(long callbackId) {
         log("Removing callback: " + callbackId, LogLevel.Verbose);
-        mCallbacks.remove(callbackId.toLowerCase(Locale.getDefault()));
+        return mCallbacks.remove(callbackId) != null;
     }
 
     /**
@@ -0,0 +1,602 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.ConnectionEvent;
+import microsoft.aspnet.signalr.client.ConnectionEventListener;
+import microsoft.aspnet.signalr.client.ConnectionEventType;
+import microsoft.aspnet.signalr.client.ConnectionState;
+import microsoft.aspnet.signalr.client.ErrorCallback;
+import microsoft.aspnet.signalr.client.HashedWheelTimer;
+import microsoft.aspnet.signalr.client.LogLevel;
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.OrderedDispatcher;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.transport.ClientTransport;
+
+/**
+ * Pool of hub connections to the same endpoint, so that the messages are read
+ * and handled in parallel. Invocations are routed to a connection by a
+ * partition key, with consistent hashing, so all the invocations for a key go
+ * through the same connection. WebSockets keep their order, while the other
+ * transports post every invocation on its own request, so a caller that needs
+ * the order waits for an invocation before the next one. The events of all the
+ * connections are handled on a shared dispatcher, in order for each partition
+ * key. Every connection reconnects on its own, and a connection that closes
+ * is started again while the pool runs.
+ */
+public class HubConnectionPool {
+
+    /**
+     * Creates the transport of a connection of the pool
+     */
+    public interface TransportFactory {
+        /**
+         * Creates a transport
+         * 
+         * @param shard
+         *            Index of the connection in the pool
+         * @return The transport
+         */
+        public ClientTransport createTransport(int shard);
+    }
+
+    private static final int VIRTUAL_NODES_PER_SHARD = 160;
+
+    private static ExecutorService sDefaultExecutor;
+
+    private final HubConnection[] mConnections;
+
+    // the ring of the consistent hashing, sorted by point
+    private final int[] mRingPoints;
+    private final int[] mRingShards;
+
+    private final OrderedDispatcher mDispatcher;
+
+    private final Executor mExecutor;
+
+    private final Logger mLogger;
+
+    private final AtomicLongArray mInvocationCounts;
+
+    private final AtomicLongArray mEventCounts;
+
+    private final AtomicIntegerArray mRestartAttempts;
+
+    private final AtomicLongArray mRestartDelays;
+
+    private final AtomicBoolean mRunning = new AtomicBoolean(false);
+
+    private volatile TransportFactory mTransportFactory;
+
+    /**
+     * Initializes the pool
+     * 
+     * @param url
+     *            The connection URL
+     * @param useDefaultUrl
+     *            indicates if the default SignalR URL should be used
+     * @param isSsl
+     *            Passed to the connections
+     * @param size
+     *            Number of connections
+     */
+    public HubConnectionPool(String url, boolean useDefaultUrl, boolean isSsl, int size) {
+        this(url, null, useDefaultUrl, new NullLogger(), isSsl, size);
+    }
+
+    /**
+     * Initializes the pool, handling the events on a shared thread pool
+     * 
+     * @param url
+     *            The connection URL
+     * @param queryString
+     *            The connection query string
+     * @param useDefaultUrl
+     *            indicates if the default SignalR URL should be used
+     * @param logger
+     *            The logger of the pool and its connections
+     * @param isSsl
+     *            Passed to the connections
+     * @param size
+     *            Number of connections
+     */
+    public HubConnectionPool(String url, String queryString, boolean useDefaultUrl, Logger logger, boolean isSsl, int size) {
+        this(url, queryString, useDefaultUrl, logger, isSsl, size, getDefaultExecutor());
+    }
+
+    /**
+     * Initializes the pool
+     * 
+     * @param url
+     *            The connection URL
+     * @param queryString
+     *            The connection query string
+     * @param useDefaultUrl
+     *            indicates if the default SignalR URL should be used
+     * @param logger
+     *            The logger of the pool and its connections
+     * @param isSsl
+     *            Passed to the connections
+     * @param size
+     *            Number of connections
+     * @param executor
+     *            Executor that runs the event handlers and restarts the
+     *            connections
+     */
+    public HubConnectionPool(String url, String queryString, boolean useDefaultUrl, Logger logger, boolean isSsl, int size, Executor executor) {
+        if (url == null) {
+            throw new IllegalArgumentException("URL cannot be null");
+        }
+
+        if (logger == null) {
+            throw new IllegalArgumentException("Logger cannot be null");
+        }
+
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be greater than zero");
+        }
+
+        if (executor == null) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+
+        mLogger = logger;
+        mExecutor = executor;
+        mDispatcher = new OrderedDispatcher(executor);
+        mDispatcher.setLogger(logger);
+
+        mConnections = new HubConnection[size];
+        mInvocationCounts = new AtomicLongArray(size);
+        mEventCounts = new AtomicLongArray(size);
+        mRestartAttempts = new AtomicIntegerArray(size);
+        mRestartDelays = new AtomicLongArray(size);
+
+        for (int i = 0; i < size; i++) {
+            mConnections[i] = new HubConnection(url, queryString, useDefaultUrl, logger, isSsl);
+            mConnections[i].getEventBus().addListener(createRestartListener(i));
+        }
+
+        mRingPoints = new int[size * VIRTUAL_NODES_PER_SHARD];
+        mRingShards = new int[size * VIRTUAL_NODES_PER_SHARD];
+        buildRing();
+    }
+
+    /**
+     * Returns the number of connections
+     */
+    public int getSize() {
+        return mConnections.length;
+    }
+
+    /**
+     * Returns a connection of the pool, to configure it
+     * 
+     * @param shard
+     *            Index of the connection
+     */
+    public HubConnection getConnection(int shard) {
+        return mConnections[shard];
+    }
+
+    /**
+     * Returns the index of the connection a partition key is routed to
+     * 
+     * @param partitionKey
+     *            The partition key
+     */
+    public int getShard(Object partitionKey) {
+        return getShardOfPoint(mix(String.valueOf(partitionKey).hashCode()));
+    }
+
+    /**
+     * Returns the shard of the first ring point at or after a point
+     */
+    int getShardOfPoint(int point) {
+        int index = Arrays.binarySearch(mRingPoints, point);
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        // the ring wraps around
+        return mRingShards[index == mRingPoints.length ? 0 : index];
+    }
+
+    /**
+     * Returns the hub proxy of the connection a partition key is routed to
+     * 
+     * @param hubName
+     *            The hub name
+     * @param partitionKey
+     *            The partition key
+     * @return The hub proxy
+     */
+    public HubProxy getHubProxy(String hubName, Object partitionKey) {
+        return getHubProxy(getShard(partitionKey), hubName);
+    }
+
+    /**
+     * Creates a proxy for a hub on every connection. It must be called before
+     * the pool is started.
+     * 
+     * @param hubName
+     *            The hub name
+     */
+    public void createHubProxy(String hubName) {
+        for (HubConnection connection : mConnections) {
+            connection.createHubProxy(hubName);
+        }
+    }
+
+    /**
+     * Invokes a hub method on the connection a partition key is routed to
+     * 
+     * @param hubName
+     *            The hub name
+     * @param partitionKey
+     *            The partition key
+     * @param method
+     *            The method name
+     * @param args
+     *            The method arguments
+     * @return A Future for the operation
+     */
+    public SignalRFuture<Void> invoke(String hubName, Object partitionKey, String method, Object... args) throws IOException {
+        return invoke(null, hubName, partitionKey, method, args);
+    }
+
+    /**
+     * Invokes a hub method that returns a value on the connection a
+     * partition key is routed to
+     * 
+     * @param resultClass
+     *            The class of the result, or null
+     * @param hubName
+     *            The hub name
+     * @param partitionKey
+     *            The partition key
+     * @param method
+     *            The method name
+     * @param args
+     *            The method arguments
+     * @return A Future for the operation, that will return the method result
+     */
+    public <E> SignalRFuture<E> invoke(Class<E> resultClass, String hubName, Object partitionKey, String method, Object... args) throws IOException {
+        int shard = getShard(partitionKey);
+        mInvocationCounts.incrementAndGet(shard);
+        return getHubProxy(shard, hubName).invoke(resultClass, method, args);
+    }
+
+    /**
+     * Handles an event received on any connection of the pool. The handler
+     * runs on the pool dispatcher, one event at a time for each partition
+     * key, and in parallel for different keys. The events of a hub share the
+     * order of their partition key, whatever their name, so the handlers of
+     * different events for a key never run concurrently or out of order.
+     * 
+     * @param hubName
+     *            The hub name
+     * @param eventName
+     *            The event name
+     * @param keyExtractor
+     *            Extracts the partition key of the events, or null to keep
+     *            the events of each connection in order
+     * @param handler
+     *            The handler, which gets the raw event arguments
+     * @return A handle that removes the handler from all the connections
+     */
+    public SubscriptionHandle on(String hubName, final String eventName, final PartitionKeyExtractor keyExtractor, final Action<Object[]> handler) {
+        if (hubName == null) {
+            throw new IllegalArgumentException("hubName cannot be null");
+        }
+
+        if (eventName == null) {
+            throw new IllegalArgumentException("eventName cannot be null");
+        }
+
+        if (handler == null) {
+            throw new IllegalArgumentException("handler cannot be null");
+        }
+
+        final String dispatchPrefix = CaseInsensitiveMap.fold(hubName) + ":";
+        final List<SubscriptionHandle> handles = new ArrayList<SubscriptionHandle>();
+
+        for (int i = 0; i < mConnections.length; i++) {
+            final int shard = i;
+            final HubConnection connection = mConnections[i];
+
+            handles.add(getHubProxy(shard, hubName).subscribe(eventName).addReceivedHandler(new Action<Object[]>() {
+
+                @Override
+                public void run(final Object[] args) throws Exception {
+                    mEventCounts.incrementAndGet(shard);
+
+                    String key = keyExtractor != null ? "k" + keyExtractor.getKey(args) : "s" + shard;
+                    mDispatcher.dispatch(dispatchPrefix + key, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            try {
+                                handler.run(args);
+                            } catch (Exception e) {
+                                connection.onError(e, false);
+                            }
+                        }
+                    });
+                }
+            }));
+        }
+
+        return new SubscriptionHandle() {
+
+            @Override
+            public boolean remove() {
+                boolean removed = false;
+                for (SubscriptionHandle handle : handles) {
+                    removed |= handle.remove();
+                }
+                return removed;
+            }
+        };
+    }
+
+    /**
+     * Starts all the connections using the best available transport
+     * 
+     * @return A Future that completes once all the connections are started
+     */
+    public SignalRFuture<Void> start() {
+        return start(null);
+    }
+
+    /**
+     * Starts all the connections
+     * 
+     * @param transportFactory
+     *            Creates the transport of each connection, or null to use the
+     *            best available transport
+     * @return A Future that completes once all the connections are started,
+     *         or gets the error of the first connection that failed. A
+     *         failed connection is started again while the pool runs.
+     */
+    public SignalRFuture<Void> start(TransportFactory transportFactory) {
+        mTransportFactory = transportFactory;
+        mRunning.set(true);
+
+        final SignalRFuture<Void> result = new SignalRFuture<Void>();
+        final AtomicInteger remaining = new AtomicInteger(mConnections.length);
+
+        for (int i = 0; i < mConnections.length; i++) {
+            SignalRFuture<Void> startFuture;
+            try {
+                startFuture = startConnection(i);
+            } catch (Exception e) {
+                result.triggerError(e);
+                continue;
+            }
+
+            startFuture.done(new Action<Void>() {
+
+                @Override
+                public void run(Void obj) {
+                    if (remaining.decrementAndGet() == 0) {
+                        result.setResult(null);
+                    }
+                }
+            });
+
+            startFuture.onError(new ErrorCallback() {
+
+                @Override
+                public void onError(Throwable error) {
+                    result.triggerError(error);
+                }
+            });
+        }
+
+        return result;
+    }
+
+    /**
+     * Stops all the connections
+     */
+    public void stop() {
+        mRunning.set(false);
+
+        for (HubConnection connection : mConnections) {
+            connection.stop();
+        }
+    }
+
+    /**
+     * Returns the state of a connection
+     * 
+     * @param shard
+     *            Index of the connection
+     */
+    public ConnectionState getState(int shard) {
+        return mConnections[shard].getState();
+    }
+
+    /**
+     * Returns the number of invocations routed to a connection
+     * 
+     * @param shard
+     *            Index of the connection
+     */
+    public long getInvocationCount(int shard) {
+        return mInvocationCounts.get(shard);
+    }
+
+    /**
+     * Returns the number of events received on a connection, for the
+     * handlers added to the pool
+     * 
+     * @param shard
+     *            Index of the connection
+     */
+    public long getEventCount(int shard) {
+        return mEventCounts.get(shard);
+    }
+
+    /**
+     * Returns the number of invocations waiting for a result on a connection
+     * 
+     * @param shard
+     *            Index of the connection
+     */
+    public int getPendingInvocationCount(int shard) {
+        return mConnections[shard].getPendingInvocationCount();
+    }
+
+    /**
+     * Returns the dispatcher that runs the event handlers, to read its queue
+     * depth and lag
+     */
+    public OrderedDispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
+    /**
+     * Returns the proxy of a hub on a connection, creating it if the
+     * connection is not started
+     */
+    private HubProxy getHubProxy(int shard, String hubName) {
+        HubProxy proxy = mConnections[shard].getHubProxy(hubName);
+        if (proxy == null) {
+            proxy = mConnections[shard].createHubProxy(hubName);
+        }
+
+        return proxy;
+    }
+
+    private SignalRFuture<Void> startConnection(int shard) throws Exception {
+        TransportFactory transportFactory = mTransportFactory;
+        if (transportFactory != null) {
+            return mConnections[shard].start(transportFactory.createTransport(shard));
+        }
+
+        return mConnections[shard].start();
+    }
+
+    /**
+     * Returns a listener that starts a connection again after it closed,
+     * with the delays of its reconnect policy
+     */
+    private ConnectionEventListener createRestartListener(final int shard) {
+        return new ConnectionEventListener() {
+
+            @Override
+            public void onEvent(ConnectionEvent event) {
+                if (event.getType() == ConnectionEventType.Connected) {
+                    mRestartAttempts.set(shard, 0);
+                    mRestartDelays.set(shard, 0);
+                } else if (event.getType() == ConnectionEventType.Closed && mRunning.get()) {
+                    scheduleRestart(shard);
+                }
+            }
+        };
+    }
+
+    private void scheduleRestart(final int shard) {
+        HubConnection connection = mConnections[shard];
+        int attempt = mRestartAttempts.incrementAndGet(shard);
+        long delay = connection.getReconnectPolicy().getNextDelay(attempt, mRestartDelays.get(shard), 0);
+        if (delay < 0) {
+            mLogger.log("HubConnectionPool - Connection " + shard + " is not started again after " + (attempt - 1) + " attempts", LogLevel.Information);
+            return;
+        }
+
+        mRestartDelays.set(shard, delay);
+        mLogger.log("HubConnectionPool - Starting connection " + shard + " again in " + delay + " ms", LogLevel.Information);
+
+        HashedWheelTimer.getSharedTimer().newTimeout(new Runnable() {
+
+            @Override
+            public void run() {
+                mExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (!mRunning.get() || mConnections[shard].getState() != ConnectionState.Disconnected) {
+                            return;
+                        }
+
+                        try {
+                            startConnection(shard);
+                        } catch (Exception e) {
+                            mLogger.log("HubConnectionPool - Error starting connection " + shard + ": " + e.toString(), LogLevel.Critical);
+                        }
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void buildRing() {
+        long[] entries = new long[mRingPoints.length];
+        int index = 0;
+        for (int shard = 0; shard < mConnections.length; shard++) {
+            for (int node = 0; node < VIRTUAL_NODES_PER_SHARD; node++) {
+                int point = mix(shard * 31 * VIRTUAL_NODES_PER_SHARD + node + 1);
+                // sort by point, keeping the shard in the low bits
+                entries[index++] = ((long) point << 32) | shard;
+            }
+        }
+
+        Arrays.sort(entries);
+        for (int i = 0; i < entries.length; i++) {
+            mRingPoints[i] = (int) (entries[i] >> 32);
+            mRingShards[i] = (int) entries[i];
+        }
+    }
+
+    /**
+     * Spreads the bits of a hash (the MurmurHash3 finalizer)
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            sDefaultExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SignalR-Pool-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sDefaultExecutor;
+    }
+}
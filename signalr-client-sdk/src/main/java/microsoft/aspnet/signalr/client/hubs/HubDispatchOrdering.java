@@ -0,0 +1,24 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+/**
+ * Determines which hub handlers are kept in order when they are run by a
+ * dispatcher
+ */
+public enum HubDispatchOrdering {
+    /**
+     * All the events and invocation results of a hub run in order
+     */
+    PerHub,
+
+    /**
+     * The handlers of each event run in order, and different events of the
+     * same hub may run in parallel
+     */
+    PerEvent
+}
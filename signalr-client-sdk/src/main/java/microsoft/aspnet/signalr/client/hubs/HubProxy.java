@@ -12,15 +12,20 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import microsoft.aspnet.signalr.client.Action;
 import microsoft.aspnet.signalr.client.ErrorCallback;
+import microsoft.aspnet.signalr.client.Flow;
+import microsoft.aspnet.signalr.client.HashedWheelTimer;
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.Logger;
 import microsoft.aspnet.signalr.client.SignalRFuture;
@@ -34,9 +39,11 @@ public class HubProxy {
 
     private String mHubName;
 
+    private String mDispatchKey;
+
     private HubConnection mConnection;
 
-    private Map<String, Subscription> mSubscriptions = Collections.synchronizedMap(new HashMap<String, Subscription>());
+    private CaseInsensitiveMap<Subscription> mSubscriptions = new CaseInsensitiveMap<Subscription>();
 
     private Map<String, String> mState = Collections.synchronizedMap(new HashMap<String, String>());
 
@@ -46,6 +53,8 @@ public class HubProxy {
 
     private static final String SUBSCRIPTION_HANDLER_METHOD = "run";
 
+    private static final int DEFAULT_EVENT_BUFFER_SIZE = 1024;
+
     /**
      * Initializes the HubProxy
      *
@@ -55,6 +64,7 @@ public class HubProxy {
     protected HubProxy(HubConnection connection, String hubName, Logger logger) {
         mConnection = connection;
         mHubName = hubName;
+        mDispatchKey = CaseInsensitiveMap.fold(hubName);
         mLogger = logger;
     }
 
@@ -100,19 +110,55 @@ public class HubProxy {
             throw new IllegalArgumentException("eventName cannot be null");
         }
 
-        eventName = eventName.toLowerCase(Locale.getDefault());
-
-        Subscription subscription;
-        if (mSubscriptions.containsKey(eventName)) {
+        Subscription subscription = mSubscriptions.get(eventName);
+        if (subscription != null) {
             log("Adding event to existing subscription: " + eventName, LogLevel.Information);
-            subscription = mSubscriptions.get(eventName);
-        } else {
-            log("Creating new subscription for: " + eventName, LogLevel.Information);
-            subscription = new Subscription();
-            mSubscriptions.put(eventName, subscription);
+            return subscription;
         }
 
-        return subscription;
+        log("Creating new subscription for: " + eventName, LogLevel.Information);
+        subscription = new Subscription(mConnection, mDispatchKey, mDispatchKey + "." + CaseInsensitiveMap.fold(eventName));
+        Subscription existing = mSubscriptions.putIfAbsent(eventName, subscription);
+        return existing != null ? existing : subscription;
+    }
+
+    /**
+     * Creates a conflating subscription to an event. Only the latest event for
+     * each entity is delivered: if a newer event with the same key arrives
+     * before the handlers consumed the pending one, it replaces it. Events
+     * only wait for the handlers with an asynchronous Dispatcher, so nothing
+     * is conflated with the default InlineDispatcher.
+     *
+     * @param eventName    The name of the event
+     * @param keyExtractor Extracts the entity key from the event arguments
+     * @return The subscription object
+     */
+    public ConflatingSubscription subscribeConflated(String eventName, ConflationKeyExtractor keyExtractor) {
+        log("Subscribe to event " + eventName + " with conflation", LogLevel.Information);
+        if (eventName == null) {
+            throw new IllegalArgumentException("eventName cannot be null");
+        }
+
+        if (keyExtractor == null) {
+            throw new IllegalArgumentException("keyExtractor cannot be null");
+        }
+
+        Subscription subscription = mSubscriptions.get(eventName);
+        if (subscription == null) {
+            log("Creating new conflating subscription for: " + eventName, LogLevel.Information);
+            ConflatingSubscription conflatingSubscription = new ConflatingSubscription(mConnection, mDispatchKey, mDispatchKey + "." + CaseInsensitiveMap.fold(eventName),
+                    keyExtractor);
+            subscription = mSubscriptions.putIfAbsent(eventName, conflatingSubscription);
+            if (subscription == null) {
+                return conflatingSubscription;
+            }
+        }
+
+        if (subscription instanceof ConflatingSubscription) {
+            return (ConflatingSubscription) subscription;
+        }
+
+        throw new IllegalStateException("The event " + eventName + " already has a subscription without conflation");
     }
 
     /**
@@ -162,6 +208,41 @@ public class HubProxy {
         }
     }
 
+    /**
+     * Returns a stream of the parameter of an event. Each subscriber gets the
+     * events as it requests them, and up to 1024 events are buffered while it
+     * has no demand.
+     *
+     * @param eventName The name of the event
+     * @param type      Class used to deserialize the event parameter
+     * @return The event stream
+     */
+    public <T> Flow.Publisher<T> events(String eventName, Class<T> type) {
+        return events(eventName, type, DEFAULT_EVENT_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a stream of the parameter of an event. Each subscriber gets the
+     * events as it requests them. A subscriber that lets more than bufferSize
+     * events pile up gets an EventBufferOverflowException.
+     *
+     * @param eventName  The name of the event
+     * @param type       Class used to deserialize the event parameter
+     * @param bufferSize Maximum number of events buffered per subscriber
+     * @return The event stream
+     */
+    public <T> Flow.Publisher<T> events(String eventName, Class<T> type, int bufferSize) {
+        if (type == null) {
+            throw new IllegalArgumentException("type cannot be null");
+        }
+
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be greater than zero");
+        }
+
+        return new EventPublisher<T>(subscribe(eventName), eventName, type, bufferSize);
+    }
+
     /**
      * Removes all the subscriptions attached to an event
      *
@@ -169,7 +250,7 @@ public class HubProxy {
      */
     public void removeSubscription(String eventName) {
         if (eventName != null) {
-            mSubscriptions.remove(eventName.toLowerCase(Locale.getDefault()));
+            mSubscriptions.remove(eventName);
         }
     }
 
@@ -192,6 +273,52 @@ public class HubProxy {
      * @return A Future for the operation, that will return the method result
      */
     public <E> SignalRFuture<E> invoke(final Class<E> resultClass, final String method, Object... args) throws IOException {
+        return invokeMethod(resultClass, method, -1, args);
+    }
+
+    /**
+     * Invokes a hub method that fails with an InvocationTimeoutException if
+     * the server does not answer in time
+     *
+     * @param method  Method name
+     * @param timeout The timeout, or 0 to wait until the connection closes
+     * @param unit    The unit of the timeout
+     * @param args    Method arguments
+     * @return A Future for the operation
+     */
+    public SignalRFuture<Void> invokeWithTimeout(String method, long timeout, TimeUnit unit, Object... args) throws IOException {
+        return invokeWithTimeout(null, method, timeout, unit, args);
+    }
+
+    /**
+     * Invokes a hub method that returns a value, and fails with an
+     * InvocationTimeoutException if the server does not answer in time
+     *
+     * @param method  Method name
+     * @param timeout The timeout, or 0 to wait until the connection closes
+     * @param unit    The unit of the timeout
+     * @param args    Method arguments
+     * @return A Future for the operation, that will return the method result
+     */
+    public <E> SignalRFuture<E> invokeWithTimeout(Class<E> resultClass, String method, long timeout, TimeUnit unit, Object... args) throws IOException {
+        if (unit == null) {
+            throw new IllegalArgumentException("unit cannot be null");
+        }
+
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout cannot be negative");
+        }
+
+        return invokeMethod(resultClass, method, unit.toNanos(timeout), args);
+    }
+
+    /**
+     * Invokes a hub method
+     *
+     * @param timeoutNanos The timeout in nanoseconds, 0 for no timeout or -1
+     *                     to use the connection default
+     */
+    private <E> SignalRFuture<E> invokeMethod(final Class<E> resultClass, final String method, long timeoutNanos, Object... args) throws IOException {
         if (method == null) {
             throw new IllegalArgumentException("method cannot be null");
         }
@@ -202,80 +329,109 @@ public class HubProxy {
 
         log("Invoking method on hub: " + method, LogLevel.Information);
 
-        StringBuilder argsResult = new StringBuilder("[");
-
-        for (int i = 0; i < args.length; i++) {
-            argsResult.append(LoganSquare.serialize(args[i]));
-            if (i != args.length - 1) {
-                argsResult.append(",");
-            }
-        }
-
-        argsResult.append("]");
+        String argsResult = HubArgumentsSerializer.serialize(args);
 
         final SignalRFuture<E> resultFuture = new SignalRFuture<E>();
+        final AtomicReference<HashedWheelTimer.Timeout> timeoutReference = new AtomicReference<HashedWheelTimer.Timeout>();
+        final AtomicBoolean completed = new AtomicBoolean(false);
 
-        final String callbackId = mConnection.registerCallback(new Action<HubResult>() {
+        final long callbackId = mConnection.registerCallback(new Action<HubResult>() {
 
             @Override
-            public void run(HubResult result) {
-                log("Executing invocation callback for: " + method, LogLevel.Information);
-                if (result != null) {
-                    if (result.getError() != null) {
-                        if (result.isHubException()) {
-                            resultFuture.triggerError(new HubException(result.getError(), result.getErrorData()));
-                        } else {
-                            resultFuture.triggerError(new Exception(result.getError()));
-                        }
-                    } else {
-                        boolean errorHappened = false;
-                        E resultObject = null;
-                        try {
-                            if (result.getState() != null) {
-                                for (String key : result.getState().keySet()) {
-                                    setState(key, result.getState().get(key));
-                                }
-                            }
+            public void run(final HubResult result) {
+                completed.set(true);
+                cancelTimeout(timeoutReference.get());
 
-                            if (result.getResult() != null && resultClass != null) {
-                                final String jsonResult = new JSONObject(result.getResult()).toString();
-                                log("Found result invoking method on hub: " + result.getResult(), LogLevel.Information);
-                                resultObject = parse(jsonResult, resultClass);
-                            }
-                        } catch (Exception e) {
-                            errorHappened = true;
-                            resultFuture.triggerError(e);
-                        }
+                mConnection.getDispatcher().dispatch(mDispatchKey, new Runnable() {
 
-                        if (!errorHappened) {
-                            try {
-                                resultFuture.setResult(resultObject);
-                            } catch (Exception e) {
-                                resultFuture.triggerError(e);
-                            }
-                        }
+                    @Override
+                    public void run() {
+                        completeInvocation(method, resultClass, resultFuture, result);
                     }
-                }
+                });
             }
         });
 
         HubInvocation hubData = new HubInvocation();
         hubData.setHub(mHubName);
         hubData.setMethod(method);
-        hubData.setArgs(argsResult.toString());
-        hubData.setCallbackId(callbackId);
+        hubData.setArgs(argsResult);
+        hubData.setCallbackId(Long.toString(callbackId));
 
         if (mState.size() != 0) {
             hubData.setState(mState);
         }
 
+        if (timeoutNanos < 0) {
+            timeoutNanos = mConnection.getDefaultInvocationTimeout(TimeUnit.NANOSECONDS);
+        }
+
+        if (timeoutNanos > 0) {
+            final long timeoutMilliseconds = TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+            HashedWheelTimer.Timeout timeout = mConnection.getInvocationTimer().newTimeout(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!mConnection.removeCallback(callbackId)) {
+                        return;
+                    }
+
+                    log("Invocation of " + method + " timed out", LogLevel.Information);
+                    mConnection.getDispatcher().dispatch(mDispatchKey, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            resultFuture.triggerError(new InvocationTimeoutException(method, timeoutMilliseconds));
+                        }
+                    });
+                }
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+
+            timeoutReference.set(timeout);
+            if (completed.get()) {
+                cancelTimeout(timeout);
+            }
+        }
+
         final SignalRFuture<Void> sendFuture = mConnection.send(hubData);
 
+        // a send that fails, or that the outbound buffer drops, never gets a
+        // result, so it fails the invocation. The callback is only removed
+        // once, which also stops the errors sent back by the invocation.
+        ErrorCallback sendErrorCallback = new ErrorCallback() {
+
+            @Override
+            public void onError(final Throwable error) {
+                if (!mConnection.removeCallback(callbackId)) {
+                    return;
+                }
+
+                cancelTimeout(timeoutReference.get());
+                mConnection.getDispatcher().dispatch(mDispatchKey, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        resultFuture.triggerError(error);
+                    }
+                });
+            }
+        };
+
+        sendFuture.onError(sendErrorCallback);
+
+        // the errors of a send that failed right away only went to the first
+        // handler
+        Throwable sendError = sendFuture.getLastError();
+        if (sendError != null) {
+            sendErrorCallback.onError(sendError);
+        }
+
         resultFuture.onCancelled(new Runnable() {
 
             @Override
             public void run() {
                 mConnection.removeCallback(callbackId);
+                cancelTimeout(timeoutReference.get());
             }
         });
 
@@ -290,6 +446,60 @@ public class HubProxy {
         return resultFuture;
     }
 
+    private static void cancelTimeout(HashedWheelTimer.Timeout timeout) {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Completes the future of an invocation with its result
+     *
+     * @param method       Method name
+     * @param resultClass  Class of the method result, or null
+     * @param resultFuture Future of the invocation
+     * @param result       Result of the invocation
+     */
+    private <E> void completeInvocation(String method, Class<E> resultClass, SignalRFuture<E> resultFuture, HubResult result) {
+        log("Executing invocation callback for: " + method, LogLevel.Information);
+        if (result != null) {
+            if (result.getError() != null) {
+                if (result.isHubException()) {
+                    resultFuture.triggerError(new HubException(result.getError(), result.getErrorData()));
+                } else {
+                    resultFuture.triggerError(new Exception(result.getError()));
+                }
+            } else {
+                boolean errorHappened = false;
+                E resultObject = null;
+                try {
+                    if (result.getState() != null) {
+                        for (String key : result.getState().keySet()) {
+                            setState(key, result.getState().get(key));
+                        }
+                    }
+
+                    if (result.getResult() != null && resultClass != null) {
+                        final String jsonResult = new JSONObject(result.getResult()).toString();
+                        log("Found result invoking method on hub: " + result.getResult(), LogLevel.Information);
+                        resultObject = parse(jsonResult, resultClass);
+                    }
+                } catch (Exception e) {
+                    errorHappened = true;
+                    resultFuture.triggerError(e);
+                }
+
+                if (!errorHappened) {
+                    try {
+                        resultFuture.setResult(resultObject);
+                    } catch (Exception e) {
+                        resultFuture.triggerError(e);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Invokes a hub event with argument
      *
@@ -298,25 +508,85 @@ public class HubProxy {
      * @throws Exception
      */
     void invokeEvent(String eventName, Object[] args) throws Exception {
+        invokeEvent(eventName, args, null);
+    }
+
+    /**
+     * Invokes a hub event with argument. If the event is part of a batch,
+     * the arguments are also added to the batch of the subscription.
+     *
+     * @param eventName The name of the event
+     * @param args      The event args
+     * @param batches   The pending batches of the payload, or null if the event
+     *                  was not received in a batch
+     * @throws Exception
+     */
+    void invokeEvent(String eventName, Object[] args, Map<Subscription, List<Object[]>> batches) throws Exception {
         if (eventName == null) {
             throw new IllegalArgumentException("eventName cannot be null");
         }
 
-        eventName = eventName.toLowerCase(Locale.getDefault());
+        Subscription subscription = mSubscriptions.get(eventName);
+        if (subscription != null) {
+            subscription.dispatch(args, batches == null);
 
-        if (mSubscriptions.containsKey(eventName)) {
-            Subscription subscription = mSubscriptions.get(eventName);
-            subscription.onReceived(args);
+            if (batches != null && subscription.hasBatchHandlers()) {
+                List<Object[]> batch = batches.get(subscription);
+                if (batch == null) {
+                    batch = new ArrayList<Object[]>();
+                    batches.put(subscription, batch);
+                }
+                batch.add(args);
+            }
         }
     }
 
-    private <E1, E2, E3, E4, E5> void on(String eventName, final SubscriptionHandler5<E1, E2, E3, E4, E5> handler, final Class<?>... parameterTypes) {
+    /**
+     * Handles an event with one parameter in batches. The handler gets the
+     * parameters of all the events received in one transport payload at once.
+     *
+     * @param eventName  The name of the event
+     * @param handler    The handler for the batches
+     * @param parameter1 Class used to deserialize the event parameter
+     */
+    public <E1> SubscriptionHandle onBatch(String eventName, final SubscriptionHandler1<List<E1>> handler, final Class<E1> parameter1) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler cannot be null");
+        }
+
+        Subscription subscription = subscribe(eventName);
+        return subscription.addBatchReceivedHandler(new Action<List<Object[]>>() {
+
+            @Override
+            public void run(List<Object[]> batch) throws Exception {
+                List<E1> parameters = new ArrayList<E1>(batch.size());
+                for (Object[] eventParameters : batch) {
+                    if (eventParameters.length != 1) {
+                        throw new RuntimeException("The handler has 1 parameter, but there are " + eventParameters.length + " values.");
+                    }
+
+                    final Object eventParameter = eventParameters[0];
+                    if (eventParameter instanceof HashMap) {
+                        parameters.add(LoganSquare.parse(new JSONObject((HashMap) eventParameter).toString(), parameter1));
+                    } else if (eventParameter instanceof String) {
+                        parameters.add(LoganSquare.parse(new JSONObject((String) eventParameter).toString(), parameter1));
+                    } else {
+                        parameters.add(null);
+                    }
+                }
+
+                handler.run(parameters);
+            }
+        });
+    }
+
+    private <E1, E2, E3, E4, E5> SubscriptionHandle on(String eventName, final SubscriptionHandler5<E1, E2, E3, E4, E5> handler, final Class<?>... parameterTypes) {
         if (handler == null) {
             throw new IllegalArgumentException("handler cannot be null");
         }
 
         Subscription subscription = subscribe(eventName);
-        subscription.addReceivedHandler(new Action<Object[]>() {
+        return subscription.addReceivedHandler(new Action<Object[]>() {
 
             @Override
             public void run(Object[] eventParameters) throws Exception {
@@ -352,9 +622,9 @@ public class HubProxy {
         });
     }
 
-    public <E1, E2, E3, E4, E5> void on(String eventName, final SubscriptionHandler5<E1, E2, E3, E4, E5> handler, Class<E1> parameter1, Class<E2> parameter2,
-                                        Class<E3> parameter3, Class<E4> parameter4, Class<E5> parameter5) {
-        on(eventName, new SubscriptionHandler5<E1, E2, E3, E4, E5>() {
+    public <E1, E2, E3, E4, E5> SubscriptionHandle on(String eventName, final SubscriptionHandler5<E1, E2, E3, E4, E5> handler, Class<E1> parameter1, Class<E2> parameter2,
+                                                      Class<E3> parameter3, Class<E4> parameter4, Class<E5> parameter5) {
+        return on(eventName, new SubscriptionHandler5<E1, E2, E3, E4, E5>() {
 
             @Override
             public void run(E1 p1, E2 p2, E3 p3, E4 p4, E5 p5) {
@@ -363,9 +633,9 @@ public class HubProxy {
         }, parameter1, parameter2, parameter3, parameter4, parameter5);
     }
 
-    public <E1, E2, E3, E4> void on(String eventName, final SubscriptionHandler4<E1, E2, E3, E4> handler, Class<E1> parameter1, Class<E2> parameter2,
-                                    Class<E3> parameter3, Class<E4> parameter4) {
-        on(eventName, new SubscriptionHandler5<E1, E2, E3, E4, Void>() {
+    public <E1, E2, E3, E4> SubscriptionHandle on(String eventName, final SubscriptionHandler4<E1, E2, E3, E4> handler, Class<E1> parameter1, Class<E2> parameter2,
+                                                  Class<E3> parameter3, Class<E4> parameter4) {
+        return on(eventName, new SubscriptionHandler5<E1, E2, E3, E4, Void>() {
 
             @Override
             public void run(E1 p1, E2 p2, E3 p3, E4 p4, Void p5) {
@@ -374,9 +644,9 @@ public class HubProxy {
         }, parameter1, parameter2, parameter3, parameter4);
     }
 
-    public <E1, E2, E3> void on(String eventName, final SubscriptionHandler3<E1, E2, E3> handler, Class<E1> parameter1, Class<E2> parameter2,
-                                Class<E3> parameter3) {
-        on(eventName, new SubscriptionHandler5<E1, E2, E3, Void, Void>() {
+    public <E1, E2, E3> SubscriptionHandle on(String eventName, final SubscriptionHandler3<E1, E2, E3> handler, Class<E1> parameter1, Class<E2> parameter2,
+                                              Class<E3> parameter3) {
+        return on(eventName, new SubscriptionHandler5<E1, E2, E3, Void, Void>() {
 
             @Override
             public void run(E1 p1, E2 p2, E3 p3, Void p4, Void p5) {
@@ -385,8 +655,8 @@ public class HubProxy {
         }, parameter1, parameter2, parameter3);
     }
 
-    public <E1, E2> void on(String eventName, final SubscriptionHandler2<E1, E2> handler, Class<E1> parameter1, Class<E2> parameter2) {
-        on(eventName, new SubscriptionHandler5<E1, E2, Void, Void, Void>() {
+    public <E1, E2> SubscriptionHandle on(String eventName, final SubscriptionHandler2<E1, E2> handler, Class<E1> parameter1, Class<E2> parameter2) {
+        return on(eventName, new SubscriptionHandler5<E1, E2, Void, Void, Void>() {
 
             @Override
             public void run(E1 p1, E2 p2, Void p3, Void p4, Void p5) {
@@ -395,8 +665,8 @@ public class HubProxy {
         }, parameter1, parameter2);
     }
 
-    public <E1> void on(String eventName, final SubscriptionHandler1<E1> handler, Class<E1> parameter1) {
-        on(eventName, new SubscriptionHandler5<E1, Void, Void, Void, Void>() {
+    public <E1> SubscriptionHandle on(String eventName, final SubscriptionHandler1<E1> handler, Class<E1> parameter1) {
+        return on(eventName, new SubscriptionHandler5<E1, Void, Void, Void, Void>() {
 
             @Override
             public void run(E1 p1, Void p2, Void p3, Void p4, Void p5) {
@@ -405,8 +675,8 @@ public class HubProxy {
         }, parameter1);
     }
 
-    public <E1> void on(String eventName, final SubscriptionHandler handler) {
-        on(eventName, new SubscriptionHandler5<Void, Void, Void, Void, Void>() {
+    public <E1> SubscriptionHandle on(String eventName, final SubscriptionHandler handler) {
+        return on(eventName, new SubscriptionHandler5<Void, Void, Void, Void, Void>() {
 
             @Override
             public void run(Void p1, Void p2, Void p3, Void p4, Void p5) {
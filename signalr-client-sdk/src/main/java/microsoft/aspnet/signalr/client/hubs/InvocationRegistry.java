@@ -0,0 +1,161 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import microsoft.aspnet.signalr.client.Action;
+
+/**
+ * Lock-free registry of pending invocation callbacks keyed by a long id. Ids
+ * are handed out in sequence, so each id is stored in the slot of a ring
+ * indexed by its low bits. An id is only boxed into the overflow map when its
+ * slot is still taken by an invocation that has not completed.
+ */
+class InvocationRegistry {
+
+    private static final int RING_SIZE = 1024;
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    private final AtomicLong mNextId = new AtomicLong();
+
+    private final AtomicReferenceArray<Entry> mRing = new AtomicReferenceArray<Entry>(RING_SIZE);
+
+    private final ConcurrentMap<Long, Entry> mOverflow = new ConcurrentHashMap<Long, Entry>();
+
+    private final AtomicLong mSize = new AtomicLong();
+
+    /**
+     * Registers a callback
+     *
+     * @param callback The callback to register
+     * @return The id for the callback
+     */
+    long register(Action<HubResult> callback) {
+        long id = mNextId.getAndIncrement();
+        Entry entry = new Entry(id, callback);
+
+        mSize.incrementAndGet();
+        if (!mRing.compareAndSet(slot(id), null, entry)) {
+            mOverflow.put(id, entry);
+        }
+
+        return id;
+    }
+
+    /**
+     * Removes a callback
+     *
+     * @param id Id of the callback
+     * @return The callback, or null if there is no callback for the id
+     */
+    Action<HubResult> remove(long id) {
+        int slot = slot(id);
+        Entry entry = mRing.get(slot);
+        if (entry != null && entry.mId == id && mRing.compareAndSet(slot, entry, null)) {
+            mSize.decrementAndGet();
+            return entry.mCallback;
+        }
+
+        if (!mOverflow.isEmpty()) {
+            entry = mOverflow.remove(id);
+            if (entry != null) {
+                mSize.decrementAndGet();
+                return entry.mCallback;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes all the callbacks
+     *
+     * @return The removed callbacks
+     */
+    List<Action<HubResult>> removeAll() {
+        List<Action<HubResult>> callbacks = new ArrayList<Action<HubResult>>();
+
+        for (int i = 0; i < RING_SIZE; i++) {
+            Entry entry = mRing.getAndSet(i, null);
+            if (entry != null) {
+                mSize.decrementAndGet();
+                callbacks.add(entry.mCallback);
+            }
+        }
+
+        for (Long id : mOverflow.keySet()) {
+            Entry entry = mOverflow.remove(id);
+            if (entry != null) {
+                mSize.decrementAndGet();
+                callbacks.add(entry.mCallback);
+            }
+        }
+
+        return callbacks;
+    }
+
+    /**
+     * Returns the number of pending callbacks
+     */
+    int size() {
+        return (int) mSize.get();
+    }
+
+    /**
+     * Parses a callback id sent by the server without allocating. The id is
+     * either a Json number or a string holding the decimal value.
+     *
+     * @param value The "I" value of the message
+     * @return The id, or -1 if the value is not a valid id
+     */
+    static long parseId(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+
+        if (!(value instanceof String)) {
+            return -1;
+        }
+
+        String text = (String) value;
+        int length = text.length();
+        if (length == 0 || length > 18) {
+            return -1;
+        }
+
+        long id = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            id = id * 10 + (c - '0');
+        }
+
+        return id;
+    }
+
+    private static int slot(long id) {
+        return (int) (id & RING_MASK);
+    }
+
+    private static class Entry {
+        final long mId;
+        final Action<HubResult> mCallback;
+
+        Entry(long id, Action<HubResult> callback) {
+            mId = id;
+            mCallback = callback;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Exception to indicate that the server did not answer a hub invocation in
+ * time
+ */
+public class InvocationTimeoutException extends TimeoutException {
+
+    private static final long serialVersionUID = -3184521260473960531L;
+
+    private String mMethod;
+
+    /**
+     * Creates a new invocation timeout exception
+     * 
+     * @param method
+     *            The invoked method
+     * @param timeoutMilliseconds
+     *            The timeout that elapsed
+     */
+    public InvocationTimeoutException(String method, long timeoutMilliseconds) {
+        super("The invocation of '" + method + "' timed out after " + timeoutMilliseconds + " ms");
+
+        mMethod = method;
+    }
+
+    /**
+     * Returns the invoked method
+     */
+    public String getMethod() {
+        return mMethod;
+    }
+}
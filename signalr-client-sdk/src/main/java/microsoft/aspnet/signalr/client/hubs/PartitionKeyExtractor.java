@@ -0,0 +1,23 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+/**
+ * Extracts the partition key of an event received by a HubConnectionPool
+ */
+public interface PartitionKeyExtractor {
+    /**
+     * Returns the partition key of an event. The handlers of events with
+     * equal keys run one at a time, in the order the events were received.
+     * 
+     * @param args
+     *            The event arguments
+     * @return The partition key
+     * @throws Exception
+     */
+    public Object getKey(Object[] args) throws Exception;
+}
@@ -6,17 +6,136 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.hubs;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import microsoft.aspnet.signalr.client.Action;
 
 /**
- * Represents a subscription to a message
+ * Represents a subscription to a message. Handlers are kept in copy-on-write
+ * lists, so they can be added and removed from any thread while events are
+ * dispatched without locking.
  */
 public class Subscription {
 
-    private List<Action<Object[]>> mReceived = new ArrayList<Action<Object[]>>();
+    private List<Action<Object[]>> mReceived = new CopyOnWriteArrayList<Action<Object[]>>();
+
+    private List<Action<List<Object[]>>> mReceivedBatch = new CopyOnWriteArrayList<Action<List<Object[]>>>();
+
+    private HubConnection mConnection;
+
+    private String mHubDispatchKey;
+
+    private String mEventDispatchKey;
+
+    public Subscription() {
+    }
+
+    /**
+     * Initializes a subscription owned by a connection
+     * 
+     * @param connection
+     *            The connection that delivers the events
+     * @param hubDispatchKey
+     *            Dispatch key of the hub
+     * @param eventDispatchKey
+     *            Dispatch key of the event
+     */
+    Subscription(HubConnection connection, String hubDispatchKey, String eventDispatchKey) {
+        mConnection = connection;
+        mHubDispatchKey = hubDispatchKey;
+        mEventDispatchKey = eventDispatchKey;
+    }
+
+    /**
+     * Runs the handlers for an event through the connection dispatcher
+     * 
+     * @param data
+     *            Event data
+     * @param includeBatchHandlers
+     *            True if the batch handlers must get the event as a batch of
+     *            one
+     * @throws Exception
+     */
+    void dispatch(final Object[] data, final boolean includeBatchHandlers) throws Exception {
+        if (mConnection == null) {
+            deliver(data, includeBatchHandlers);
+            return;
+        }
+
+        dispatchTask(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    deliver(data, includeBatchHandlers);
+                } catch (Exception e) {
+                    onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the batch handlers through the connection dispatcher
+     * 
+     * @param data
+     *            Data of every event in the batch
+     * @throws Exception
+     */
+    void dispatchBatch(final List<Object[]> data) throws Exception {
+        if (mConnection == null) {
+            onReceivedBatch(data);
+            return;
+        }
+
+        dispatchTask(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    onReceivedBatch(data);
+                } catch (Exception e) {
+                    onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the handlers for an event on the current thread
+     */
+    void deliver(Object[] data, boolean includeBatchHandlers) throws Exception {
+        onReceived(data);
+        if (includeBatchHandlers && hasBatchHandlers()) {
+            onReceivedBatch(Collections.singletonList(data));
+        }
+    }
+
+    /**
+     * Runs a task with the dispatch key of the subscription, or right away if
+     * the subscription is not owned by a connection
+     */
+    void dispatchTask(Runnable task) {
+        if (mConnection == null) {
+            task.run();
+            return;
+        }
+
+        String key = mConnection.getDispatchOrdering() == HubDispatchOrdering.PerEvent ? mEventDispatchKey : mHubDispatchKey;
+        mConnection.getDispatcher().dispatch(key, task);
+    }
+
+    /**
+     * Reports an error thrown by a handler
+     */
+    void onError(Exception error) {
+        if (mConnection != null) {
+            mConnection.onError(error, false);
+        }
+    }
 
     /**
      * Triggers the "Received" event
@@ -31,13 +150,74 @@ public class Subscription {
         }
     }
 
+    /**
+     * Triggers the "Received" event on the batch handlers
+     * 
+     * @param data
+     *            Data of every event in the batch
+     * @throws Exception
+     */
+    void onReceivedBatch(List<Object[]> data) throws Exception {
+        for (Action<List<Object[]>> handler : mReceivedBatch) {
+            handler.run(data);
+        }
+    }
+
+    /**
+     * Indicates if the subscription has batch handlers
+     */
+    boolean hasBatchHandlers() {
+        return !mReceivedBatch.isEmpty();
+    }
+
     /**
      * Add a handler to the "Received" event
      * 
      * @param received
      *            Event handler
+     * @return A handle that removes the handler
      */
-    public void addReceivedHandler(Action<Object[]> received) {
+    public SubscriptionHandle addReceivedHandler(Action<Object[]> received) {
+        if (received == null) {
+            throw new IllegalArgumentException("received cannot be null");
+        }
+
         mReceived.add(received);
+        return createHandle(mReceived, received);
+    }
+
+    /**
+     * Add a handler that gets all the events received in one transport
+     * payload at once. Events delivered on their own are passed as a batch of
+     * one.
+     * 
+     * @param received
+     *            Event handler
+     * @return A handle that removes the handler
+     */
+    public SubscriptionHandle addBatchReceivedHandler(Action<List<Object[]>> received) {
+        if (received == null) {
+            throw new IllegalArgumentException("received cannot be null");
+        }
+
+        mReceivedBatch.add(received);
+
+        if (mConnection != null) {
+            mConnection.enableBatchReceive();
+        }
+
+        return createHandle(mReceivedBatch, received);
+    }
+
+    private static <T> SubscriptionHandle createHandle(final List<T> handlers, final T handler) {
+        return new SubscriptionHandle() {
+
+            private final AtomicBoolean mRemoved = new AtomicBoolean(false);
+
+            @Override
+            public boolean remove() {
+                return mRemoved.compareAndSet(false, true) && handlers.remove(handler);
+            }
+        };
     }
 }
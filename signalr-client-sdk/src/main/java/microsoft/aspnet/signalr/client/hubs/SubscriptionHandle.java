@@ -0,0 +1,21 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+/**
+ * Handle to a single handler added to a subscription
+ */
+public interface SubscriptionHandle {
+    /**
+     * Removes the handler from the subscription. Events that are already
+     * being dispatched may still reach it.
+     * 
+     * @return True if the handler was removed, false if it was already
+     *         removed
+     */
+    public boolean remove();
+}
@@ -6,6 +6,8 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.transport;
 
+import java.io.InputStream;
+
 /**
  * Callback for data result operations
  */
@@ -18,4 +20,27 @@ public interface DataResultCallback {
      *            data
      */
     public void onData(String data);
+
+    /**
+     * Callback invoked when there is new data from the server, held in a
+     * buffer that may be reused once the method returns
+     * 
+     * @param data
+     *            Buffer holding the UTF-8 data
+     * @param offset
+     *            Offset of the data in the buffer
+     * @param length
+     *            Length of the data
+     */
+    public void onData(byte[] data, int offset, int length);
+
+    /**
+     * Callback invoked when there is new data from the server that is still
+     * arriving. The stream is parsed as it is read, so the messages can be
+     * processed before the whole response is received.
+     * 
+     * @param stream
+     *            Stream with the UTF-8 data
+     */
+    public void onData(InputStream stream);
 }
@@ -97,14 +97,8 @@ public class LongPollingTransport extends HttpClientTransport {
                             }
                             log("Response received", LogLevel.Verbose);
 
-                            log("Read response to the end", LogLevel.Verbose);
-                            String responseData = response.readToEnd();
-                            if (responseData != null) {
-                                responseData = responseData.trim();
-                            }
-
-                            log("Trigger onData with data: " + responseData, LogLevel.Verbose);
-                            callback.onData(responseData);
+                            log("Trigger onData with the response stream", LogLevel.Verbose);
+                            callback.onData(response.getInputStream());
 
                             if (!mConnectionFuture.isCancelled() && connection.getState() == ConnectionState.Connected) {
                                 log("Continue polling", LogLevel.Verbose);
@@ -0,0 +1,286 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import java.io.InputStream;
+
+import microsoft.aspnet.signalr.client.Constants;
+
+/**
+ * Incremental parser for a text/event-stream. It works on the raw bytes of the
+ * stream and reuses its buffers between events.
+ */
+public class ServerSentEventsParser {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    private static final byte COLON = ':';
+    private static final byte SPACE = ' ';
+
+    private static final byte[] FIELD_DATA = { 'd', 'a', 't', 'a' };
+    private static final byte[] FIELD_ID = { 'i', 'd' };
+    private static final byte[] FIELD_RETRY = { 'r', 'e', 't', 'r', 'y' };
+
+    private static final byte[] BYTE_ORDER_MARK = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    /**
+     * Handler invoked for every complete event
+     */
+    public interface EventHandler {
+        /**
+         * Invoked when an event with data is dispatched. The buffer is reused
+         * once the method returns.
+         *
+         * @param data   Buffer holding the event data
+         * @param offset Offset of the data in the buffer
+         * @param length Length of the data
+         */
+        public void onEvent(byte[] data, int offset, int length) throws Exception;
+    }
+
+    private final EventHandler mHandler;
+
+    private byte[] mLine = new byte[INITIAL_BUFFER_SIZE];
+    private int mLineLength = 0;
+
+    private byte[] mData = new byte[INITIAL_BUFFER_SIZE];
+    private int mDataLength = 0;
+
+    private byte[] mReadBuffer;
+
+    private boolean mLastWasCR = false;
+    private int mBomBytesChecked = 0;
+
+    private String mLastEventId = null;
+    private volatile long mRetry = -1;
+
+    /**
+     * Initializes the parser
+     *
+     * @param handler Handler to invoke for every event
+     */
+    public ServerSentEventsParser(EventHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler cannot be null");
+        }
+
+        mHandler = handler;
+    }
+
+    /**
+     * Reads the stream until it ends, dispatching the events as they are
+     * completed
+     *
+     * @param stream The event stream
+     */
+    public void parse(InputStream stream) throws Exception {
+        if (mReadBuffer == null) {
+            mReadBuffer = new byte[HttpClientTransport.BUFFER_SIZE];
+        }
+
+        int read;
+        while ((read = stream.read(mReadBuffer, 0, mReadBuffer.length)) != -1) {
+            feed(mReadBuffer, 0, read);
+        }
+    }
+
+    /**
+     * Feeds a chunk of the stream to the parser
+     *
+     * @param buffer The buffer holding the chunk
+     * @param offset Offset of the chunk in the buffer
+     * @param length Length of the chunk
+     */
+    public void feed(byte[] buffer, int offset, int length) throws Exception {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = buffer[i];
+
+            if (mBomBytesChecked < BYTE_ORDER_MARK.length) {
+                if (b == BYTE_ORDER_MARK[mBomBytesChecked]) {
+                    mBomBytesChecked++;
+                    if (mBomBytesChecked == BYTE_ORDER_MARK.length) {
+                        mLineLength = 0;
+                        continue;
+                    }
+                } else {
+                    mBomBytesChecked = BYTE_ORDER_MARK.length;
+                }
+            }
+
+            if (b == LF) {
+                if (mLastWasCR) {
+                    // second half of a CRLF line ending
+                    mLastWasCR = false;
+                    continue;
+                }
+
+                processLine();
+            } else if (b == CR) {
+                mLastWasCR = true;
+                processLine();
+            } else {
+                mLastWasCR = false;
+                appendToLine(b);
+            }
+        }
+    }
+
+    /**
+     * Returns the last event id sent by the server, or null
+     */
+    public String getLastEventId() {
+        return mLastEventId;
+    }
+
+    /**
+     * Returns the reconnection time sent by the server in milliseconds, or -1
+     * if the server did not send one
+     */
+    public long getRetry() {
+        return mRetry;
+    }
+
+    private void appendToLine(byte b) {
+        if (mLineLength == mLine.length) {
+            mLine = grow(mLine, mLineLength + 1);
+        }
+
+        mLine[mLineLength++] = b;
+    }
+
+    private void processLine() throws Exception {
+        int length = mLineLength;
+        mLineLength = 0;
+        mBomBytesChecked = BYTE_ORDER_MARK.length;
+
+        if (length == 0) {
+            dispatchEvent();
+            return;
+        }
+
+        if (mLine[0] == COLON) {
+            // comment
+            return;
+        }
+
+        int fieldLength = length;
+        int valueStart = length;
+        for (int i = 0; i < length; i++) {
+            if (mLine[i] == COLON) {
+                fieldLength = i;
+                valueStart = i + 1;
+                if (valueStart < length && mLine[valueStart] == SPACE) {
+                    valueStart++;
+                }
+                break;
+            }
+        }
+
+        int valueLength = length - valueStart;
+
+        if (fieldEquals(FIELD_DATA, fieldLength)) {
+            appendToData(mLine, valueStart, valueLength);
+            appendToData(LF);
+        } else if (fieldEquals(FIELD_ID, fieldLength)) {
+            for (int i = valueStart; i < length; i++) {
+                if (mLine[i] == 0) {
+                    return;
+                }
+            }
+            mLastEventId = new String(mLine, valueStart, valueLength, Constants.UTF8);
+        } else if (fieldEquals(FIELD_RETRY, fieldLength)) {
+            if (valueLength == 0) {
+                return;
+            }
+
+            long retry = 0;
+            for (int i = valueStart; i < length; i++) {
+                byte b = mLine[i];
+                if (b < '0' || b > '9') {
+                    return;
+                }
+                retry = retry * 10 + (b - '0');
+            }
+            mRetry = retry;
+        }
+        // "event" and unknown fields are ignored
+    }
+
+    private void dispatchEvent() throws Exception {
+        if (mDataLength == 0) {
+            return;
+        }
+
+        // the last line feed is not part of the data
+        int length = mDataLength - 1;
+        mDataLength = 0;
+
+        mHandler.onEvent(mData, 0, length);
+    }
+
+    private boolean fieldEquals(byte[] field, int fieldLength) {
+        if (field.length != fieldLength) {
+            return false;
+        }
+
+        for (int i = 0; i < fieldLength; i++) {
+            if (mLine[i] != field[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void appendToData(byte[] buffer, int offset, int length) {
+        if (mDataLength + length > mData.length) {
+            mData = grow(mData, mDataLength + length);
+        }
+
+        System.arraycopy(buffer, offset, mData, mDataLength, length);
+        mDataLength += length;
+    }
+
+    private void appendToData(byte b) {
+        if (mDataLength == mData.length) {
+            mData = grow(mData, mDataLength + 1);
+        }
+
+        mData[mDataLength++] = b;
+    }
+
+    private static byte[] grow(byte[] buffer, int minLength) {
+        int newLength = buffer.length * 2;
+        if (newLength < minLength) {
+            newLength = minLength;
+        }
+
+        byte[] newBuffer = new byte[newLength];
+        System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+        return newBuffer;
+    }
+
+    /**
+     * Indicates if the given range holds exactly the given ASCII text
+     */
+    static boolean contentEquals(byte[] data, int offset, int length, String text) {
+        if (length != text.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (data[offset + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -6,12 +6,20 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.transport;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import microsoft.aspnet.signalr.client.SignalRFuture;
 import microsoft.aspnet.signalr.client.ConnectionBase;
 import microsoft.aspnet.signalr.client.Constants;
+import microsoft.aspnet.signalr.client.ErrorCallback;
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.UpdateableCancellableFuture;
 import microsoft.aspnet.signalr.client.http.HttpConnection;
+import microsoft.aspnet.signalr.client.http.HttpConnectionFuture;
 import microsoft.aspnet.signalr.client.http.HttpConnectionFuture.ResponseCallback;
 import microsoft.aspnet.signalr.client.http.Request;
 import microsoft.aspnet.signalr.client.http.Response;
@@ -21,11 +29,16 @@ import microsoft.aspnet.signalr.client.http.Response;
  */
 public class ServerSentEventsTransport extends HttpClientTransport {
 
-    private static final int SSE_DATA_PREFIX_LENGTH = 6;
-    private static final String DATA_INITIALIZED = "data: initialized";
-    private static final String END_OF_SSE_MESSAGE = "\n\n";
+    private static final String DATA_INITIALIZED = "initialized";
+    private static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    private static ScheduledExecutorService sReconnectScheduler;
+
+    private UpdateableCancellableFuture<Void> mConnectionFuture;
+
+    private volatile long mReconnectDelay = -1;
 
-    private SignalRFuture<Void> mConnectionFuture;
+    private volatile String mLastEventId;
 
     /**
      * Initializes the transport with a logger
@@ -59,22 +72,57 @@ public class ServerSentEventsTransport extends HttpClientTransport {
         return true;
     }
 
+    /**
+     * Returns the reconnection delay requested by the server with the "retry"
+     * field, in milliseconds, or -1 if the server did not request one
+     */
+    public long getReconnectDelay() {
+        return mReconnectDelay;
+    }
+
     @Override
-    public SignalRFuture<Void> start(ConnectionBase connection, ConnectionType connectionType, final DataResultCallback callback) {
+    public SignalRFuture<Void> start(final ConnectionBase connection, ConnectionType connectionType, final DataResultCallback callback) {
         log("Start the communication with the server", LogLevel.Information);
         String url = connection.getUrl() + (connectionType == ConnectionType.InitialConnection ? "connect" : "reconnect")
                 + TransportHelper.getReceiveQueryString(this, connection);
 
-        Request get = new Request(Constants.HTTP_GET);
+        final Request get = new Request(Constants.HTTP_GET);
 
         get.setUrl(url);
         get.setHeaders(connection.getHeaders());
         get.addHeader("Accept", "text/event-stream");
 
+        if (connectionType == ConnectionType.Reconnection && mLastEventId != null) {
+            get.addHeader(LAST_EVENT_ID_HEADER, mLastEventId);
+        }
+
         connection.prepareRequest(get);
 
+        mConnectionFuture = new UpdateableCancellableFuture<Void>(null);
+        final UpdateableCancellableFuture<Void> connectionFuture = mConnectionFuture;
+
+        long delay = mReconnectDelay;
+        if (connectionType == ConnectionType.Reconnection && delay > 0) {
+            log("Delaying the reconnection " + delay + "ms as requested by the server", LogLevel.Verbose);
+            getReconnectScheduler().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!connectionFuture.isCancelled()) {
+                        execute(get, connectionFuture, callback);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } else {
+            execute(get, connectionFuture, callback);
+        }
+
+        return connectionFuture;
+    }
+
+    private void execute(Request get, final UpdateableCancellableFuture<Void> connectionFuture, final DataResultCallback callback) {
         log("Execute the request", LogLevel.Verbose);
-        mConnectionFuture = mHttpConnection.execute(get, new ResponseCallback() {
+        HttpConnectionFuture requestFuture = mHttpConnection.execute(get, new ResponseCallback() {
 
             @Override
             public void onResponse(Response response) {
@@ -82,41 +130,67 @@ public class ServerSentEventsTransport extends HttpClientTransport {
                     log("Response received", LogLevel.Verbose);
                     throwOnInvalidStatusCode(response);
 
-                    mConnectionFuture.setResult(null);
+                    connectionFuture.setResult(null);
 
-                    StringBuilder buffer = new StringBuilder();
-                    String line = null;
+                    final ServerSentEventsParser parser = new ServerSentEventsParser(new ServerSentEventsParser.EventHandler() {
 
-                    log("Read the response content by line", LogLevel.Verbose);
-                    while ((line = response.readLine()) != null) {
-                        buffer.append(line);
-                        buffer.append("\n");
-                        String currentData = buffer.toString();
-                        if (currentData.endsWith(END_OF_SSE_MESSAGE)) {
-                            currentData = currentData.trim();
-                            log("Found new data: " + currentData, LogLevel.Verbose);
-                            if (currentData.equals(DATA_INITIALIZED)) {
+                        @Override
+                        public void onEvent(byte[] data, int offset, int length) {
+                            if (ServerSentEventsParser.contentEquals(data, offset, length, DATA_INITIALIZED)) {
                                 log("Initialization message found", LogLevel.Verbose);
                             } else {
-                                String content = currentData.substring(SSE_DATA_PREFIX_LENGTH).trim();
-
-                                log("Trigger onData: " + content, LogLevel.Verbose);
-                                callback.onData(content);
+                                log("Trigger onData", LogLevel.Verbose);
+                                callback.onData(data, offset, length);
                             }
+                        }
+                    });
+
+                    log("Read the response content", LogLevel.Verbose);
+                    try {
+                        parser.parse(response.getInputStream());
+                    } finally {
+                        if (parser.getRetry() >= 0) {
+                            mReconnectDelay = parser.getRetry();
+                        }
 
-                            buffer = new StringBuilder();
+                        if (parser.getLastEventId() != null) {
+                            mLastEventId = parser.getLastEventId();
                         }
                     }
 
                     // if the request finishes, it means the connection was finalized
                 } catch (Throwable e) {
-                    if (!mConnectionFuture.isCancelled()) {
-                        mConnectionFuture.triggerError(e);
+                    if (!connectionFuture.isCancelled()) {
+                        connectionFuture.triggerError(e);
                     }
                 }
             }
         });
 
-        return mConnectionFuture;
+        requestFuture.onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                connectionFuture.triggerError(error);
+            }
+        });
+
+        connectionFuture.setFuture(requestFuture);
+    }
+
+    private static synchronized ScheduledExecutorService getReconnectScheduler() {
+        if (sReconnectScheduler == null) {
+            sReconnectScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SignalR-SSE-Reconnect");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sReconnectScheduler;
     }
 }
@@ -6,12 +6,22 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.transport;
 
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
 
 import microsoft.aspnet.signalr.client.Connection;
 import microsoft.aspnet.signalr.client.ConnectionBase;
@@ -22,45 +32,149 @@ import microsoft.aspnet.signalr.client.MessageResult;
 
 public class TransportHelper {
 
+    /**
+     * Parses a received payload and dispatches its messages
+     *
+     * @param data       The received payload
+     * @param connection The connection receiving the payload
+     * @return The result of processing the payload
+     */
     public static MessageResult processReceivedData(String data, ConnectionBase connection) {
-        Logger logger = connection.getLogger();
-        MessageResult result = new MessageResult();
-
         if (data == null) {
-            return result;
+            return new MessageResult();
         }
 
-        data = data.trim();
-
-        if ("".equals(data) || "{}".equals(data)) {
-            return result;
+        JsonParser parser;
+        try {
+            parser = LoganSquare.JSON_FACTORY.createParser(data);
+        } catch (IOException e) {
+            connection.onError(e, false);
+            return new MessageResult();
         }
 
-        JSONObject json;
+        return processReceivedData(parser, connection);
+    }
 
+    /**
+     * Parses a received payload held in a byte buffer and dispatches its
+     * messages, without creating an intermediate String
+     *
+     * @param data       Buffer holding the UTF-8 payload
+     * @param offset     Offset of the payload in the buffer
+     * @param length     Length of the payload
+     * @param connection The connection receiving the payload
+     * @return The result of processing the payload
+     */
+    public static MessageResult processReceivedData(byte[] data, int offset, int length, ConnectionBase connection) {
+        JsonParser parser;
         try {
-            json = new JSONObject(data);
-        } catch (Exception e) {
+            parser = LoganSquare.JSON_FACTORY.createParser(data, offset, length);
+        } catch (IOException e) {
             connection.onError(e, false);
-            return result;
+            return new MessageResult();
         }
 
-        if (json.names().length() == 0) {
-            return result;
+        return processReceivedData(parser, connection);
+    }
+
+    /**
+     * Parses a received payload while it is read from a stream, dispatching
+     * every message as soon as it is parsed. The message id only moves once
+     * all the messages were read, and a stream that fails before the end of
+     * the payload is reported as a transport failure.
+     *
+     * @param stream     Stream with the UTF-8 payload
+     * @param connection The connection receiving the payload
+     * @return The result of processing the payload
+     */
+    public static MessageResult processReceivedData(InputStream stream, ConnectionBase connection) {
+        JsonParser parser;
+        try {
+            parser = LoganSquare.JSON_FACTORY.createParser(stream);
+        } catch (IOException e) {
+            connection.onError(e, true);
+            return new MessageResult();
         }
 
+        return processReceivedData(parser, connection);
+    }
+
+    private static MessageResult processReceivedData(JsonParser parser, ConnectionBase connection) {
+        Logger logger = connection.getLogger();
+        MessageResult result = new MessageResult();
+
         try {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return result;
+            }
+
+            if (token != JsonToken.START_OBJECT) {
+                connection.onError(new JSONException("A JSONObject text must begin with '{'"), false);
+                return result;
+            }
+
+            JSONObject json = new JSONObject();
+            boolean disconnect = false;
+            boolean messageIdApplied = false;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+
+                // the server writes every other key before "M", so in that order the
+                // messages are dispatched while they are parsed. Otherwise they are
+                // kept until the whole payload is read.
+                if ("M".equals(name) && json.has("C") && !json.has("I") && !disconnect) {
+                    if (valueToken == JsonToken.START_ARRAY) {
+                        // when batching, the messages are delivered once the whole array is parsed
+                        List<JSONObject> batch = connection.isBatchReceiveEnabled() ? new ArrayList<JSONObject>() : null;
+
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            Object message = readValue(parser);
+                            if (!(message instanceof JSONObject)) {
+                                throw new JSONException("Message is not a JSONObject");
+                            }
+
+                            dispatchMessage((JSONObject) message, batch, connection);
+                        }
+
+                        dispatchBatch(batch, connection);
+                    } else if (valueToken == JsonToken.VALUE_STRING) {
+                        dispatchMessages(parser.getText(), connection);
+                    } else {
+                        parser.skipChildren();
+                    }
+
+                    // the message id moves past the messages only once they
+                    // were all read, so a payload cut in the middle is
+                    // received again
+                    applyMessageId(json, connection);
+                    messageIdApplied = true;
+                    continue;
+                }
+
+                Object value = readValue(parser);
+                json.put(name, value);
+
+                if ("D".equals(name) && isOne(value)) {
+                    disconnect = true;
+                }
+            }
+
+            if (json.length() == 0) {
+                return result;
+            }
+
             if (json.has("I")) {
-                logger.log("Invoking message received with: " + data, LogLevel.Verbose);
-                connection.onReceived(new JSONObject(data));
+                logger.log("Invoking message received with: " + json, LogLevel.Verbose);
+                connection.onReceived(json);
             } else {
                 // disconnected
-                if (json.has("D")) {
-                    if (json.getInt("D") == 1) {
-                        logger.log("Disconnect message received", LogLevel.Verbose);
-                        result.setDisconnect(true);
-                        return result;
-                    }
+                if (disconnect) {
+                    logger.log("Disconnect message received", LogLevel.Verbose);
+                    result.setDisconnect(true);
+                    return result;
                 }
 
                 // should reconnect
@@ -78,25 +192,11 @@ public class TransportHelper {
                 }
 
                 if (json.has("M")) {
-                    Object messages = json.get("M");
-                    Object messagesObject = new JSONTokener(messages.toString()).nextValue();
-                    if (messagesObject instanceof JSONArray) {
-                        if (json.has("C")) {
-                            String messageId = json.getString("C");
-                            logger.log("MessageId received: " + messageId, LogLevel.Verbose);
-                            connection.setMessageId(messageId);
-                        }
-
-                        JSONArray messagesArray = (JSONArray) messagesObject;
-                        int size = messagesArray.length();
-
-                        for (int i = 0; i < size; i++) {
-                            JSONObject message = messagesArray.getJSONObject(i);
-
-                            logger.log("Invoking OnReceived with: " + message.toString(), LogLevel.Verbose);
-                            connection.onReceived(message);
-                        }
+                    if (!messageIdApplied) {
+                        applyMessageId(json, connection);
                     }
+
+                    dispatchMessages(json.get("M"), connection);
                 }
 
                 if (json.has("S")) {
@@ -106,13 +206,122 @@ public class TransportHelper {
                     }
                 }
             }
+        } catch (JsonProcessingException ex) {
+            connection.onError(ex, false);
+        } catch (IOException ex) {
+            // the stream failed before the end of the payload
+            connection.onError(ex, true);
         } catch (Exception ex) {
             connection.onError(ex, false);
+        } finally {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                logger.log("Error closing the parser: " + e.toString(), LogLevel.Verbose);
+            }
         }
 
         return result;
     }
 
+    private static void applyMessageId(JSONObject json, ConnectionBase connection) throws JSONException {
+        if (json.has("C")) {
+            String messageId = json.getString("C");
+            connection.getLogger().log("MessageId received: " + messageId, LogLevel.Verbose);
+            connection.setMessageId(messageId);
+        }
+    }
+
+    /**
+     * Dispatches messages that were read as a whole, either as an array or as
+     * a string holding the array
+     */
+    private static void dispatchMessages(Object messages, ConnectionBase connection) throws JSONException {
+        if (messages instanceof String) {
+            messages = new JSONTokener((String) messages).nextValue();
+        }
+
+        if (!(messages instanceof JSONArray)) {
+            return;
+        }
+
+        JSONArray messagesArray = (JSONArray) messages;
+        int size = messagesArray.length();
+        List<JSONObject> batch = connection.isBatchReceiveEnabled() ? new ArrayList<JSONObject>(size) : null;
+
+        for (int i = 0; i < size; i++) {
+            dispatchMessage(messagesArray.getJSONObject(i), batch, connection);
+        }
+
+        dispatchBatch(batch, connection);
+    }
+
+    private static void dispatchMessage(JSONObject message, List<JSONObject> batch, ConnectionBase connection) {
+        if (batch != null) {
+            batch.add(message);
+        } else {
+            connection.getLogger().log("Invoking OnReceived with: " + message, LogLevel.Verbose);
+            connection.onReceived(message);
+        }
+    }
+
+    private static void dispatchBatch(List<JSONObject> batch, ConnectionBase connection) {
+        if (batch != null && batch.size() > 0) {
+            connection.getLogger().log("Invoking OnReceived with " + batch.size() + " messages", LogLevel.Verbose);
+            connection.onReceived(batch);
+        }
+    }
+
+    /**
+     * Reads the value at the current parser token into its org.json
+     * representation
+     */
+    private static Object readValue(JsonParser parser) throws IOException, JSONException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == null) {
+            throw new JSONException("Unexpected end of data");
+        }
+
+        switch (token) {
+            case START_OBJECT:
+                JSONObject object = new JSONObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    object.put(name, readValue(parser));
+                }
+                return object;
+            case START_ARRAY:
+                JSONArray array = new JSONArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    array.put(readValue(parser));
+                }
+                return array;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return JSONObject.NULL;
+            default:
+                throw new JSONException("Unexpected token: " + token);
+        }
+    }
+
+    private static boolean isOne(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue() == 1;
+        }
+
+        return "1".equals(value);
+    }
+
     /**
      * Creates the query string used on receive
      *
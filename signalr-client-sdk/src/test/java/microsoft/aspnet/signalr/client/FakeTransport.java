@@ -0,0 +1,132 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import microsoft.aspnet.signalr.client.transport.ClientTransport;
+import microsoft.aspnet.signalr.client.transport.ConnectionType;
+import microsoft.aspnet.signalr.client.transport.DataResultCallback;
+import microsoft.aspnet.signalr.client.transport.NegotiationResponse;
+
+/**
+ * Transport that completes the negotiation right away and lets the test
+ * complete or fail the transport starts and feed the received data
+ */
+public class FakeTransport implements ClientTransport {
+    public static final double KEEP_ALIVE_TIMEOUT_SECONDS = 20;
+    public static final double DISCONNECT_TIMEOUT_SECONDS = 30;
+
+    private final List<SignalRFuture<Void>> mStarts = new ArrayList<SignalRFuture<Void>>();
+    private final List<ConnectionType> mStartTypes = new ArrayList<ConnectionType>();
+    private final List<String> mSent = new ArrayList<String>();
+    private volatile DataResultCallback mCallback;
+    private volatile Throwable mSendError = null;
+    private int mNegotiations = 0;
+
+    @Override
+    public String getName() {
+        return "fake";
+    }
+
+    @Override
+    public boolean supportKeepAlive() {
+        return true;
+    }
+
+    @Override
+    public synchronized SignalRFuture<NegotiationResponse> negotiate(ConnectionBase connection) {
+        mNegotiations++;
+
+        NegotiationResponse response = new NegotiationResponse();
+        response.setConnectionId("connection-" + mNegotiations);
+        response.setConnectionToken("token-" + mNegotiations);
+        response.setProtocolVersion("1.3");
+        response.setKeepAliveTimeout(KEEP_ALIVE_TIMEOUT_SECONDS);
+        response.setDisconnectTimeout(DISCONNECT_TIMEOUT_SECONDS);
+
+        SignalRFuture<NegotiationResponse> future = new SignalRFuture<NegotiationResponse>();
+        future.setResult(response);
+        return future;
+    }
+
+    @Override
+    public synchronized SignalRFuture<Void> start(ConnectionBase connection, ConnectionType connectionType, DataResultCallback callback) {
+        SignalRFuture<Void> future = new SignalRFuture<Void>();
+        mStarts.add(future);
+        mStartTypes.add(connectionType);
+        mCallback = callback;
+        return future;
+    }
+
+    @Override
+    public synchronized SignalRFuture<Void> send(ConnectionBase connection, String data, DataResultCallback callback) {
+        mSent.add(data);
+
+        SignalRFuture<Void> future = new SignalRFuture<Void>();
+        Throwable error = mSendError;
+        if (error != null) {
+            future.triggerError(error);
+        } else {
+            future.setResult(null);
+        }
+        return future;
+    }
+
+    @Override
+    public SignalRFuture<Void> abort(ConnectionBase connection) {
+        SignalRFuture<Void> future = new SignalRFuture<Void>();
+        future.setResult(null);
+        return future;
+    }
+
+    /**
+     * Returns the future of a transport start
+     */
+    public synchronized SignalRFuture<Void> getStart(int index) {
+        return mStarts.get(index);
+    }
+
+    /**
+     * Returns the future of the last transport start
+     */
+    public synchronized SignalRFuture<Void> getLastStart() {
+        return mStarts.get(mStarts.size() - 1);
+    }
+
+    public synchronized int getStartCount() {
+        return mStarts.size();
+    }
+
+    public synchronized ConnectionType getStartType(int index) {
+        return mStartTypes.get(index);
+    }
+
+    public synchronized int getNegotiationCount() {
+        return mNegotiations;
+    }
+
+    public synchronized List<String> getSent() {
+        return new ArrayList<String>(mSent);
+    }
+
+    /**
+     * Fails the following sends with an error, or null to complete them
+     */
+    public void setSendError(Throwable error) {
+        mSendError = error;
+    }
+
+    /**
+     * Hands data to the connection as if the server had sent it on the last
+     * started transport
+     */
+    public void receive(String data) {
+        mCallback.onData(data);
+    }
+}
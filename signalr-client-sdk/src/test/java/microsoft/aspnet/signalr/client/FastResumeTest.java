@@ -0,0 +1,105 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import microsoft.aspnet.signalr.client.transport.ConnectionType;
+
+public class FastResumeTest {
+
+    // long enough for the test, and within the disconnect timeout
+    private static final long RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(10);
+
+    private Connection mConnection;
+    private FakeTransport mTransport;
+    private volatile long mReconnectDelay;
+
+    @Before
+    public void setUp() {
+        mTransport = new FakeTransport();
+        mConnection = new Connection("http://localhost/", new NullLogger(), false);
+        mConnection.setFastResumeEnabled(true);
+        mConnection.setReconnectPolicy(new ReconnectPolicy() {
+
+            @Override
+            public long getNextDelay(int attempt, long previousDelay, long elapsedTime) {
+                return mReconnectDelay;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.stop();
+    }
+
+    @Test
+    public void lostConnectionIsResumed() throws Exception {
+        startAndLose();
+
+        mConnection.start(mTransport);
+
+        assertEquals(1, mTransport.getNegotiationCount());
+        assertEquals(ConnectionType.Reconnection, mTransport.getStartType(1));
+        assertEquals("token-1", mConnection.getConnectionToken());
+
+        mTransport.getStart(1).setResult(null);
+        assertEquals(ConnectionState.Connected, mConnection.getState());
+    }
+
+    @Test
+    public void failedResumeNegotiates() throws Exception {
+        startAndLose();
+
+        mConnection.start(mTransport);
+        mTransport.getStart(1).triggerError(new Exception("unknown connection"));
+
+        assertEquals(2, mTransport.getNegotiationCount());
+        assertEquals(3, mTransport.getStartCount());
+        assertEquals(ConnectionType.InitialConnection, mTransport.getStartType(2));
+
+        mTransport.getStart(2).setResult(null);
+        assertEquals(ConnectionState.Connected, mConnection.getState());
+        assertEquals("token-2", mConnection.getConnectionToken());
+    }
+
+    @Test
+    public void resumedConnectionReconnectsOnTransportError() throws Exception {
+        startAndLose();
+
+        mConnection.start(mTransport);
+        mTransport.getStart(1).setResult(null);
+        assertEquals(ConnectionState.Connected, mConnection.getState());
+
+        mReconnectDelay = RECONNECT_DELAY;
+        mTransport.getStart(1).triggerError(new Exception("transport lost"));
+
+        assertEquals(ConnectionState.Reconnecting, mConnection.getState());
+        assertEquals(1, mTransport.getNegotiationCount());
+    }
+
+    /**
+     * Connects, then loses the connection and gives up reconnecting, which
+     * keeps it for a resume
+     */
+    private void startAndLose() {
+        mConnection.start(mTransport);
+        mTransport.getStart(0).setResult(null);
+        assertEquals(ConnectionState.Connected, mConnection.getState());
+
+        mReconnectDelay = -1;
+        mTransport.getStart(0).triggerError(new Exception("transport lost"));
+        assertEquals(ConnectionState.Disconnected, mConnection.getState());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class InboundQueueTest {
+
+    /**
+     * Runs the drain task only when asked to
+     */
+    static class ManualExecutor implements Executor {
+        final List<Runnable> mTasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    private final ManualExecutor mExecutor = new ManualExecutor();
+    private final List<Object> mDelivered = new ArrayList<Object>();
+
+    @Test
+    public void dropOldestKeepsResults() throws Exception {
+        InboundQueue queue = createQueue(2, OverflowPolicy.DropOldest);
+        JSONObject result = result("1");
+        assertTrue(queue.offer(result));
+        assertTrue(queue.offer(message("a")));
+        assertTrue(queue.offer(message("b")));
+
+        mExecutor.runAll();
+
+        assertEquals(2, mDelivered.size());
+        assertEquals(result, mDelivered.get(0));
+        assertEquals("b", ((JSONObject) mDelivered.get(1)).getString("M"));
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void dropNewestMakesRoomForResults() throws Exception {
+        InboundQueue queue = createQueue(2, OverflowPolicy.DropNewest);
+        assertTrue(queue.offer(message("a")));
+        assertTrue(queue.offer(message("b")));
+        assertTrue(queue.offer(result("1")));
+
+        mExecutor.runAll();
+
+        assertEquals(2, mDelivered.size());
+        assertEquals("b", ((JSONObject) mDelivered.get(0)).getString("M"));
+        assertEquals("1", ((JSONObject) mDelivered.get(1)).getString("I"));
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void dropNewestDropsMessages() throws Exception {
+        InboundQueue queue = createQueue(1, OverflowPolicy.DropNewest);
+        assertTrue(queue.offer(message("a")));
+        assertTrue(queue.offer(message("b")));
+
+        mExecutor.runAll();
+
+        assertEquals(1, mDelivered.size());
+        assertEquals("a", ((JSONObject) mDelivered.get(0)).getString("M"));
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void failRejectsMessagesOnly() throws Exception {
+        InboundQueue queue = createQueue(1, OverflowPolicy.Fail);
+        assertTrue(queue.offer(message("a")));
+        assertFalse(queue.offer(message("b")));
+
+        mExecutor.runAll();
+        assertTrue(queue.offer(result("1")));
+        mExecutor.runAll();
+
+        assertEquals(2, mDelivered.size());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    private InboundQueue createQueue(int capacity, OverflowPolicy policy) {
+        InboundQueue queue = new InboundQueue(capacity, policy, mExecutor);
+        queue.setConsumer(new Action<Object>() {
+
+            @Override
+            public void run(Object entry) {
+                mDelivered.add(entry);
+            }
+        });
+
+        return queue;
+    }
+
+    private static JSONObject message(String method) {
+        return new JSONObject().put("H", "hub").put("M", method);
+    }
+
+    private static JSONObject result(String id) {
+        return new JSONObject().put("I", id).put("R", 1);
+    }
+}
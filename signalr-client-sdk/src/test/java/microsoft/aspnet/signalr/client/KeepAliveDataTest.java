@@ -0,0 +1,56 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class KeepAliveDataTest {
+
+    private static final long SERVER_TIMEOUT = 20000;
+    private static final long KEEP_ALIVE_INTERVAL = SERVER_TIMEOUT / 2;
+    private static final long MILLISECOND = 1000000;
+
+    @Test
+    public void fixedThresholds() {
+        KeepAliveData data = new KeepAliveData(SERVER_TIMEOUT);
+        data.onKeepAlive(System.nanoTime());
+
+        assertEquals(SERVER_TIMEOUT, data.getTimeout());
+        assertEquals(SERVER_TIMEOUT * 2 / 3, data.getTimeoutWarning());
+    }
+
+    @Test
+    public void busyConnectionStaysAboveTheKeepAliveInterval() {
+        KeepAliveData data = new KeepAliveData(SERVER_TIMEOUT, true);
+        long now = data.getLastKeepAlive();
+        for (int i = 0; i < 1000; i++) {
+            now += MILLISECOND;
+            data.onKeepAlive(now);
+        }
+
+        // once the traffic stops, only keep-alives arrive
+        assertTrue(data.getTimeoutWarning() > KEEP_ALIVE_INTERVAL);
+        assertTrue(data.getTimeout() >= KEEP_ALIVE_INTERVAL * 3 / 2);
+        assertTrue(data.getTimeoutWarning() <= data.getTimeout());
+    }
+
+    @Test
+    public void slowConnectionIsBoundedByTheServerTimeout() {
+        KeepAliveData data = new KeepAliveData(SERVER_TIMEOUT, true);
+        long now = data.getLastKeepAlive();
+        for (int i = 0; i < 100; i++) {
+            now += (i % 2 == 0 ? 1000 : 19000) * MILLISECOND;
+            data.onKeepAlive(now);
+        }
+
+        assertEquals(SERVER_TIMEOUT, data.getTimeout());
+        assertTrue(data.getTimeoutWarning() <= SERVER_TIMEOUT);
+    }
+}
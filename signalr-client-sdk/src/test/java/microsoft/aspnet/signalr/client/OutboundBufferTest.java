@@ -0,0 +1,184 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class OutboundBufferTest {
+
+    /**
+     * Records the flushed messages, and stops the flush after a number of
+     * them
+     */
+    static class RecordingSender implements OutboundBuffer.SendAction {
+        final List<String> mSent = new ArrayList<String>();
+        int mLimit = Integer.MAX_VALUE;
+
+        @Override
+        public SignalRFuture<Void> send(String data) {
+            if (mSent.size() == mLimit) {
+                return null;
+            }
+
+            mSent.add(data);
+            SignalRFuture<Void> future = new SignalRFuture<Void>();
+            future.setResult(null);
+            return future;
+        }
+    }
+
+    private final RecordingSender mSender = new RecordingSender();
+
+    @Test
+    public void flushSendsInOrder() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(10, 1024, OutboundOverflowPolicy.DropOldest, 0, TimeUnit.SECONDS);
+        SignalRFuture<Void> a = buffer.add("a");
+        SignalRFuture<Void> b = buffer.add("b");
+        buffer.add("c");
+        assertFalse(buffer.isIdle());
+
+        buffer.flush(mSender);
+
+        assertEquals(Arrays.asList("a", "b", "c"), mSender.mSent);
+        assertTrue(a.isDone());
+        assertTrue(b.isDone());
+        assertEquals(3, buffer.getFlushedCount());
+        assertTrue(buffer.isIdle());
+    }
+
+    @Test
+    public void dropOldestOnOverflow() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(2, 1024, OutboundOverflowPolicy.DropOldest, 0, TimeUnit.SECONDS);
+        SignalRFuture<Void> a = buffer.add("a");
+        buffer.add("b");
+        buffer.add("c");
+
+        assertDropped(a, OutboundMessageDroppedException.Reason.Overflow);
+        buffer.flush(mSender);
+
+        assertEquals(Arrays.asList("b", "c"), mSender.mSent);
+        assertEquals(1, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void dropNewestOnOverflow() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(2, 1024, OutboundOverflowPolicy.DropNewest, 0, TimeUnit.SECONDS);
+        buffer.add("a");
+        buffer.add("b");
+        SignalRFuture<Void> c = buffer.add("c");
+
+        assertDropped(c, OutboundMessageDroppedException.Reason.Overflow);
+        buffer.flush(mSender);
+
+        assertEquals(Arrays.asList("a", "b"), mSender.mSent);
+        assertEquals(1, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void byteLimit() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(10, 5, OutboundOverflowPolicy.DropOldest, 0, TimeUnit.SECONDS);
+        SignalRFuture<Void> abc = buffer.add("abc");
+        buffer.add("de");
+        assertEquals(5, buffer.getSizeInBytes());
+
+        buffer.add("f");
+        assertDropped(abc, OutboundMessageDroppedException.Reason.Overflow);
+
+        // a message larger than the buffer is dropped on its own
+        SignalRFuture<Void> large = buffer.add("ghijkl");
+        assertDropped(large, OutboundMessageDroppedException.Reason.Overflow);
+
+        buffer.flush(mSender);
+        assertEquals(Arrays.asList("de", "f"), mSender.mSent);
+    }
+
+    @Test
+    public void expiredMessagesAreDropped() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(10, 1024, OutboundOverflowPolicy.DropOldest, 20, TimeUnit.MILLISECONDS);
+        SignalRFuture<Void> a = buffer.add("a");
+        Thread.sleep(50);
+        buffer.add("b");
+
+        assertDropped(a, OutboundMessageDroppedException.Reason.Expired);
+
+        Thread.sleep(50);
+        buffer.flush(mSender);
+
+        assertTrue(mSender.mSent.isEmpty());
+        assertEquals(2, buffer.getExpiredCount());
+    }
+
+    @Test
+    public void stoppedFlushKeepsTheOrder() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(10, 1024, OutboundOverflowPolicy.DropOldest, 0, TimeUnit.SECONDS);
+        buffer.add("a");
+        buffer.add("b");
+        buffer.add("c");
+
+        mSender.mLimit = 1;
+        buffer.flush(mSender);
+        assertEquals(2, buffer.size());
+
+        buffer.add("d");
+        mSender.mLimit = Integer.MAX_VALUE;
+        buffer.flush(mSender);
+
+        assertEquals(Arrays.asList("a", "b", "c", "d"), mSender.mSent);
+    }
+
+    @Test
+    public void cancelledMessagesAreNotSent() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(10, 1024, OutboundOverflowPolicy.DropOldest, 0, TimeUnit.SECONDS);
+        buffer.add("a").cancel();
+        buffer.add("b");
+
+        buffer.flush(mSender);
+
+        assertEquals(Arrays.asList("b"), mSender.mSent);
+    }
+
+    @Test
+    public void clearDropsTheMessages() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(10, 1024, OutboundOverflowPolicy.DropOldest, 0, TimeUnit.SECONDS);
+        SignalRFuture<Void> a = buffer.add("a");
+
+        buffer.clear();
+
+        assertDropped(a, OutboundMessageDroppedException.Reason.Closed);
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getSizeInBytes());
+    }
+
+    @Test
+    public void utf8Length() {
+        assertEquals(1, OutboundBuffer.utf8Length("a"));
+        assertEquals(2, OutboundBuffer.utf8Length("\u00e9"));
+        assertEquals(3, OutboundBuffer.utf8Length("\u20ac"));
+        assertEquals(4, OutboundBuffer.utf8Length("\uD83D\uDE00"));
+    }
+
+    private static void assertDropped(SignalRFuture<Void> future, OutboundMessageDroppedException.Reason reason) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("The message was not dropped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof OutboundMessageDroppedException);
+            assertEquals(reason, ((OutboundMessageDroppedException) e.getCause()).getReason());
+        }
+    }
+}
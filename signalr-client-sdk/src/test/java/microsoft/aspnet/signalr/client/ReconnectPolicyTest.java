@@ -0,0 +1,66 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReconnectPolicyTest {
+
+    @Test
+    public void exponentialBackoffDoublesUpToTheMaximum() {
+        ReconnectPolicy policy = new ExponentialBackoffReconnectPolicy(100, 1000, 0);
+
+        long delay = 0;
+        long[] expected = { 100, 200, 400, 800, 1000, 1000 };
+        for (int attempt = 1; attempt <= expected.length; attempt++) {
+            delay = policy.getNextDelay(attempt, delay, 0);
+            assertEquals(expected[attempt - 1], delay);
+        }
+    }
+
+    @Test
+    public void exponentialBackoffFromZero() {
+        ReconnectPolicy policy = new ExponentialBackoffReconnectPolicy(0, 1000, 0);
+
+        assertEquals(0, policy.getNextDelay(1, 0, 0));
+        assertEquals(2, policy.getNextDelay(2, 0, 0));
+        assertEquals(4, policy.getNextDelay(3, 2, 0));
+    }
+
+    @Test
+    public void exponentialBackoffStopsAfterTheMaximumAttempts() {
+        ReconnectPolicy policy = new ExponentialBackoffReconnectPolicy(100, 1000, 3);
+
+        assertEquals(400, policy.getNextDelay(3, 200, 0));
+        assertTrue(policy.getNextDelay(4, 400, 0) < 0);
+    }
+
+    @Test
+    public void decorrelatedJitterStaysInItsBounds() {
+        ReconnectPolicy policy = new DecorrelatedJitterReconnectPolicy(100, 5000, 0);
+
+        long delay = 0;
+        for (int attempt = 1; attempt <= 1000; attempt++) {
+            long upper = Math.min(Math.max(delay, 100) * 3, 5000);
+            delay = policy.getNextDelay(attempt, delay, 0);
+
+            assertTrue(delay >= 100);
+            assertTrue(delay <= upper);
+        }
+    }
+
+    @Test
+    public void decorrelatedJitterStopsAfterTheMaximumAttempts() {
+        ReconnectPolicy policy = new DecorrelatedJitterReconnectPolicy(100, 5000, 2);
+
+        assertTrue(policy.getNextDelay(2, 100, 0) >= 100);
+        assertTrue(policy.getNextDelay(3, 100, 0) < 0);
+    }
+}
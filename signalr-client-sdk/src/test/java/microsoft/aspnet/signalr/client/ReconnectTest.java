@@ -0,0 +1,117 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import microsoft.aspnet.signalr.client.transport.ConnectionType;
+
+public class ReconnectTest {
+
+    private Connection mConnection;
+    private FakeTransport mTransport;
+    private final List<Integer> mAttempts = new CopyOnWriteArrayList<Integer>();
+    private final List<ConnectionEventType> mEvents = new CopyOnWriteArrayList<ConnectionEventType>();
+    private volatile long mReconnectDelay = 1;
+
+    @Before
+    public void setUp() {
+        mTransport = new FakeTransport();
+        mConnection = new Connection("http://localhost/", new NullLogger(), false);
+        mConnection.setReconnectPolicy(new ReconnectPolicy() {
+
+            @Override
+            public long getNextDelay(int attempt, long previousDelay, long elapsedTime) {
+                mAttempts.add(attempt);
+                return mReconnectDelay;
+            }
+        });
+        // the events are delivered right away, so they can be checked in order
+        mConnection.getEventBus().setExecutor(new Executor() {
+
+            @Override
+            public void execute(Runnable task) {
+                task.run();
+            }
+        });
+        mConnection.getEventBus().addListener(new ConnectionEventListener() {
+
+            @Override
+            public void onEvent(ConnectionEvent event) {
+                if (event.getType() != ConnectionEventType.StateChanged) {
+                    mEvents.add(event.getType());
+                }
+            }
+        });
+
+        mConnection.start(mTransport);
+        mTransport.getStart(0).setResult(null);
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.stop();
+    }
+
+    @Test
+    public void failedAttemptIsRetried() throws Exception {
+        mTransport.getStart(0).triggerError(new Exception("transport lost"));
+        assertEquals(ConnectionState.Reconnecting, mConnection.getState());
+
+        awaitStartCount(2);
+        assertEquals(ConnectionType.Reconnection, mTransport.getStartType(1));
+        mTransport.getStart(1).triggerError(new Exception("server unavailable"));
+
+        awaitStartCount(3);
+        mTransport.getStart(2).setResult(null);
+
+        assertEquals(ConnectionState.Connected, mConnection.getState());
+        assertEquals(Arrays.asList(1, 2), mAttempts);
+        assertEquals(Arrays.asList(ConnectionEventType.Connected, ConnectionEventType.Reconnecting, ConnectionEventType.Reconnected), mEvents);
+        assertEquals(1, mTransport.getNegotiationCount());
+    }
+
+    @Test
+    public void policyGivesUp() throws Exception {
+        mReconnectDelay = -1;
+        mTransport.getStart(0).triggerError(new Exception("transport lost"));
+
+        assertEquals(ConnectionState.Disconnected, mConnection.getState());
+        assertEquals(Arrays.asList(1), mAttempts);
+        assertEquals(1, mTransport.getStartCount());
+    }
+
+    @Test
+    public void reconnectStopsAtTheDisconnectTimeout() throws Exception {
+        mReconnectDelay = TimeUnit.SECONDS.toMillis((long) FakeTransport.DISCONNECT_TIMEOUT_SECONDS);
+        mTransport.getStart(0).triggerError(new Exception("transport lost"));
+
+        assertEquals(ConnectionState.Disconnected, mConnection.getState());
+        assertEquals(1, mTransport.getStartCount());
+    }
+
+    private void awaitStartCount(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mTransport.getStartCount() < count) {
+            if (System.nanoTime() > deadline) {
+                fail("The transport was not restarted");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SignalRFutureTest {
+
+    @Test
+    public void cancelPendingFuture() throws Exception {
+        SignalRFuture<String> future = new SignalRFuture<String>();
+        AtomicInteger cancelled = countCancellations(future);
+
+        assertTrue(future.cancel(false));
+        assertFalse(future.cancel(false));
+        future.setResult("late");
+
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        assertEquals(1, cancelled.get());
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("The future was cancelled");
+        } catch (InterruptedException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void cancelCompletedFutureFails() throws Exception {
+        SignalRFuture<String> future = new SignalRFuture<String>();
+        AtomicInteger cancelled = countCancellations(future);
+        future.setResult("result");
+
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+        assertEquals(0, cancelled.get());
+        assertEquals("result", future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelFailedFutureFails() throws Exception {
+        SignalRFuture<String> future = new SignalRFuture<String>();
+        future.triggerError(new Exception("failed"));
+
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+    }
+
+    @Test
+    public void stopOperationAfterItsResult() throws Exception {
+        SignalRFuture<String> future = new SignalRFuture<String>();
+        AtomicInteger cancelled = countCancellations(future);
+        future.setResult("started");
+
+        future.cancel();
+        future.cancel();
+
+        assertTrue(future.isCancelled());
+        assertEquals(1, cancelled.get());
+    }
+
+    @Test
+    public void resultIsSetOnce() throws Exception {
+        SignalRFuture<String> future = new SignalRFuture<String>();
+        final AtomicInteger done = new AtomicInteger();
+        future.done(new Action<String>() {
+
+            @Override
+            public void run(String result) {
+                done.incrementAndGet();
+            }
+        });
+
+        future.setResult("first");
+        future.setResult("second");
+
+        assertEquals(1, done.get());
+        assertEquals("first", future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void nullResult() throws Exception {
+        SignalRFuture<String> future = new SignalRFuture<String>();
+        future.setResult(null);
+
+        assertTrue(future.isDone());
+        assertEquals(null, future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void errorAfterResultFailsGet() throws Exception {
+        SignalRFuture<String> future = new SignalRFuture<String>();
+        Exception error = new Exception("failed");
+        future.setResult("result");
+        future.triggerError(error);
+
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("The future failed");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void errorsBeforeHandlerAreDelivered() throws Exception {
+        SignalRFuture<String> future = new SignalRFuture<String>();
+        future.triggerError(new Exception("1"));
+        future.triggerError(new Exception("2"));
+
+        final StringBuilder errors = new StringBuilder();
+        future.onError(new ErrorCallback() {
+
+            @Override
+            public void onError(Throwable error) {
+                errors.append(error.getMessage());
+            }
+        });
+
+        assertEquals("12", errors.toString());
+    }
+
+    @Test
+    public void resultAndCancellationRace() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            final SignalRFuture<String> future = new SignalRFuture<String>();
+            final CountDownLatch start = new CountDownLatch(1);
+            final boolean[] cancelled = new boolean[1];
+
+            Thread canceller = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    cancelled[0] = future.cancel(false);
+                }
+            });
+            canceller.start();
+
+            start.countDown();
+            future.setResult("result");
+            canceller.join();
+
+            assertEquals(cancelled[0], future.isCancelled());
+            if (!cancelled[0]) {
+                assertEquals("result", future.get(1, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    private static AtomicInteger countCancellations(SignalRFuture<?> future) {
+        final AtomicInteger cancelled = new AtomicInteger();
+        future.onCancelled(new Runnable() {
+
+            @Override
+            public void run() {
+                cancelled.incrementAndGet();
+            }
+        });
+
+        return cancelled;
+    }
+}
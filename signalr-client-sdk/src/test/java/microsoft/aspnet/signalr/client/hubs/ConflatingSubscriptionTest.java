@@ -0,0 +1,100 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.Dispatcher;
+import microsoft.aspnet.signalr.client.NullLogger;
+
+public class ConflatingSubscriptionTest {
+
+    private final List<Runnable> mTasks = new ArrayList<Runnable>();
+    private final List<Object[]> mDelivered = new ArrayList<Object[]>();
+    private ConflatingSubscription mSubscription;
+
+    @Before
+    public void setUp() {
+        HubConnection connection = new HubConnection("http://localhost/", new NullLogger(), false);
+        connection.setDispatcher(new Dispatcher() {
+
+            @Override
+            public void dispatch(String key, Runnable task) {
+                mTasks.add(task);
+            }
+        });
+
+        mSubscription = connection.createHubProxy("quotes").subscribeConflated("update", new ConflationKeyExtractor() {
+
+            @Override
+            public Object getKey(Object[] args) {
+                return args[0];
+            }
+        });
+        mSubscription.addReceivedHandler(new Action<Object[]>() {
+
+            @Override
+            public void run(Object[] args) {
+                mDelivered.add(args);
+            }
+        });
+    }
+
+    @Test
+    public void onlyTheLatestEventIsDelivered() throws Exception {
+        mSubscription.dispatch(new Object[] { "MSFT", 1 }, false);
+        mSubscription.dispatch(new Object[] { "MSFT", 2 }, false);
+        mSubscription.dispatch(new Object[] { "AAPL", 3 }, false);
+
+        assertEquals(2, mSubscription.getPendingCount());
+        runTasks();
+
+        assertEquals(2, mDelivered.size());
+        assertEquals(2, mDelivered.get(0)[1]);
+        assertEquals(3, mDelivered.get(1)[1]);
+        assertEquals(1, mSubscription.getConflatedCount());
+        assertEquals(2, mSubscription.getDeliveredCount());
+    }
+
+    @Test
+    public void slotsAreRemovedOnceDelivered() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            mSubscription.dispatch(new Object[] { "order-" + i, i }, false);
+        }
+
+        assertEquals(1000, mSubscription.getSlotCount());
+        runTasks();
+
+        assertEquals(1000, mDelivered.size());
+        assertEquals(0, mSubscription.getSlotCount());
+        assertEquals(0, mSubscription.getPendingCount());
+    }
+
+    @Test
+    public void keyIsReusedAfterDelivery() throws Exception {
+        mSubscription.dispatch(new Object[] { "MSFT", 1 }, false);
+        runTasks();
+        mSubscription.dispatch(new Object[] { "MSFT", 2 }, false);
+        runTasks();
+
+        assertEquals(2, mDelivered.size());
+        assertEquals(0, mSubscription.getSlotCount());
+    }
+
+    private void runTasks() {
+        while (!mTasks.isEmpty()) {
+            mTasks.remove(0).run();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.ConnectionEvent;
+import microsoft.aspnet.signalr.client.ConnectionEventListener;
+import microsoft.aspnet.signalr.client.ConnectionEventType;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.transport.ClientTransport;
+import microsoft.aspnet.signalr.client.transport.ServerSentEventsTransport;
+import microsoft.aspnet.signalr.testserver.HubMethod;
+import microsoft.aspnet.signalr.testserver.StandInServer;
+
+/**
+ * Runs a pool against the stand-in server: invocations are routed by key,
+ * the server answers each one with an event for the same key, and the events
+ * of a key must be handled in order, also across a reconnect
+ */
+public class HubConnectionPoolServerTest {
+
+    private static final int POOL_SIZE = 3;
+    private static final int KEY_COUNT = 8;
+    private static final int EVENTS_PER_PHASE = 50;
+
+    private StandInServer mServer;
+    private HubConnectionPool mPool;
+
+    private final ConcurrentHashMap<String, Set<String>> mConnectionsByKey = new ConcurrentHashMap<String, Set<String>>();
+    private final ConcurrentHashMap<String, List<Integer>> mReceived = new ConcurrentHashMap<String, List<Integer>>();
+    private final ConcurrentHashMap<String, AtomicInteger> mRunning = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicBoolean mOverlapped = new AtomicBoolean(false);
+    private final AtomicInteger mCount = new AtomicInteger();
+    private final AtomicInteger mReconnected = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int key = 0; key < KEY_COUNT; key++) {
+            mConnectionsByKey.put("k" + key, ConcurrentHashMap.<String> newKeySet());
+            mReceived.put("k" + key, new CopyOnWriteArrayList<Integer>());
+            mRunning.put("k" + key, new AtomicInteger());
+        }
+
+        mServer = new StandInServer();
+        // the clients notice the dropped streams once the keep alives stop
+        mServer.setKeepAliveInterval(250);
+        mServer.registerHubMethod("quotes", "publish", new HubMethod() {
+
+            @Override
+            public Object invoke(String connectionId, JSONArray args) throws Exception {
+                String key = args.getString(0);
+                mConnectionsByKey.get(key).add(connectionId);
+                mServer.send(connectionId, "quotes", "update", new JSONObject().put("key", key).put("seq", args.getInt(1)));
+                return null;
+            }
+        });
+        mServer.start();
+
+        mPool = new HubConnectionPool(mServer.getUrl(), null, false, new NullLogger(), false, POOL_SIZE);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            mPool.getConnection(i).getEventBus().addListener(new ConnectionEventListener() {
+
+                @Override
+                public void onEvent(ConnectionEvent event) {
+                    if (event.getType() == ConnectionEventType.Reconnected) {
+                        mReconnected.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        mPool.on("quotes", "update", new PartitionKeyExtractor() {
+
+            @Override
+            public Object getKey(Object[] args) {
+                return new JSONObject(args[0].toString()).getString("key");
+            }
+        }, new Action<Object[]>() {
+
+            @Override
+            public void run(Object[] args) throws Exception {
+                JSONObject data = new JSONObject(args[0].toString());
+                String key = data.getString("key");
+                AtomicInteger running = mRunning.get(key);
+                if (running.incrementAndGet() != 1) {
+                    mOverlapped.set(true);
+                }
+
+                mReceived.get(key).add(data.getInt("seq"));
+                running.decrementAndGet();
+                mCount.incrementAndGet();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (mPool != null) {
+            mPool.stop();
+        }
+        mServer.stop();
+    }
+
+    @Test
+    public void eventsOfAKeyStayInOrderAcrossReconnects() throws Exception {
+        mPool.start(new HubConnectionPool.TransportFactory() {
+
+            @Override
+            public ClientTransport createTransport(int shard) {
+                return new ServerSentEventsTransport(new NullLogger(), false);
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        publish(0);
+        await(mCount, KEY_COUNT * EVENTS_PER_PHASE, "events");
+
+        mServer.dropConnections();
+        await(mReconnected, POOL_SIZE, "reconnections");
+
+        publish(EVENTS_PER_PHASE);
+        await(mCount, 2 * KEY_COUNT * EVENTS_PER_PHASE, "events");
+
+        assertFalse(mOverlapped.get());
+
+        Set<String> connections = new HashSet<String>();
+        for (int key = 0; key < KEY_COUNT; key++) {
+            // every invocation of a key went through the same connection
+            Set<String> keyConnections = mConnectionsByKey.get("k" + key);
+            assertEquals(1, keyConnections.size());
+            connections.addAll(keyConnections);
+
+            List<Integer> values = mReceived.get("k" + key);
+            assertEquals(2 * EVENTS_PER_PHASE, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                assertEquals(Integer.valueOf(i), values.get(i));
+            }
+        }
+
+        assertTrue(connections.size() > 1);
+    }
+
+    private void publish(int firstSeq) throws Exception {
+        // the invocations are posted on their own requests, so the next one of
+        // a key is only sent once the previous one is done
+        List<SignalRFuture<Void>> futures = new ArrayList<SignalRFuture<Void>>();
+        for (int seq = firstSeq; seq < firstSeq + EVENTS_PER_PHASE; seq++) {
+            futures.clear();
+            for (int key = 0; key < KEY_COUNT; key++) {
+                futures.add(mPool.invoke("quotes", "k" + key, "publish", "k" + key, seq));
+            }
+
+            for (SignalRFuture<Void> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private static void await(AtomicInteger count, int expected, String what) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (count.get() < expected) {
+            if (System.nanoTime() > deadline) {
+                fail("Only " + count.get() + " of " + expected + " " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.ConnectionState;
+import microsoft.aspnet.signalr.client.FakeTransport;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.ReconnectPolicy;
+import microsoft.aspnet.signalr.client.transport.ClientTransport;
+
+public class HubConnectionPoolTest {
+
+    private static final int KEY_COUNT = 40000;
+
+    private ExecutorService mExecutor;
+    private final List<HubConnectionPool> mPools = new ArrayList<HubConnectionPool>();
+
+    // the transports created for every shard, in order
+    private final List<List<FakeTransport>> mTransports = new CopyOnWriteArrayList<List<FakeTransport>>();
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        for (HubConnectionPool pool : mPools) {
+            pool.stop();
+        }
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void shardsAreStable() {
+        HubConnectionPool pool = createPool(4);
+        HubConnectionPool other = createPool(4);
+
+        for (int i = 0; i < 1000; i++) {
+            int shard = pool.getShard("key-" + i);
+            assertTrue(shard >= 0 && shard < 4);
+            assertEquals(shard, pool.getShard("key-" + i));
+            assertEquals(shard, other.getShard("key-" + i));
+        }
+    }
+
+    @Test
+    public void keysAreSpread() {
+        HubConnectionPool pool = createPool(4);
+        int[] counts = new int[4];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            counts[pool.getShard("key-" + i)]++;
+        }
+
+        for (int count : counts) {
+            double share = (double) count / KEY_COUNT;
+            assertTrue("share " + share, share > 0.18 && share < 0.32);
+        }
+    }
+
+    @Test
+    public void growingThePoolMovesFewKeys() {
+        HubConnectionPool pool = createPool(4);
+        HubConnectionPool grown = createPool(5);
+
+        int moved = 0;
+        for (int i = 0; i < KEY_COUNT; i++) {
+            int shard = pool.getShard("key-" + i);
+            int newShard = grown.getShard("key-" + i);
+            if (shard != newShard) {
+                // keys only move to the new connection
+                assertEquals(4, newShard);
+                moved++;
+            }
+        }
+
+        double share = (double) moved / KEY_COUNT;
+        assertTrue("share " + share, share > 0.1 && share < 0.3);
+    }
+
+    @Test
+    public void ringWrapsAround() {
+        HubConnectionPool pool = createPool(3);
+
+        // a point after the last one of the ring belongs to the first one
+        assertEquals(pool.getShardOfPoint(Integer.MIN_VALUE), pool.getShardOfPoint(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void eventsOfAKeyRunInOrder() throws Exception {
+        HubConnectionPool pool = createPool(2);
+        final ConcurrentHashMap<String, List<Integer>> received = new ConcurrentHashMap<String, List<Integer>>();
+        final ConcurrentHashMap<String, AtomicInteger> running = new ConcurrentHashMap<String, AtomicInteger>();
+        final AtomicBoolean overlapped = new AtomicBoolean(false);
+        final AtomicInteger count = new AtomicInteger();
+
+        Action<Object[]> handler = new Action<Object[]>() {
+
+            @Override
+            public void run(Object[] args) throws Exception {
+                JSONObject data = new JSONObject(args[0].toString());
+                String key = data.getString("key");
+                AtomicInteger keyRunning = running.get(key);
+                if (keyRunning.incrementAndGet() != 1) {
+                    overlapped.set(true);
+                }
+
+                Thread.sleep(1);
+                received.get(key).add(data.getInt("seq"));
+
+                keyRunning.decrementAndGet();
+                count.incrementAndGet();
+            }
+        };
+
+        PartitionKeyExtractor keyExtractor = new PartitionKeyExtractor() {
+
+            @Override
+            public Object getKey(Object[] args) {
+                return new JSONObject(args[0].toString()).getString("key");
+            }
+        };
+
+        // the events of a key have different names, and come on both
+        // connections
+        pool.on("quotes", "update", keyExtractor, handler);
+        pool.on("quotes", "trade", keyExtractor, handler);
+        start(pool);
+
+        for (int key = 0; key < 4; key++) {
+            received.put("k" + key, new CopyOnWriteArrayList<Integer>());
+            running.put("k" + key, new AtomicInteger());
+        }
+
+        int events = 400;
+        for (int i = 0; i < events; i++) {
+            FakeTransport transport = mTransports.get(i % 2).get(0);
+            transport.receive(event(i % 3 == 0 ? "trade" : "update", "k" + (i / 2) % 4, i));
+        }
+
+        awaitCount(count, events);
+        assertFalse(overlapped.get());
+        for (List<Integer> values : received.values()) {
+            assertEquals(events / 4, values.size());
+            for (int i = 1; i < values.size(); i++) {
+                assertTrue(values.get(i - 1) < values.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void closedConnectionIsStartedAgain() throws Exception {
+        HubConnectionPool pool = createPool(2);
+        setReconnectDelay(pool, 1);
+        start(pool);
+
+        pool.getConnection(0).stop();
+
+        awaitTransportCount(0, 2);
+        mTransports.get(0).get(1).getLastStart().setResult(null);
+
+        assertEquals(ConnectionState.Connected, pool.getState(0));
+        assertEquals(1, mTransports.get(1).size());
+    }
+
+    @Test
+    public void connectionIsNotStartedAgainWhenThePolicyGivesUp() throws Exception {
+        HubConnectionPool pool = createPool(2);
+        setReconnectDelay(pool, -1);
+        start(pool);
+
+        pool.getConnection(0).stop();
+        Thread.sleep(200);
+
+        assertEquals(ConnectionState.Disconnected, pool.getState(0));
+        assertEquals(1, mTransports.get(0).size());
+    }
+
+    @Test
+    public void stoppedPoolIsNotStartedAgain() throws Exception {
+        HubConnectionPool pool = createPool(2);
+        setReconnectDelay(pool, 1);
+        start(pool);
+
+        pool.stop();
+        Thread.sleep(200);
+
+        assertEquals(1, mTransports.get(0).size());
+        assertEquals(1, mTransports.get(1).size());
+    }
+
+    private HubConnectionPool createPool(int size) {
+        HubConnectionPool pool = new HubConnectionPool("http://localhost/", null, false, new NullLogger(), false, size, mExecutor);
+        mPools.add(pool);
+        return pool;
+    }
+
+    /**
+     * Starts the pool on fake transports, and completes their starts
+     */
+    private void start(HubConnectionPool pool) {
+        mTransports.clear();
+        for (int i = 0; i < pool.getSize(); i++) {
+            mTransports.add(new CopyOnWriteArrayList<FakeTransport>());
+        }
+
+        pool.start(new HubConnectionPool.TransportFactory() {
+
+            @Override
+            public ClientTransport createTransport(int shard) {
+                FakeTransport transport = new FakeTransport();
+                mTransports.get(shard).add(transport);
+                return transport;
+            }
+        });
+
+        for (int i = 0; i < pool.getSize(); i++) {
+            mTransports.get(i).get(0).getLastStart().setResult(null);
+            assertEquals(ConnectionState.Connected, pool.getState(i));
+        }
+    }
+
+    private static void setReconnectDelay(HubConnectionPool pool, final long delay) {
+        for (int i = 0; i < pool.getSize(); i++) {
+            pool.getConnection(i).setReconnectPolicy(new ReconnectPolicy() {
+
+                @Override
+                public long getNextDelay(int attempt, long previousDelay, long elapsedTime) {
+                    return delay;
+                }
+            });
+        }
+    }
+
+    private static String event(String name, String key, int value) {
+        JSONObject data = new JSONObject().put("key", key).put("seq", value);
+        JSONObject message = new JSONObject().put("H", "quotes").put("M", name).put("A", new JSONArray().put(data));
+        return new JSONObject().put("C", "c-" + value).put("M", new JSONArray().put(message)).toString();
+    }
+
+    private void awaitTransportCount(int shard, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mTransports.get(shard).size() < count) {
+            if (System.nanoTime() > deadline) {
+                fail("The connection was not started again");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (count.get() < expected) {
+            if (System.nanoTime() > deadline) {
+                fail("Only " + count.get() + " of " + expected + " events were handled");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
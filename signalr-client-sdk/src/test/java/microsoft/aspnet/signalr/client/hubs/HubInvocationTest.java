@@ -0,0 +1,176 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.hubs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import microsoft.aspnet.signalr.client.ConnectionState;
+import microsoft.aspnet.signalr.client.FakeTransport;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.OutboundBuffer;
+import microsoft.aspnet.signalr.client.OutboundMessageDroppedException;
+import microsoft.aspnet.signalr.client.OutboundOverflowPolicy;
+import microsoft.aspnet.signalr.client.ReconnectPolicy;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+
+public class HubInvocationTest {
+
+    private HubConnection mConnection;
+    private HubProxy mProxy;
+    private FakeTransport mTransport;
+    private volatile long mReconnectDelay = TimeUnit.SECONDS.toMillis(10);
+
+    @Before
+    public void setUp() {
+        mTransport = new FakeTransport();
+        mConnection = new HubConnection("http://localhost/", new NullLogger(), false);
+        mConnection.setReconnectPolicy(new ReconnectPolicy() {
+
+            @Override
+            public long getNextDelay(int attempt, long previousDelay, long elapsedTime) {
+                return mReconnectDelay;
+            }
+        });
+        mProxy = mConnection.createHubProxy("chat");
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.stop();
+    }
+
+    @Test
+    public void invocationGetsItsResult() throws Exception {
+        connect();
+
+        SignalRFuture<Void> result = mProxy.invoke("add", 2, 3);
+        assertEquals(1, mConnection.getPendingInvocationCount());
+        reply(0);
+
+        result.get(1, TimeUnit.SECONDS);
+        assertEquals(0, mConnection.getPendingInvocationCount());
+    }
+
+    @Test
+    public void pendingInvocationsFailOnReconnectingWithoutBuffer() throws Exception {
+        connect();
+        SignalRFuture<Void> result = mProxy.invoke("send", "lost");
+
+        loseTransport();
+
+        assertFailed(result);
+        assertEquals(0, mConnection.getPendingInvocationCount());
+    }
+
+    @Test
+    public void pendingInvocationsAreKeptWithBuffer() throws Exception {
+        mConnection.setOutboundBuffer(new OutboundBuffer(10, 1024, OutboundOverflowPolicy.DropOldest, 0, TimeUnit.SECONDS));
+        connect();
+        SignalRFuture<Void> result = mProxy.invoke("send", "kept");
+
+        loseTransport();
+
+        assertFalse(result.isDone());
+        assertEquals(1, mConnection.getPendingInvocationCount());
+    }
+
+    @Test
+    public void droppedInvocationFails() throws Exception {
+        mConnection.setOutboundBuffer(new OutboundBuffer(1, 1024, OutboundOverflowPolicy.DropOldest, 0, TimeUnit.SECONDS));
+        connect();
+        loseTransport();
+
+        SignalRFuture<Void> dropped = mProxy.invoke("send", "first");
+        SignalRFuture<Void> buffered = mProxy.invoke("send", "second");
+
+        try {
+            dropped.get(1, TimeUnit.SECONDS);
+            fail("The invocation was dropped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof OutboundMessageDroppedException);
+        }
+
+        assertFalse(buffered.isDone());
+        assertEquals(1, mConnection.getPendingInvocationCount());
+    }
+
+    @Test
+    public void bufferedInvocationGetsItsResultOnceReconnected() throws Exception {
+        mConnection.setOutboundBuffer(new OutboundBuffer(10, 1024, OutboundOverflowPolicy.DropOldest, 0, TimeUnit.SECONDS));
+        connect();
+        mReconnectDelay = 1;
+        loseTransport();
+
+        SignalRFuture<Void> result = mProxy.invoke("add", 2, 3);
+        assertEquals(0, mTransport.getSent().size());
+
+        awaitStartCount(2);
+        mTransport.getStart(1).setResult(null);
+        assertEquals(ConnectionState.Connected, mConnection.getState());
+        assertEquals(1, mTransport.getSent().size());
+
+        reply(0);
+        result.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void failedSendFailsTheInvocation() throws Exception {
+        connect();
+        mTransport.setSendError(new Exception("send failed"));
+        SignalRFuture<Void> result = mProxy.invoke("send", "failed");
+
+        assertFailed(result);
+        assertEquals(0, mConnection.getPendingInvocationCount());
+    }
+
+    private void connect() {
+        mConnection.start(mTransport);
+        mTransport.getLastStart().setResult(null);
+        assertEquals(ConnectionState.Connected, mConnection.getState());
+    }
+
+    private void loseTransport() {
+        mTransport.getLastStart().triggerError(new Exception("transport lost"));
+        assertEquals(ConnectionState.Reconnecting, mConnection.getState());
+    }
+
+    private void reply(int callbackId) {
+        mTransport.receive(new JSONObject().put("I", Integer.toString(callbackId)).put("R", new JSONObject()).toString());
+    }
+
+    private void awaitStartCount(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mTransport.getStartCount() < count) {
+            if (System.nanoTime() > deadline) {
+                fail("The transport was not restarted");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertFailed(SignalRFuture<?> future) throws InterruptedException {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("The invocation did not fail");
+        } catch (ExecutionException e) {
+            // expected
+        } catch (java.util.concurrent.TimeoutException e) {
+            fail("The invocation did not fail");
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ServerSentEventsParserTest {
+
+    private List<String> mEvents;
+    private ServerSentEventsParser mParser;
+
+    @Before
+    public void setUp() {
+        mEvents = new ArrayList<String>();
+        mParser = new ServerSentEventsParser(new ServerSentEventsParser.EventHandler() {
+
+            @Override
+            public void onEvent(byte[] data, int offset, int length) {
+                mEvents.add(new String(data, offset, length, StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    @Test
+    public void lineFeedEndings() throws Exception {
+        feed("data: initialized\n\ndata: {}\n\n");
+
+        assertEquals(Arrays.asList("initialized", "{}"), mEvents);
+    }
+
+    @Test
+    public void carriageReturnEndings() throws Exception {
+        feed("data: a\r\rdata: b\r\r");
+
+        assertEquals(Arrays.asList("a", "b"), mEvents);
+    }
+
+    @Test
+    public void carriageReturnLineFeedEndings() throws Exception {
+        feed("data: a\r\n\r\ndata: b\r\n\r\n");
+
+        assertEquals(Arrays.asList("a", "b"), mEvents);
+    }
+
+    @Test
+    public void lineEndingSplitAcrossChunks() throws Exception {
+        feedByteByByte("data: a\r\n\r\ndata: b\r\n\r\n");
+
+        assertEquals(Arrays.asList("a", "b"), mEvents);
+    }
+
+    @Test
+    public void byteOrderMarkIsSkipped() throws Exception {
+        feedByteByByte("\uFEFFdata: a\n\n");
+
+        assertEquals(Arrays.asList("a"), mEvents);
+    }
+
+    @Test
+    public void byteOrderMarkOnlyAtStart() throws Exception {
+        feed("data: a\n\ndata: \uFEFFb\n\n");
+
+        assertEquals(Arrays.asList("a", "\uFEFFb"), mEvents);
+    }
+
+    @Test
+    public void multiLineData() throws Exception {
+        feed("data: {\"M\":\ndata:[]}\n\n");
+
+        assertEquals(Arrays.asList("{\"M\":\n[]}"), mEvents);
+    }
+
+    @Test
+    public void commentsAndUnknownFieldsAreIgnored() throws Exception {
+        feed(": keep-alive\nevent: message\nfoo: bar\ndata: a\n\n");
+
+        assertEquals(Arrays.asList("a"), mEvents);
+    }
+
+    @Test
+    public void eventWithoutDataIsNotDispatched() throws Exception {
+        feed("id: 1\n\n\n");
+
+        assertEquals(0, mEvents.size());
+    }
+
+    @Test
+    public void incompleteEventIsNotDispatched() throws Exception {
+        feed("data: a\n");
+
+        assertEquals(0, mEvents.size());
+    }
+
+    @Test
+    public void lastEventId() throws Exception {
+        assertNull(mParser.getLastEventId());
+
+        feed("id: 42\ndata: a\n\nid: 43\n\n");
+        assertEquals("43", mParser.getLastEventId());
+
+        // ids with a null character are ignored
+        feed("id: 4\u00004\n\n");
+        assertEquals("43", mParser.getLastEventId());
+    }
+
+    @Test
+    public void retry() throws Exception {
+        assertEquals(-1, mParser.getRetry());
+
+        feed("retry: 2500\n\n");
+        assertEquals(2500, mParser.getRetry());
+
+        // values that are not all digits are ignored
+        feed("retry: 10s\n\nretry:\n\n");
+        assertEquals(2500, mParser.getRetry());
+    }
+
+    @Test
+    public void lineLongerThanTheBuffer() throws Exception {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            data.append((char) ('a' + i % 26));
+        }
+
+        feedByteByByte("data: " + data + "\n\n");
+
+        assertEquals(Arrays.asList(data.toString()), mEvents);
+    }
+
+    @Test
+    public void parseStream() throws Exception {
+        byte[] stream = "data: initialized\r\n\r\ndata: {\"C\":\"1\"}\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+        mParser.parse(new ByteArrayInputStream(stream));
+
+        assertEquals(Arrays.asList("initialized", "{\"C\":\"1\"}"), mEvents);
+    }
+
+    private void feed(String text) throws Exception {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        mParser.feed(bytes, 0, bytes.length);
+    }
+
+    private void feedByteByByte(String text) throws Exception {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            mParser.feed(bytes, i, 1);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.client.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import microsoft.aspnet.signalr.client.Connection;
+import microsoft.aspnet.signalr.client.MessageResult;
+import microsoft.aspnet.signalr.client.NullLogger;
+
+public class TransportHelperTest {
+
+    private RecordingConnection mConnection;
+
+    /**
+     * A connection that records what the transport helper hands to it
+     */
+    static class RecordingConnection extends Connection {
+        final List<JSONObject> mReceived = new ArrayList<JSONObject>();
+        final List<Throwable> mErrors = new ArrayList<Throwable>();
+        final List<Boolean> mMustClean = new ArrayList<Boolean>();
+
+        RecordingConnection() {
+            super("http://localhost/", new NullLogger(), false);
+        }
+
+        @Override
+        public void onReceived(JSONObject message) {
+            mReceived.add(message);
+        }
+
+        @Override
+        public void onReceived(List<JSONObject> messages) {
+            mReceived.addAll(messages);
+        }
+
+        @Override
+        public void onError(Throwable error, boolean mustCleanCurrentConnection) {
+            mErrors.add(error);
+            mMustClean.add(mustCleanCurrentConnection);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mConnection = new RecordingConnection();
+    }
+
+    @Test
+    public void keepAliveIsIgnored() {
+        MessageResult result = process("{}");
+
+        assertTrue(mConnection.mReceived.isEmpty());
+        assertFalse(result.disconnect());
+        assertFalse(result.reconnect());
+        assertTrue(mConnection.mErrors.isEmpty());
+    }
+
+    @Test
+    public void messageIdBeforeMessages() {
+        process("{\"C\":\"d-1\",\"M\":[{\"H\":\"hub\",\"M\":\"a\",\"A\":[]},{\"H\":\"hub\",\"M\":\"b\",\"A\":[]}]}");
+
+        assertEquals("d-1", mConnection.getMessageId());
+        assertEquals(2, mConnection.mReceived.size());
+        assertEquals("b", mConnection.mReceived.get(1).getString("M"));
+    }
+
+    @Test
+    public void messageIdAfterMessages() {
+        process("{\"M\":[{\"H\":\"hub\",\"M\":\"a\",\"A\":[]}],\"C\":\"x\"}");
+
+        assertEquals("x", mConnection.getMessageId());
+        assertEquals(1, mConnection.mReceived.size());
+        assertTrue(mConnection.mErrors.isEmpty());
+    }
+
+    @Test
+    public void disconnectAfterMessagesDropsThem() {
+        MessageResult result = process("{\"M\":[{\"H\":\"hub\",\"M\":\"a\",\"A\":[]}],\"D\":1}");
+
+        assertTrue(result.disconnect());
+        assertTrue(mConnection.mReceived.isEmpty());
+    }
+
+    @Test
+    public void disconnectBeforeMessages() {
+        MessageResult result = process("{\"C\":\"d-1\",\"D\":1,\"M\":[{\"H\":\"hub\",\"M\":\"a\",\"A\":[]}]}");
+
+        assertTrue(result.disconnect());
+        assertTrue(mConnection.mReceived.isEmpty());
+    }
+
+    @Test
+    public void reconnectAfterMessages() {
+        MessageResult result = process("{\"M\":[{\"H\":\"hub\",\"M\":\"a\",\"A\":[]}],\"C\":\"x\",\"T\":1}");
+
+        assertTrue(result.reconnect());
+        assertEquals("x", mConnection.getMessageId());
+        assertEquals(1, mConnection.mReceived.size());
+    }
+
+    @Test
+    public void groupsTokenAndInitializationAfterMessages() {
+        MessageResult result = process("{\"M\":[],\"C\":\"x\",\"G\":\"groups\",\"S\":1}");
+
+        assertEquals("groups", mConnection.getGroupsToken());
+        assertEquals("x", mConnection.getMessageId());
+        assertTrue(result.initialize());
+    }
+
+    @Test
+    public void messagesInAString() {
+        process("{\"C\":\"d-1\",\"M\":\"[{\\\"H\\\":\\\"hub\\\",\\\"M\\\":\\\"a\\\",\\\"A\\\":[]}]\"}");
+
+        assertEquals(1, mConnection.mReceived.size());
+        assertEquals("a", mConnection.mReceived.get(0).getString("M"));
+    }
+
+    @Test
+    public void invocationResultIsDeliveredWhole() {
+        process("{\"I\":\"3\",\"R\":{\"value\":5}}");
+
+        assertEquals(1, mConnection.mReceived.size());
+        assertEquals("3", mConnection.mReceived.get(0).getString("I"));
+        assertNull(mConnection.getMessageId());
+    }
+
+    @Test
+    public void bytesAreParsedInPlace() {
+        byte[] data = "xx{\"M\":[{\"H\":\"hub\",\"M\":\"a\",\"A\":[]}],\"C\":\"x\"}yy".getBytes(StandardCharsets.UTF_8);
+        TransportHelper.processReceivedData(data, 2, data.length - 4, mConnection);
+
+        assertEquals("x", mConnection.getMessageId());
+        assertEquals(1, mConnection.mReceived.size());
+    }
+
+    @Test
+    public void invalidPayloadIsReported() {
+        process("[1,2]");
+
+        assertEquals(1, mConnection.mErrors.size());
+        assertTrue(mConnection.mReceived.isEmpty());
+    }
+
+    @Test
+    public void streamedMessagesMoveTheMessageIdOnceRead() {
+        byte[] data = "{\"C\":\"d-1\",\"M\":[{\"H\":\"hub\",\"M\":\"a\",\"A\":[]}]}".getBytes(StandardCharsets.UTF_8);
+        TransportHelper.processReceivedData(new ByteArrayInputStream(data), mConnection);
+
+        assertEquals("d-1", mConnection.getMessageId());
+        assertEquals(1, mConnection.mReceived.size());
+        assertTrue(mConnection.mErrors.isEmpty());
+    }
+
+    @Test
+    public void brokenStreamKeepsTheMessageId() {
+        mConnection.setMessageId("old");
+        String payload = "{\"C\":\"new\",\"M\":[{\"H\":\"hub\",\"M\":\"a\",\"A\":[]},"
+                + "{\"H\":\"hub\",\"M\":\"b\",\"A\":[]},{\"H\":\"hub\",\"M\":\"c\",\"A\":[]}]}";
+        TransportHelper.processReceivedData(new BrokenStream(payload.getBytes(StandardCharsets.UTF_8), 50), mConnection);
+
+        assertEquals("old", mConnection.getMessageId());
+        assertEquals(1, mConnection.mErrors.size());
+        assertTrue(mConnection.mMustClean.get(0));
+    }
+
+    @Test
+    public void truncatedStreamKeepsTheMessageId() {
+        mConnection.setMessageId("old");
+        byte[] data = "{\"C\":\"new\",\"M\":[{\"H\":\"hub\",\"M\":\"a\",\"A\":[]},".getBytes(StandardCharsets.UTF_8);
+        TransportHelper.processReceivedData(new ByteArrayInputStream(data), mConnection);
+
+        assertEquals("old", mConnection.getMessageId());
+        assertEquals(1, mConnection.mErrors.size());
+    }
+
+    /**
+     * Stream that fails after a number of bytes, as a connection that drops
+     * in the middle of a response
+     */
+    static class BrokenStream extends InputStream {
+        private final byte[] mData;
+        private final int mFailAt;
+        private int mPosition = 0;
+
+        BrokenStream(byte[] data, int failAt) {
+            mData = data;
+            mFailAt = failAt;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mPosition == mFailAt) {
+                throw new IOException("Connection reset");
+            }
+
+            return mPosition < mData.length ? mData[mPosition++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            int value = read();
+            if (value == -1) {
+                return -1;
+            }
+
+            buffer[offset] = (byte) value;
+            return 1;
+        }
+    }
+
+    private MessageResult process(String data) {
+        return TransportHelper.processReceivedData(data, mConnection);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.loadgenerator;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Snapshot of the heap, threads and garbage collections of the JVM
+ */
+class JvmStats {
+
+    final long mHeapUsed;
+    final long mHeapCommitted;
+    final int mThreadCount;
+    final int mPeakThreadCount;
+    final long mGcCount;
+    final long mGcTime;
+
+    private JvmStats(long heapUsed, long heapCommitted, int threadCount, int peakThreadCount, long gcCount, long gcTime) {
+        mHeapUsed = heapUsed;
+        mHeapCommitted = heapCommitted;
+        mThreadCount = threadCount;
+        mPeakThreadCount = peakThreadCount;
+        mGcCount = gcCount;
+        mGcTime = gcTime;
+    }
+
+    /**
+     * Takes a snapshot
+     */
+    static JvmStats capture() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(collector.getCollectionCount(), 0);
+            gcTime += Math.max(collector.getCollectionTime(), 0);
+        }
+
+        return new JvmStats(heap.getUsed(), heap.getCommitted(), ManagementFactory.getThreadMXBean().getThreadCount(),
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), gcCount, gcTime);
+    }
+
+    /**
+     * Formats the snapshot, with the collections since a previous one
+     */
+    String format(JvmStats previous) {
+        return String.format("heap %d/%d MB, threads %d (peak %d), gc %d in %d ms", mHeapUsed >> 20, mHeapCommitted >> 20, mThreadCount,
+                mPeakThreadCount, mGcCount - previous.mGcCount, mGcTime - previous.mGcTime);
+    }
+}
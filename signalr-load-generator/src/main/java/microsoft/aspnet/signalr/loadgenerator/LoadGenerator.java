@@ -0,0 +1,385 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.loadgenerator;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import microsoft.aspnet.signalr.client.Action;
+import microsoft.aspnet.signalr.client.ConnectionState;
+import microsoft.aspnet.signalr.client.ErrorCallback;
+import microsoft.aspnet.signalr.client.Logger;
+import microsoft.aspnet.signalr.client.NullLogger;
+import microsoft.aspnet.signalr.client.SignalRFuture;
+import microsoft.aspnet.signalr.client.hubs.HubConnection;
+import microsoft.aspnet.signalr.client.hubs.HubProxy;
+import microsoft.aspnet.signalr.client.transport.ClientTransport;
+import microsoft.aspnet.signalr.client.transport.LongPollingTransport;
+import microsoft.aspnet.signalr.client.transport.ServerSentEventsTransport;
+import microsoft.aspnet.signalr.client.transport.WebsocketTransport;
+import microsoft.aspnet.signalr.testserver.HubMethod;
+import microsoft.aspnet.signalr.testserver.StandInServer;
+
+/**
+ * Opens many hub connections in one JVM and drives invocations and
+ * broadcasts through them at constant rates, reporting the throughput, the
+ * latency percentiles and the heap, threads and garbage collections.
+ *
+ * Invocation latencies are measured from the time the invocation should have
+ * been sent according to the rate, so a client that falls behind shows up in
+ * the percentiles instead of lowering the rate. Receive latencies are only
+ * measured with the in-process stand-in server, which shares the clock of
+ * the clients.
+ */
+public class LoadGenerator {
+
+    private static final String HUB_NAME = "loadHub";
+    private static final String ECHO_METHOD = "echo";
+    private static final String TICK_EVENT = "tick";
+
+    private static final long DRIVER_TICK_MILLISECONDS = 1;
+    private static final long START_TIMEOUT_SECONDS = 30;
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final LoadOptions mOptions;
+    private final String mPayload;
+
+    private final Recorder mInvokeLatency = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder mReceiveLatency = new Recorder(SIGNIFICANT_DIGITS);
+    private final AtomicLong mReceiveCount = new AtomicLong();
+    private final AtomicLong mInvokeErrorCount = new AtomicLong();
+    private final AtomicLong mPendingInvocations = new AtomicLong();
+
+    private final List<HubConnection> mConnections = new ArrayList<HubConnection>();
+    private final List<HubProxy> mProxies = new ArrayList<HubProxy>();
+
+    private StandInServer mServer;
+    private ScheduledExecutorService mDriver;
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadOptions.USAGE);
+            System.exit(1);
+            return;
+        }
+
+        if (options.mHelp) {
+            System.out.print(LoadOptions.USAGE);
+            return;
+        }
+
+        new LoadGenerator(options).run();
+    }
+
+    LoadGenerator(LoadOptions options) {
+        mOptions = options;
+
+        char[] payload = new char[options.mPayloadSize];
+        Arrays.fill(payload, 'x');
+        mPayload = new String(payload);
+    }
+
+    void run() throws Exception {
+        String url = mOptions.mUrl;
+        if (url == null) {
+            url = startServer();
+        }
+
+        System.out.println(String.format("Opening %d connections to %s with %s", mOptions.mConnections, url, mOptions.mTransport));
+        JvmStats beforeStart = JvmStats.capture();
+        long startTime = System.nanoTime();
+        int failed = openConnections(url);
+        long startDuration = System.nanoTime() - startTime;
+
+        System.out.println(String.format("%d connected, %d failed in %d ms, %s", mConnections.size() - failed, failed,
+                TimeUnit.NANOSECONDS.toMillis(startDuration), JvmStats.capture().format(beforeStart)));
+
+        mDriver = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SignalR-Load-Driver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        if (mOptions.mInvokeRate > 0) {
+            mDriver.scheduleAtFixedRate(new RateDriver(mOptions.mInvokeRate) {
+
+                private int mNext = 0;
+
+                @Override
+                void fire(long intendedTime) {
+                    invoke(mConnections.get(mNext), mProxies.get(mNext), intendedTime);
+                    mNext = (mNext + 1) % mProxies.size();
+                }
+            }, 0, DRIVER_TICK_MILLISECONDS, TimeUnit.MILLISECONDS);
+        }
+
+        if (mServer != null && mOptions.mReceiveRate > 0) {
+            mDriver.scheduleAtFixedRate(new RateDriver(mOptions.mReceiveRate) {
+
+                @Override
+                void fire(long intendedTime) {
+                    try {
+                        mServer.broadcast(HUB_NAME, TICK_EVENT, new JSONObject().put("sentTime", System.nanoTime()).put("payload", mPayload));
+                    } catch (JSONException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }, 0, DRIVER_TICK_MILLISECONDS, TimeUnit.MILLISECONDS);
+        }
+
+        measure();
+
+        mDriver.shutdownNow();
+        for (HubConnection connection : mConnections) {
+            connection.stop();
+        }
+
+        if (mServer != null) {
+            mServer.stop();
+        }
+    }
+
+    private String startServer() throws Exception {
+        mServer = new StandInServer();
+        mServer.setLatency(mOptions.mServerLatency, TimeUnit.MILLISECONDS);
+        mServer.registerHubMethod(HUB_NAME, ECHO_METHOD, new HubMethod() {
+
+            @Override
+            public Object invoke(String connectionId, JSONArray args) throws Exception {
+                return args.get(0);
+            }
+        });
+        mServer.start();
+
+        return mServer.getUrl();
+    }
+
+    /**
+     * Starts all the connections and waits for them
+     *
+     * @return The number of connections that failed to start
+     */
+    private int openConnections(String url) throws Exception {
+        Logger logger = new NullLogger();
+        List<SignalRFuture<Void>> starts = new ArrayList<SignalRFuture<Void>>();
+
+        for (int i = 0; i < mOptions.mConnections; i++) {
+            HubConnection connection = new HubConnection(url, null, false, logger, false);
+            HubProxy proxy = connection.createHubProxy(HUB_NAME);
+
+            // event arguments reach the handlers as JSON object strings
+            proxy.subscribe(TICK_EVENT).addReceivedHandler(new Action<Object[]>() {
+
+                @Override
+                public void run(Object[] args) throws Exception {
+                    mReceiveCount.incrementAndGet();
+                    if (mServer != null && args.length > 0) {
+                        long sentTime = new JSONObject(args[0].toString()).getLong("sentTime");
+                        mReceiveLatency.recordValue(Math.max(System.nanoTime() - sentTime, 0));
+                    }
+                }
+            });
+
+            mConnections.add(connection);
+            mProxies.add(proxy);
+            starts.add(connection.start(createTransport(logger)));
+        }
+
+        int failed = 0;
+        for (SignalRFuture<Void> start : starts) {
+            try {
+                start.get(START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                failed++;
+            }
+        }
+
+        return failed;
+    }
+
+    private ClientTransport createTransport(Logger logger) {
+        if (mOptions.mTransport.equals("longPolling")) {
+            return new LongPollingTransport(logger, false);
+        } else if (mOptions.mTransport.equals("webSockets")) {
+            return new WebsocketTransport(logger, false);
+        } else {
+            return new ServerSentEventsTransport(logger, false);
+        }
+    }
+
+    private void invoke(HubConnection connection, HubProxy proxy, final long intendedTime) {
+        if (connection.getState() != ConnectionState.Connected) {
+            mInvokeErrorCount.incrementAndGet();
+            return;
+        }
+
+        mPendingInvocations.incrementAndGet();
+        try {
+            proxy.invoke(String.class, ECHO_METHOD, mPayload).done(new Action<String>() {
+
+                @Override
+                public void run(String result) {
+                    mPendingInvocations.decrementAndGet();
+                    mInvokeLatency.recordValue(Math.max(System.nanoTime() - intendedTime, 0));
+                }
+            }).onError(new ErrorCallback() {
+
+                @Override
+                public void onError(Throwable error) {
+                    mPendingInvocations.decrementAndGet();
+                    mInvokeErrorCount.incrementAndGet();
+                }
+            });
+        } catch (Exception e) {
+            mPendingInvocations.decrementAndGet();
+            mInvokeErrorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Prints a report every interval, then the totals of the measurement
+     */
+    private void measure() throws InterruptedException {
+        long intervalMillis = TimeUnit.SECONDS.toMillis(mOptions.mReportInterval);
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(mOptions.mWarmup);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(mOptions.mDuration);
+
+        Histogram totalInvoke = new Histogram(SIGNIFICANT_DIGITS);
+        Histogram totalReceive = new Histogram(SIGNIFICANT_DIGITS);
+        long totalReceiveCount = 0;
+        long totalErrorCount = 0;
+        long measureStart = 0;
+
+        // discards what was recorded while the connections were opened
+        mInvokeLatency.getIntervalHistogram();
+        mReceiveLatency.getIntervalHistogram();
+        mReceiveCount.set(0);
+        mInvokeErrorCount.set(0);
+
+        JvmStats measureStartStats = null;
+        JvmStats previousStats = JvmStats.capture();
+        long previousTime = System.nanoTime();
+
+        while (System.nanoTime() - end < 0) {
+            Thread.sleep(Math.min(intervalMillis, Math.max(TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()), 1)));
+
+            long now = System.nanoTime();
+            double seconds = (now - previousTime) / 1e9;
+            previousTime = now;
+
+            Histogram invoke = mInvokeLatency.getIntervalHistogram();
+            Histogram receive = mReceiveLatency.getIntervalHistogram();
+            long receiveCount = mReceiveCount.getAndSet(0);
+            long errorCount = mInvokeErrorCount.getAndSet(0);
+            JvmStats stats = JvmStats.capture();
+
+            boolean warmingUp = now - warmupEnd < 0;
+            System.out.println(String.format("%s invoke %s | receive %s | errors %d, pending %d, connected %d | %s", warmingUp ? "[warmup]" : "[measure]",
+                    formatLatency(invoke, seconds), formatReceive(receive, receiveCount, seconds), errorCount, mPendingInvocations.get(), countConnected(),
+                    stats.format(previousStats)));
+            previousStats = stats;
+
+            if (!warmingUp) {
+                // the interval that ends the warmup is not counted
+                if (measureStartStats == null) {
+                    measureStartStats = stats;
+                    measureStart = now;
+                } else {
+                    totalInvoke.add(invoke);
+                    totalReceive.add(receive);
+                    totalReceiveCount += receiveCount;
+                    totalErrorCount += errorCount;
+                }
+            }
+        }
+
+        if (measureStartStats == null) {
+            return;
+        }
+
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+        System.out.println();
+        System.out.println(String.format("Connections: %d, transport: %s, %d connected at the end", mConnections.size(), mOptions.mTransport, countConnected()));
+        System.out.println("Invoke:  " + formatLatency(totalInvoke, seconds) + ", errors " + totalErrorCount);
+        System.out.println("Receive: " + formatReceive(totalReceive, totalReceiveCount, seconds));
+        System.out.println("JVM:     " + JvmStats.capture().format(measureStartStats));
+    }
+
+    private int countConnected() {
+        int connected = 0;
+        for (HubConnection connection : mConnections) {
+            if (connection.getState() == ConnectionState.Connected) {
+                connected++;
+            }
+        }
+
+        return connected;
+    }
+
+    private String formatReceive(Histogram histogram, long count, double seconds) {
+        if (mServer != null) {
+            return formatLatency(histogram, seconds);
+        }
+
+        return String.format("%.0f/s", count / seconds);
+    }
+
+    private static String formatLatency(Histogram histogram, double seconds) {
+        if (histogram.getTotalCount() == 0) {
+            return "0/s";
+        }
+
+        return String.format("%.0f/s p50 %.3f p90 %.3f p99 %.3f p99.9 %.3f max %.3f ms", histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(90) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6, histogram.getMaxValue() / 1e6);
+    }
+
+    /**
+     * Fires at a constant rate from a fixed rate schedule, catching up when a
+     * tick runs late
+     */
+    private abstract static class RateDriver implements Runnable {
+        private final long mRate;
+        private final long mStartTime = System.nanoTime();
+        private long mFired = 0;
+
+        RateDriver(long rate) {
+            mRate = rate;
+        }
+
+        @Override
+        public void run() {
+            long expected = (System.nanoTime() - mStartTime) / 1000 * mRate / 1000000;
+            while (mFired < expected) {
+                fire(mStartTime + mFired * 1000000000L / mRate);
+                mFired++;
+            }
+        }
+
+        abstract void fire(long intendedTime);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.loadgenerator;
+
+/**
+ * Command line options of the load generator
+ */
+class LoadOptions {
+
+    static final String USAGE = "Usage: LoadGenerator [options]\n"
+            + "  --url <url>                 SignalR endpoint. Defaults to an in-process stand-in server\n"
+            + "  --connections <n>           Number of hub connections (default 100)\n"
+            + "  --transport <name>          serverSentEvents, longPolling or webSockets (default serverSentEvents)\n"
+            + "  --invoke-rate <n>           Hub invocations per second, over all the connections (default 1000)\n"
+            + "  --receive-rate <n>          Broadcasts per second, each one received by every connection (default 10).\n"
+            + "                              Only used with the stand-in server\n"
+            + "  --payload-size <bytes>      Size of the invocation and broadcast payloads (default 32)\n"
+            + "  --server-latency <ms>       One-way latency of the stand-in server (default 0)\n"
+            + "  --warmup <seconds>          Time before the measurement starts (default 10)\n"
+            + "  --duration <seconds>        Duration of the measurement (default 60)\n"
+            + "  --report-interval <seconds> Time between two reports (default 5)\n"
+            + "  --help                      Prints the options and exits\n";
+
+    String mUrl = null;
+    int mConnections = 100;
+    String mTransport = "serverSentEvents";
+    long mInvokeRate = 1000;
+    long mReceiveRate = 10;
+    int mPayloadSize = 32;
+    long mServerLatency = 0;
+    long mWarmup = 10;
+    long mDuration = 60;
+    long mReportInterval = 5;
+    boolean mHelp = false;
+
+    /**
+     * Parses the command line
+     *
+     * @param args The command line arguments
+     * @return The options
+     * @throws IllegalArgumentException If an argument is not valid
+     */
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (name.equals("--help")) {
+                options.mHelp = true;
+                return options;
+            }
+
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + name);
+            }
+
+            String value = args[++i];
+            if (name.equals("--url")) {
+                options.mUrl = value;
+            } else if (name.equals("--connections")) {
+                options.mConnections = (int) parsePositive(name, value);
+            } else if (name.equals("--transport")) {
+                if (!value.equals("serverSentEvents") && !value.equals("longPolling") && !value.equals("webSockets")) {
+                    throw new IllegalArgumentException("Unknown transport: " + value);
+                }
+                options.mTransport = value;
+            } else if (name.equals("--invoke-rate")) {
+                options.mInvokeRate = parseNonNegative(name, value);
+            } else if (name.equals("--receive-rate")) {
+                options.mReceiveRate = parseNonNegative(name, value);
+            } else if (name.equals("--payload-size")) {
+                options.mPayloadSize = (int) parseNonNegative(name, value);
+            } else if (name.equals("--server-latency")) {
+                options.mServerLatency = parseNonNegative(name, value);
+            } else if (name.equals("--warmup")) {
+                options.mWarmup = parseNonNegative(name, value);
+            } else if (name.equals("--duration")) {
+                options.mDuration = parsePositive(name, value);
+            } else if (name.equals("--report-interval")) {
+                options.mReportInterval = parsePositive(name, value);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+
+        return options;
+    }
+
+    private static long parseNonNegative(String name, String value) {
+        long parsed;
+        try {
+            parsed = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+
+        if (parsed < 0) {
+            throw new IllegalArgumentException(name + " cannot be negative");
+        }
+
+        return parsed;
+    }
+
+    private static long parsePositive(String name, String value) {
+        long parsed = parseNonNegative(name, value);
+        if (parsed == 0) {
+            throw new IllegalArgumentException(name + " must be greater than zero");
+        }
+
+        return parsed;
+    }
+}
@@ -0,0 +1,25 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.testserver;
+
+import org.json.JSONArray;
+
+/**
+ * Server side implementation of a hub method
+ */
+public interface HubMethod {
+    /**
+     * Invokes the method
+     *
+     * @param connectionId Id of the calling connection
+     * @param args         The invocation arguments
+     * @return The result sent back to the caller, or null
+     * @throws Exception The message of the exception is sent back as the
+     *                   invocation error
+     */
+    public Object invoke(String connectionId, JSONArray args) throws Exception;
+}
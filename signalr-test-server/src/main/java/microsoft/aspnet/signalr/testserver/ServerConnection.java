@@ -0,0 +1,210 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.testserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server side state of a client connection. Outgoing messages are queued
+ * until the transport currently attached to the connection takes them, so
+ * they survive polls and reconnections.
+ */
+class ServerConnection {
+
+    private final String mConnectionId;
+    private final String mConnectionToken;
+
+    private final ArrayDeque<Outgoing> mQueue = new ArrayDeque<Outgoing>();
+
+    private long mMessageId = 0;
+
+    // a new transport request supersedes the previous one
+    private long mGeneration = 0;
+    private Closeable mStream = null;
+    private long mDetachedSince = System.nanoTime();
+
+    ServerConnection(String connectionId, String connectionToken) {
+        mConnectionId = connectionId;
+        mConnectionToken = connectionToken;
+    }
+
+    String getConnectionId() {
+        return mConnectionId;
+    }
+
+    String getConnectionToken() {
+        return mConnectionToken;
+    }
+
+    /**
+     * Queues a message
+     *
+     * @param payload      The JSON payload
+     * @param isHubMessage True if the payload is a hub message, which is
+     *                     batched with the following ones in a "M" array.
+     *                     Otherwise it is sent by itself.
+     * @param delayNanos   Time before the message can be sent
+     */
+    synchronized void enqueue(String payload, boolean isHubMessage, long delayNanos) {
+        mQueue.add(new Outgoing(payload, isHubMessage, System.nanoTime() + delayNanos));
+        notifyAll();
+    }
+
+    /**
+     * Queues the message that completes the initialization of the connection
+     */
+    synchronized void enqueueInitialization(long delayNanos) {
+        enqueue("{\"C\":\"" + nextMessageId() + "\",\"S\":1,\"M\":[]}", false, delayNanos);
+    }
+
+    /**
+     * Attaches a transport stream, closing the previous one
+     *
+     * @return The generation of the stream, used to take messages
+     */
+    synchronized long attach(Closeable stream) {
+        closeQuietly(mStream);
+        mStream = stream;
+        mDetachedSince = 0;
+        notifyAll();
+        return ++mGeneration;
+    }
+
+    /**
+     * Detaches a stream if it is still the current one
+     */
+    synchronized void detach(long generation) {
+        if (mGeneration == generation) {
+            mStream = null;
+            mDetachedSince = System.nanoTime();
+            mGeneration++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Closes the current stream, so the client has to reconnect
+     */
+    synchronized void drop() {
+        if (mStream != null) {
+            closeQuietly(mStream);
+            mStream = null;
+            mDetachedSince = System.nanoTime();
+        }
+        mGeneration++;
+        notifyAll();
+    }
+
+    /**
+     * Indicates if no stream was attached for longer than the timeout
+     */
+    synchronized boolean isExpired(long now, long timeoutNanos) {
+        return mStream == null && now - mDetachedSince > timeoutNanos;
+    }
+
+    synchronized boolean isAttached(long generation) {
+        return mGeneration == generation;
+    }
+
+    /**
+     * Waits for the next payload to send
+     *
+     * @param generation The stream generation
+     * @param timeout    Maximum time to wait
+     * @param unit       Unit of the timeout
+     * @param maxBatch   Maximum number of hub messages in a payload
+     * @return The payload, or null if the time elapsed or the stream was
+     *         detached
+     */
+    synchronized String take(long generation, long timeout, TimeUnit unit, int maxBatch) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (mGeneration == generation) {
+            long now = System.nanoTime();
+            Outgoing first = mQueue.peek();
+
+            if (first != null && first.mDue - now <= 0) {
+                return poll(now, maxBatch);
+            }
+
+            long wait = deadline - now;
+            if (wait <= 0) {
+                return null;
+            }
+
+            if (first != null) {
+                wait = Math.min(wait, first.mDue - now);
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, wait);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns a payload without messages, for polls that timed out
+     */
+    synchronized String emptyPayload() {
+        return "{\"C\":\"" + currentMessageId() + "\",\"M\":[]}";
+    }
+
+    /**
+     * Returns the id of the last payload
+     */
+    synchronized String currentMessageId() {
+        return "d-" + mMessageId;
+    }
+
+    private String poll(long now, int maxBatch) {
+        Outgoing first = mQueue.poll();
+        if (!first.mHubMessage) {
+            return first.mPayload;
+        }
+
+        StringBuilder payload = new StringBuilder(first.mPayload.length() + 32);
+        payload.append("{\"C\":\"").append(nextMessageId()).append("\",\"M\":[").append(first.mPayload);
+
+        int count = 1;
+        Outgoing next;
+        while (count < maxBatch && (next = mQueue.peek()) != null && next.mHubMessage && next.mDue - now <= 0) {
+            mQueue.poll();
+            payload.append(',').append(next.mPayload);
+            count++;
+        }
+
+        return payload.append("]}").toString();
+    }
+
+    private String nextMessageId() {
+        return "d-" + (++mMessageId);
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // the stream is discarded anyway
+            }
+        }
+    }
+
+    private static class Outgoing {
+        final String mPayload;
+        final boolean mHubMessage;
+        final long mDue;
+
+        Outgoing(String payload, boolean isHubMessage, long due) {
+            mPayload = payload;
+            mHubMessage = isHubMessage;
+            mDue = due;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.testserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * HTTP/1.1 request read from a socket. Only what the SignalR client sends is
+ * supported: a request line, headers and an optional Content-Length body.
+ */
+class StandInRequest {
+
+    private static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    private final String mMethod;
+    private final String mPath;
+    private final Map<String, String> mQuery;
+    private final Map<String, String> mHeaders;
+    private final String mBody;
+
+    private StandInRequest(String method, String path, Map<String, String> query, Map<String, String> headers, String body) {
+        mMethod = method;
+        mPath = path;
+        mQuery = query;
+        mHeaders = headers;
+        mBody = body;
+    }
+
+    /**
+     * Reads a request
+     *
+     * @param stream The socket stream
+     * @return The request, or null if the stream ended before a request
+     */
+    static StandInRequest read(InputStream stream) throws IOException {
+        String requestLine = readLine(stream);
+        if (requestLine == null || requestLine.length() == 0) {
+            return null;
+        }
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3) {
+            throw new IOException("Invalid request line: " + requestLine);
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = readLine(stream)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+            }
+        }
+
+        String body = null;
+        String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            byte[] content = new byte[Integer.parseInt(contentLength)];
+            int read = 0;
+            while (read < content.length) {
+                int count = stream.read(content, read, content.length - read);
+                if (count == -1) {
+                    throw new EOFException("The request body ended early");
+                }
+                read += count;
+            }
+            body = new String(content, "UTF-8");
+        }
+
+        String target = parts[1];
+        int question = target.indexOf('?');
+        String path = question == -1 ? target : target.substring(0, question);
+        Map<String, String> query = question == -1 ? new HashMap<String, String>() : parseForm(target.substring(question + 1));
+
+        return new StandInRequest(parts[0], path, query, headers, body);
+    }
+
+    String getMethod() {
+        return mMethod;
+    }
+
+    String getPath() {
+        return mPath;
+    }
+
+    /**
+     * Returns a decoded query string parameter, or null
+     */
+    String getParameter(String name) {
+        return mQuery.get(name);
+    }
+
+    /**
+     * Returns a header, or null. Header names are case insensitive.
+     */
+    String getHeader(String name) {
+        return mHeaders.get(name.toLowerCase(Locale.US));
+    }
+
+    String getBody() {
+        return mBody;
+    }
+
+    /**
+     * Returns a decoded parameter of the form encoded body, or null
+     */
+    String getFormParameter(String name) {
+        return mBody == null ? null : parseForm(mBody).get(name);
+    }
+
+    boolean isWebSocketUpgrade() {
+        String upgrade = getHeader("Upgrade");
+        return upgrade != null && upgrade.equalsIgnoreCase("websocket");
+    }
+
+    static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, String> parseForm(String form) {
+        Map<String, String> values = new HashMap<String, String>();
+        for (String pair : form.split("&")) {
+            if (pair.length() == 0) {
+                continue;
+            }
+
+            int equals = pair.indexOf('=');
+            if (equals == -1) {
+                values.put(decode(pair), "");
+            } else {
+                values.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+            }
+        }
+
+        return values;
+    }
+
+    private static String readLine(InputStream stream) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = stream.read()) != -1) {
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new IOException("Request line too long");
+            }
+            line.append((char) b);
+        }
+
+        return line.length() == 0 ? null : line.toString();
+    }
+}
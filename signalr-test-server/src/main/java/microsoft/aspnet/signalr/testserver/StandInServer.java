@@ -0,0 +1,924 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.testserver;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for an ASP.NET SignalR 2 server, speaking protocol 1.3
+ * on the loopback interface. It implements negotiate, connect, reconnect,
+ * poll, send, abort and ping over long polling, server sent events and
+ * WebSockets, replies to hub invocations and sends keep-alives. Latency,
+ * message rate and failures can be configured, so it can back integration
+ * tests and benchmarks on a machine with no network.
+ */
+public class StandInServer {
+
+    private static final String DEFAULT_PATH = "/signalr/";
+    private static final String PROTOCOL_VERSION = "1.3";
+    private static final String KEEP_ALIVE = "{}";
+
+    private static final long DEFAULT_KEEP_ALIVE_INTERVAL = 10000;
+    private static final long DEFAULT_DISCONNECT_TIMEOUT = 30000;
+    private static final long DEFAULT_LONG_POLL_TIMEOUT = 110000;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    private static final long BROADCAST_TICK_MILLISECONDS = 10;
+    private static final long EXPIRATION_CHECK_MILLISECONDS = 1000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int mRequestedPort;
+    private final String mPath;
+
+    private final Map<String, ServerConnection> mConnections = new ConcurrentHashMap<String, ServerConnection>();
+    private final Map<String, HubMethod> mHubMethods = new ConcurrentHashMap<String, HubMethod>();
+
+    private final AtomicLong mInvocationCount = new AtomicLong();
+    private final AtomicLong mMessageCount = new AtomicLong();
+    private final AtomicLong mInjectedFailureCount = new AtomicLong();
+
+    private volatile long mKeepAliveInterval = DEFAULT_KEEP_ALIVE_INTERVAL;
+    private volatile boolean mKeepAlivesSuppressed = false;
+    private volatile long mDisconnectTimeout = DEFAULT_DISCONNECT_TIMEOUT;
+    private volatile long mLongPollTimeout = DEFAULT_LONG_POLL_TIMEOUT;
+    private volatile long mLatencyNanos = 0;
+    private volatile double mFailureRate = 0;
+    private volatile boolean mTryWebSockets = true;
+    private volatile int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private ServerSocket mServerSocket;
+    private ExecutorService mExecutor;
+    private ScheduledExecutorService mScheduler;
+    private ScheduledFuture<?> mBroadcast;
+    private volatile boolean mRunning = false;
+
+    /**
+     * Initializes a server on an ephemeral port
+     */
+    public StandInServer() {
+        this(0);
+    }
+
+    /**
+     * Initializes a server
+     *
+     * @param port The port to listen on, or 0 for an ephemeral port
+     */
+    public StandInServer(int port) {
+        this(port, DEFAULT_PATH);
+    }
+
+    /**
+     * Initializes a server
+     *
+     * @param port The port to listen on, or 0 for an ephemeral port
+     * @param path The path of the SignalR endpoint, like "/signalr/"
+     */
+    public StandInServer(int port, String path) {
+        if (path == null) {
+            throw new IllegalArgumentException("path cannot be null");
+        }
+
+        if (port < 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("port must be between 0 and 65535");
+        }
+
+        if (!path.startsWith("/")) {
+            path = "/" + path;
+        }
+
+        if (!path.endsWith("/")) {
+            path += "/";
+        }
+
+        mRequestedPort = port;
+        mPath = path;
+    }
+
+    /**
+     * Starts listening
+     */
+    public synchronized void start() throws IOException {
+        if (mRunning) {
+            return;
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SignalR-StandIn-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SignalR-StandIn-Broadcast");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        mServerSocket = new ServerSocket();
+        mServerSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), mRequestedPort), 1024);
+        mRunning = true;
+
+        mScheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                removeExpiredConnections();
+            }
+        }, EXPIRATION_CHECK_MILLISECONDS, EXPIRATION_CHECK_MILLISECONDS, TimeUnit.MILLISECONDS);
+
+        final ServerSocket serverSocket = mServerSocket;
+        mExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                acceptConnections(serverSocket);
+            }
+        });
+    }
+
+    /**
+     * Stops listening and closes every connection
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+
+        mRunning = false;
+        stopBroadcasting();
+
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // the server is stopping anyway
+        }
+
+        for (ServerConnection connection : mConnections.values()) {
+            connection.drop();
+        }
+        mConnections.clear();
+
+        mScheduler.shutdownNow();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server listens on
+     */
+    public int getPort() {
+        ServerSocket serverSocket = mServerSocket;
+        if (serverSocket == null) {
+            throw new IllegalStateException("The server is not started");
+        }
+
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the URL to give to the client connections
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + getPort() + mPath;
+    }
+
+    /**
+     * Registers the implementation of a hub method. Hub and method names are
+     * case insensitive.
+     *
+     * @param hubName    The hub name
+     * @param methodName The method name
+     * @param method     The implementation
+     */
+    public void registerHubMethod(String hubName, String methodName, HubMethod method) {
+        if (hubName == null) {
+            throw new IllegalArgumentException("hubName cannot be null");
+        }
+
+        if (methodName == null) {
+            throw new IllegalArgumentException("methodName cannot be null");
+        }
+
+        if (method == null) {
+            throw new IllegalArgumentException("method cannot be null");
+        }
+
+        mHubMethods.put(hubMethodKey(hubName, methodName), method);
+    }
+
+    /**
+     * Sets the interval between keep-alives. The negotiate response
+     * advertises a keep-alive timeout of twice the interval, like the real
+     * server.
+     *
+     * @param interval The interval in milliseconds
+     */
+    public void setKeepAliveInterval(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be greater than zero");
+        }
+
+        mKeepAliveInterval = interval;
+    }
+
+    /**
+     * Stops sending keep-alives while still advertising them, so the clients
+     * detect a silent connection
+     */
+    public void setKeepAlivesSuppressed(boolean suppressed) {
+        mKeepAlivesSuppressed = suppressed;
+    }
+
+    /**
+     * Sets the disconnect timeout advertised on negotiate. Connections that
+     * have no transport for longer than it are removed.
+     *
+     * @param timeout The timeout in milliseconds
+     */
+    public void setDisconnectTimeout(long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be greater than zero");
+        }
+
+        mDisconnectTimeout = timeout;
+    }
+
+    /**
+     * Sets how long a poll waits for messages before returning empty
+     *
+     * @param timeout The timeout in milliseconds
+     */
+    public void setLongPollTimeout(long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be greater than zero");
+        }
+
+        mLongPollTimeout = timeout;
+    }
+
+    /**
+     * Sets a one-way latency added to every response and message
+     *
+     * @param latency The latency
+     * @param unit    The unit of the latency
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        if (unit == null) {
+            throw new IllegalArgumentException("unit cannot be null");
+        }
+
+        if (latency < 0) {
+            throw new IllegalArgumentException("latency cannot be negative");
+        }
+
+        mLatencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * Sets the probability of failing a negotiate, connect, reconnect, poll
+     * or send request with a 500 status, or a WebSocket handshake
+     *
+     * @param failureRate A probability between 0 and 1
+     */
+    public void setFailureRate(double failureRate) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("failureRate must be between 0 and 1");
+        }
+
+        mFailureRate = failureRate;
+    }
+
+    /**
+     * Sets the TryWebSockets value of the negotiate response
+     */
+    public void setTryWebSockets(boolean tryWebSockets) {
+        mTryWebSockets = tryWebSockets;
+    }
+
+    /**
+     * Sets the maximum number of hub messages sent in a single payload
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be greater than zero");
+        }
+
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Invokes a client method on a single connection
+     *
+     * @param connectionId The connection id
+     * @param hubName      The hub name
+     * @param methodName   The client method name
+     * @param args         The arguments
+     * @return True if the connection exists
+     */
+    public boolean send(String connectionId, String hubName, String methodName, Object... args) {
+        for (ServerConnection connection : mConnections.values()) {
+            if (connection.getConnectionId().equals(connectionId)) {
+                enqueueHubMessage(connection, createHubMessage(hubName, methodName, args));
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Invokes a client method on every connection
+     *
+     * @param hubName    The hub name
+     * @param methodName The client method name
+     * @param args       The arguments
+     */
+    public void broadcast(String hubName, String methodName, Object... args) {
+        broadcast(createHubMessage(hubName, methodName, args));
+    }
+
+    /**
+     * Broadcasts a client method invocation at a constant rate, until
+     * stopBroadcasting is called. Messages that are ready at the same time
+     * are sent in batches.
+     *
+     * @param messagesPerSecond The rate
+     * @param hubName           The hub name
+     * @param methodName        The client method name
+     * @param args              The arguments
+     */
+    public synchronized void startBroadcasting(final long messagesPerSecond, String hubName, String methodName, Object... args) {
+        if (messagesPerSecond <= 0) {
+            throw new IllegalArgumentException("messagesPerSecond must be greater than zero");
+        }
+
+        if (!mRunning) {
+            throw new IllegalStateException("The server is not started");
+        }
+
+        stopBroadcasting();
+
+        final String message = createHubMessage(hubName, methodName, args);
+        final long startTime = System.nanoTime();
+
+        mBroadcast = mScheduler.scheduleAtFixedRate(new Runnable() {
+
+            private long mSent = 0;
+
+            @Override
+            public void run() {
+                long expected = (System.nanoTime() - startTime) / 1000 * messagesPerSecond / 1000000;
+                while (mSent < expected) {
+                    broadcast(message);
+                    mSent++;
+                }
+            }
+        }, 0, BROADCAST_TICK_MILLISECONDS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the broadcast started with startBroadcasting
+     */
+    public synchronized void stopBroadcasting() {
+        if (mBroadcast != null) {
+            mBroadcast.cancel(false);
+            mBroadcast = null;
+        }
+    }
+
+    /**
+     * Closes the transport stream of every connection, keeping the
+     * connections, so the clients have to reconnect. Messages being written
+     * may be lost, queued ones are delivered after the reconnection.
+     */
+    public void dropConnections() {
+        for (ServerConnection connection : mConnections.values()) {
+            connection.drop();
+        }
+    }
+
+    /**
+     * Returns the number of connections negotiated and not aborted or
+     * expired
+     */
+    public int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    /**
+     * Returns the number of hub invocations received
+     */
+    public long getInvocationCount() {
+        return mInvocationCount.get();
+    }
+
+    /**
+     * Returns the number of hub messages queued for the clients
+     */
+    public long getMessageCount() {
+        return mMessageCount.get();
+    }
+
+    /**
+     * Returns the number of failures injected
+     */
+    public long getInjectedFailureCount() {
+        return mInjectedFailureCount.get();
+    }
+
+    private void removeExpiredConnections() {
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(mDisconnectTimeout);
+        for (ServerConnection connection : mConnections.values()) {
+            if (connection.isExpired(now, timeout)) {
+                mConnections.remove(connection.getConnectionToken());
+            }
+        }
+    }
+
+    private void acceptConnections(ServerSocket serverSocket) {
+        while (mRunning) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // the socket is closed when the server stops
+                continue;
+            }
+
+            try {
+                mExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            } catch (RuntimeException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            StandInRequest request = StandInRequest.read(input);
+            if (request == null) {
+                return;
+            }
+
+            if (!request.getPath().startsWith(mPath)) {
+                respond(socket, 404, "Not found");
+                return;
+            }
+
+            String action = request.getPath().substring(mPath.length());
+
+            if (request.isWebSocketUpgrade()) {
+                handleWebSocket(socket, input, request, action);
+            } else if (action.equals("negotiate")) {
+                handleNegotiate(socket);
+            } else if (action.equals("connect") || action.equals("reconnect") || action.equals("poll")) {
+                handleReceive(socket, request, action);
+            } else if (action.equals("send")) {
+                handleSend(socket, request);
+            } else if (action.equals("abort")) {
+                handleAbort(socket, request);
+            } else if (action.equals("ping")) {
+                respondJson(socket, "{\"Response\":\"pong\"}");
+            } else if (action.equals("start")) {
+                respondJson(socket, "{\"Response\":\"started\"}");
+            } else {
+                respond(socket, 404, "Not found");
+            }
+        } catch (Exception e) {
+            // the client went away, or sent something this server doesn't
+            // understand
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private void handleNegotiate(Socket socket) throws IOException, InterruptedException {
+        if (injectFailure(socket)) {
+            return;
+        }
+
+        String connectionId = UUID.randomUUID().toString();
+        ServerConnection connection = new ServerConnection(connectionId, UUID.randomUUID().toString() + ":" + connectionId);
+        mConnections.put(connection.getConnectionToken(), connection);
+
+        JSONObject response = new JSONObject();
+        try {
+            response.put("Url", mPath.substring(0, mPath.length() - 1));
+            response.put("ConnectionToken", connection.getConnectionToken());
+            response.put("ConnectionId", connectionId);
+            response.put("KeepAliveTimeout", mKeepAliveInterval * 2 / 1000.0);
+            response.put("DisconnectTimeout", mDisconnectTimeout / 1000.0);
+            response.put("ConnectionTimeout", mLongPollTimeout / 1000.0);
+            response.put("TryWebSockets", mTryWebSockets);
+            response.put("ProtocolVersion", PROTOCOL_VERSION);
+            response.put("TransportConnectTimeout", 5.0);
+            response.put("LongPollDelay", 0.0);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+
+        delay();
+        respondJson(socket, response.toString());
+    }
+
+    private void handleReceive(Socket socket, StandInRequest request, String action) throws IOException, InterruptedException {
+        ServerConnection connection = findConnection(request);
+        if (connection == null) {
+            respond(socket, 400, "Unknown connection token");
+            return;
+        }
+
+        if (injectFailure(socket)) {
+            return;
+        }
+
+        String transport = request.getParameter("transport");
+        if ("serverSentEvents".equals(transport)) {
+            if (action.equals("connect")) {
+                connection.enqueueInitialization(mLatencyNanos);
+            }
+
+            streamEvents(socket, connection);
+        } else if ("longPolling".equals(transport)) {
+            if (action.equals("connect")) {
+                // the connect request returns right away, the messages are
+                // taken by the following polls
+                delay();
+                respondJson(socket, "{\"C\":\"" + connection.currentMessageId() + "\",\"S\":1,\"M\":[]}");
+                return;
+            }
+
+            long generation = connection.attach(socket);
+            try {
+                String payload = connection.take(generation, mLongPollTimeout, TimeUnit.MILLISECONDS, mMaxBatchSize);
+                if (payload == null) {
+                    if (!connection.isAttached(generation)) {
+                        return;
+                    }
+                    payload = connection.emptyPayload();
+                }
+
+                respondJson(socket, payload);
+            } finally {
+                connection.detach(generation);
+            }
+        } else {
+            respond(socket, 400, "Unsupported transport: " + transport);
+        }
+    }
+
+    private void streamEvents(Socket socket, ServerConnection connection) throws IOException, InterruptedException {
+        OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+        output.write(("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nCache-Control: no-cache\r\nConnection: close\r\n\r\n"
+                + "data: initialized\n\n").getBytes(UTF8));
+        output.flush();
+
+        long generation = connection.attach(socket);
+        try {
+            while (mRunning) {
+                String payload = connection.take(generation, mKeepAliveInterval, TimeUnit.MILLISECONDS, mMaxBatchSize);
+                if (payload == null) {
+                    if (!connection.isAttached(generation)) {
+                        return;
+                    }
+
+                    if (mKeepAlivesSuppressed) {
+                        continue;
+                    }
+                    payload = KEEP_ALIVE;
+                }
+
+                output.write(("id: " + connection.currentMessageId() + "\ndata: " + payload + "\n\n").getBytes(UTF8));
+                output.flush();
+            }
+        } finally {
+            connection.detach(generation);
+        }
+    }
+
+    private void handleWebSocket(Socket socket, InputStream input, StandInRequest request, String action) throws IOException, InterruptedException {
+        ServerConnection connection = findConnection(request);
+        if (connection == null) {
+            respond(socket, 400, "Unknown connection token");
+            return;
+        }
+
+        String key = request.getHeader("Sec-WebSocket-Key");
+        if (key == null || !(action.equals("connect") || action.equals("reconnect"))) {
+            respond(socket, 400, "Invalid WebSocket request");
+            return;
+        }
+
+        if (injectFailure(socket)) {
+            return;
+        }
+
+        final OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+        output.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: "
+                + WebSocketCodec.acceptKey(key) + "\r\n\r\n").getBytes(UTF8));
+        output.flush();
+
+        if (action.equals("connect")) {
+            connection.enqueueInitialization(mLatencyNanos);
+        }
+
+        final ServerConnection webSocketConnection = connection;
+        final Socket webSocket = socket;
+        final long generation = connection.attach(socket);
+        mExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                writeWebSocketMessages(webSocketConnection, generation, webSocket, output);
+            }
+        });
+
+        try {
+            StringBuilder message = new StringBuilder();
+            WebSocketCodec.Frame frame;
+            while ((frame = WebSocketCodec.readFrame(input)) != null) {
+                if (frame.mOpcode == WebSocketCodec.OPCODE_CLOSE) {
+                    synchronized (output) {
+                        WebSocketCodec.writeFrame(output, WebSocketCodec.OPCODE_CLOSE, frame.mPayload);
+                        output.flush();
+                    }
+                    return;
+                } else if (frame.mOpcode == WebSocketCodec.OPCODE_PING) {
+                    synchronized (output) {
+                        WebSocketCodec.writeFrame(output, WebSocketCodec.OPCODE_PONG, frame.mPayload);
+                        output.flush();
+                    }
+                } else if (frame.mOpcode == WebSocketCodec.OPCODE_TEXT || frame.mOpcode == WebSocketCodec.OPCODE_CONTINUATION) {
+                    message.append(WebSocketCodec.toText(frame.mPayload));
+                    if (frame.mFinal) {
+                        receive(connection, message.toString());
+                        message.setLength(0);
+                    }
+                }
+            }
+        } finally {
+            connection.detach(generation);
+        }
+    }
+
+    private void writeWebSocketMessages(ServerConnection connection, long generation, Socket socket, OutputStream output) {
+        try {
+            while (mRunning) {
+                String payload = connection.take(generation, mKeepAliveInterval, TimeUnit.MILLISECONDS, mMaxBatchSize);
+                if (payload == null) {
+                    if (!connection.isAttached(generation)) {
+                        return;
+                    }
+
+                    if (mKeepAlivesSuppressed) {
+                        continue;
+                    }
+                    payload = KEEP_ALIVE;
+                }
+
+                synchronized (output) {
+                    WebSocketCodec.writeText(output, payload);
+                    output.flush();
+                }
+            }
+        } catch (Exception e) {
+            // the socket was closed
+        } finally {
+            connection.detach(generation);
+
+            // stops the reader as well
+            closeQuietly(socket);
+        }
+    }
+
+    private void handleSend(Socket socket, StandInRequest request) throws IOException, InterruptedException {
+        ServerConnection connection = findConnection(request);
+        if (connection == null) {
+            respond(socket, 400, "Unknown connection token");
+            return;
+        }
+
+        if (injectFailure(socket)) {
+            return;
+        }
+
+        String data = request.getFormParameter("data");
+        if (data == null) {
+            respond(socket, 400, "Missing data");
+            return;
+        }
+
+        receive(connection, data);
+
+        // hub replies are sent on the transport, as the real server does
+        delay();
+        respondJson(socket, "");
+    }
+
+    private void handleAbort(Socket socket, StandInRequest request) throws IOException {
+        ServerConnection connection = findConnection(request);
+        if (connection != null) {
+            mConnections.remove(connection.getConnectionToken());
+            connection.drop();
+        }
+
+        respondJson(socket, "");
+    }
+
+    /**
+     * Handles a hub invocation sent by a client, queuing its reply
+     */
+    private void receive(ServerConnection connection, String data) {
+        JSONObject reply = new JSONObject();
+        try {
+            JSONObject invocation = new JSONObject(data);
+            if (!invocation.has("I")) {
+                return;
+            }
+
+            mInvocationCount.incrementAndGet();
+            reply.put("I", invocation.get("I"));
+
+            String methodName = invocation.optString("M");
+            HubMethod method = mHubMethods.get(hubMethodKey(invocation.optString("H"), methodName));
+            if (method == null) {
+                reply.put("E", "'" + methodName + "' method could not be resolved.");
+            } else {
+                JSONArray args = invocation.optJSONArray("A");
+                try {
+                    Object result = method.invoke(connection.getConnectionId(), args != null ? args : new JSONArray());
+                    if (result != null) {
+                        reply.put("R", JSONObject.wrap(result));
+                    }
+                } catch (Exception e) {
+                    reply.put("E", String.valueOf(e.getMessage()));
+                }
+            }
+        } catch (JSONException e) {
+            // not a hub invocation
+            return;
+        }
+
+        connection.enqueue(reply.toString(), false, mLatencyNanos);
+    }
+
+    private void broadcast(String message) {
+        for (ServerConnection connection : mConnections.values()) {
+            enqueueHubMessage(connection, message);
+        }
+    }
+
+    private void enqueueHubMessage(ServerConnection connection, String message) {
+        mMessageCount.incrementAndGet();
+        connection.enqueue(message, true, mLatencyNanos);
+    }
+
+    private static String createHubMessage(String hubName, String methodName, Object... args) {
+        if (hubName == null) {
+            throw new IllegalArgumentException("hubName cannot be null");
+        }
+
+        if (methodName == null) {
+            throw new IllegalArgumentException("methodName cannot be null");
+        }
+
+        JSONArray arguments = new JSONArray();
+        if (args != null) {
+            for (Object arg : args) {
+                arguments.put(JSONObject.wrap(arg));
+            }
+        }
+
+        try {
+            return new JSONObject().put("H", hubName).put("M", methodName).put("A", arguments).toString();
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static String hubMethodKey(String hubName, String methodName) {
+        return hubName.toLowerCase(Locale.US) + "." + methodName.toLowerCase(Locale.US);
+    }
+
+    private ServerConnection findConnection(StandInRequest request) {
+        String token = request.getParameter("connectionToken");
+        if (token == null) {
+            return null;
+        }
+
+        ServerConnection connection = mConnections.get(token);
+        if (connection == null) {
+            // the WebSocket transport encodes the token twice
+            connection = mConnections.get(StandInRequest.decode(token));
+        }
+
+        return connection;
+    }
+
+    private boolean injectFailure(Socket socket) throws IOException {
+        double failureRate = mFailureRate;
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            mInjectedFailureCount.incrementAndGet();
+            respond(socket, 500, "Injected failure");
+            return true;
+        }
+
+        return false;
+    }
+
+    private void delay() throws InterruptedException {
+        long latency = mLatencyNanos;
+        if (latency > 0) {
+            TimeUnit.NANOSECONDS.sleep(latency);
+        }
+    }
+
+    private static void respondJson(Socket socket, String body) throws IOException {
+        write(socket, 200, "application/json; charset=UTF-8", body);
+    }
+
+    private static void respond(Socket socket, int status, String body) throws IOException {
+        write(socket, status, "text/plain; charset=UTF-8", body);
+    }
+
+    private static void write(Socket socket, int status, String contentType, String body) throws IOException {
+        byte[] content = body.getBytes(UTF8);
+        String head = "HTTP/1.1 " + status + " " + reasonPhrase(status) + "\r\nContent-Type: " + contentType + "\r\nContent-Length: "
+                + content.length + "\r\nCache-Control: no-cache\r\nConnection: close\r\n\r\n";
+
+        OutputStream output = socket.getOutputStream();
+        output.write(head.getBytes(UTF8));
+        output.write(content);
+        output.flush();
+    }
+
+    private static String reasonPhrase(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            default:
+                return "Internal Server Error";
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // the socket is discarded anyway
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+Copyright (c) Microsoft Open Technologies, Inc.
+All Rights Reserved
+See License.txt in the project root for license information.
+*/
+
+package microsoft.aspnet.signalr.testserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Server side of the RFC 6455 handshake and framing. Frames are written
+ * unfragmented and unmasked.
+ */
+class WebSocketCodec {
+
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * A frame read from the client
+     */
+    static class Frame {
+        final boolean mFinal;
+        final int mOpcode;
+        final byte[] mPayload;
+
+        Frame(boolean isFinal, int opcode, byte[] payload) {
+            mFinal = isFinal;
+            mOpcode = opcode;
+            mPayload = payload;
+        }
+    }
+
+    /**
+     * Returns the Sec-WebSocket-Accept value for a Sec-WebSocket-Key
+     */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(sha1.digest((key.trim() + HANDSHAKE_GUID).getBytes(UTF8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a frame, unmasking its payload
+     *
+     * @return The frame, or null if the stream ended
+     */
+    static Frame readFrame(InputStream stream) throws IOException {
+        int first = stream.read();
+        if (first == -1) {
+            return null;
+        }
+
+        int second = readByte(stream);
+        boolean masked = (second & 0x80) != 0;
+
+        long length = second & 0x7F;
+        if (length == 126) {
+            length = (readByte(stream) << 8) | readByte(stream);
+        } else if (length == 127) {
+            length = 0;
+            for (int i = 0; i < 8; i++) {
+                length = (length << 8) | readByte(stream);
+            }
+        }
+
+        if (length > MAX_FRAME_LENGTH) {
+            throw new IOException("Frame too large: " + length);
+        }
+
+        byte[] mask = new byte[4];
+        if (masked) {
+            readFully(stream, mask);
+        }
+
+        byte[] payload = new byte[(int) length];
+        readFully(stream, payload);
+
+        if (masked) {
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i & 3];
+            }
+        }
+
+        return new Frame((first & 0x80) != 0, first & 0x0F, payload);
+    }
+
+    /**
+     * Writes a text frame
+     */
+    static void writeText(OutputStream stream, String text) throws IOException {
+        writeFrame(stream, OPCODE_TEXT, text.getBytes(UTF8));
+    }
+
+    /**
+     * Writes a final frame
+     */
+    static void writeFrame(OutputStream stream, int opcode, byte[] payload) throws IOException {
+        int length = payload.length;
+        byte[] header;
+        if (length < 126) {
+            header = new byte[] { (byte) (0x80 | opcode), (byte) length };
+        } else if (length <= 0xFFFF) {
+            header = new byte[] { (byte) (0x80 | opcode), 126, (byte) (length >>> 8), (byte) length };
+        } else {
+            header = new byte[10];
+            header[0] = (byte) (0x80 | opcode);
+            header[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                header[9 - i] = (byte) ((long) length >>> (8 * i));
+            }
+        }
+
+        stream.write(header);
+        stream.write(payload);
+    }
+
+    static String toText(byte[] payload) {
+        return new String(payload, UTF8);
+    }
+
+    private static int readByte(InputStream stream) throws IOException {
+        int b = stream.read();
+        if (b == -1) {
+            throw new EOFException("The frame ended early");
+        }
+
+        return b;
+    }
+
+    private static void readFully(InputStream stream, byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int count = stream.read(buffer, read, buffer.length - read);
+            if (count == -1) {
+                throw new EOFException("The frame ended early");
+            }
+            read += count;
+        }
+    }
+}